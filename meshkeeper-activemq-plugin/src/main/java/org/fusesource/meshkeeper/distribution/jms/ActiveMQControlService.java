@@ -23,12 +23,28 @@ import java.util.List;
 import org.apache.activemq.broker.BrokerFactory;
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.TransportConnector;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
 import org.fusesource.meshkeeper.control.ControlService;
 
 /**
  * ActiveMQControlService
  * <p>
- * Description:
+ * Description: Runs the broker carrying remoting and eventing traffic. Unless
+ * a broker configuration uri is given the broker is created with one of two
+ * profiles:
+ * <ul>
+ * <li><b>rpc</b> (the default): an in memory, non persistent broker tuned for
+ * request/response traffic. Destinations use optimized dispatch without
+ * producer flow control, and the service uri handed to clients enables async
+ * sends along with the configured prefetch.</li>
+ * <li><b>persistent</b>: a broker with a persistent store that is cleared on
+ * startup.</li>
+ * </ul>
+ * The profile and its settings can be given as query parameters of the
+ * provider uri, for example
+ * <code>activemq:tcp://0.0.0.0:0?profile=rpc&amp;prefetch=100</code>.
  * </p>
  *
  * @author cmacnaug
@@ -36,10 +52,19 @@ import org.fusesource.meshkeeper.control.ControlService;
  */
 public class ActiveMQControlService implements ControlService {
 
+    public static final String PROFILE_RPC = "rpc";
+    public static final String PROFILE_PERSISTENT = "persistent";
+
     BrokerService controlBroker;
     String serviceUri;
     String directory = "activemq-control-service";
 
+    private String profile = System.getProperty("meshkeeper.activemq.profile", PROFILE_RPC);
+    private int prefetch = -1;
+    private long memoryLimit = 64 * 1024 * 1024;
+    //Client connection options added to the service uri:
+    private String clientOptions;
+
     /*
      * (non-Javadoc)
      *
@@ -60,6 +85,9 @@ public class ActiveMQControlService implements ControlService {
         controlBroker.start();
         List<TransportConnector> connectors = controlBroker.getTransportConnectors();
         serviceUri = "activemq:" + externalizeUrl(connectors.get(0).getConnectUri());
+        if (clientOptions != null) {
+            serviceUri += (serviceUri.indexOf('?') < 0 ? "?" : "&") + clientOptions;
+        }
     }
     
     private URI externalizeUrl(URI uri) throws Exception
@@ -104,20 +132,74 @@ public class ActiveMQControlService implements ControlService {
         return serviceUri;
     }
 
-    static ActiveMQControlService create(URI uri) throws Exception {
-        ActiveMQControlService rc = new ActiveMQControlService();
-        BrokerService controlBroker = null;
+    /**
+     * Sets the broker profile, either {@link #PROFILE_RPC} or
+     * {@link #PROFILE_PERSISTENT}.
+     */
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the consumer prefetch used by clients of an rpc profile broker, a
+     * negative value leaves the ActiveMQ defaults.
+     */
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Sets the memory limit of an rpc profile broker in bytes.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    void createBroker(URI uri) throws Exception {
         try {
             controlBroker = BrokerFactory.createBroker(uri);
+            return;
         } catch (Throwable thrown) {
-            controlBroker = new BrokerService();
-            controlBroker.setBrokerName("MeshKeeperControlBroker");
-            controlBroker.addConnector(uri.toString());
-            //controlBroker.setPersistent(false);
+        }
+
+        controlBroker = new BrokerService();
+        controlBroker.setBrokerName("MeshKeeperControlBroker");
+        controlBroker.addConnector(uri.toString());
+        controlBroker.setUseJmx(false);
+
+        if (PROFILE_PERSISTENT.equals(profile)) {
             controlBroker.setDeleteAllMessagesOnStartup(true);
-            controlBroker.setUseJmx(false);
+        } else if (PROFILE_RPC.equals(profile)) {
+            //Remoting and eventing traffic is transient, keep it off disk:
+            controlBroker.setPersistent(false);
+            controlBroker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+            controlBroker.getSystemUsage().getMemoryUsage().setLimit(memoryLimit);
+
+            PolicyEntry policy = new PolicyEntry();
+            policy.setOptimizedDispatch(true);
+            policy.setProducerFlowControl(false);
+            PolicyMap policyMap = new PolicyMap();
+            policyMap.setDefaultEntry(policy);
+            controlBroker.setDestinationPolicy(policyMap);
+
+            clientOptions = "jms.useAsyncSend=true";
+            if (prefetch >= 0) {
+                clientOptions += "&jms.prefetchPolicy.all=" + prefetch;
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown broker profile: " + profile);
         }
-        rc.controlBroker = controlBroker;
-        return rc;
     }
 }
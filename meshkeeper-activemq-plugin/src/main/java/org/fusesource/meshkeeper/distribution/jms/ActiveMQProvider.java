@@ -18,9 +18,11 @@ package org.fusesource.meshkeeper.distribution.jms;
 
 import java.net.URI;
 
+import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 
+import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.ActiveMQTopic;
@@ -73,4 +75,20 @@ public class ActiveMQProvider extends JMSProvider {
         return new ActiveMQTopic(name);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.fusesource.meshkeeper.distribution.jms.JMSProvider#setAsyncSend(javax
+     * .jms.Connection, boolean)
+     */
+    @Override
+    public boolean setAsyncSend(Connection connection, boolean asyncSend) {
+        if (connection instanceof ActiveMQConnection) {
+            ((ActiveMQConnection) connection).setUseAsyncSend(asyncSend);
+            return true;
+        }
+        return false;
+    }
+
 }
@@ -36,6 +36,9 @@ public class ActiveMQServerFactory extends JMSServerFactory {
      */
     @Override
     public ControlService createPlugin(String providerUri) throws Exception {
-        return ActiveMQControlService.create(new URI(providerUri));
+        ActiveMQControlService service = new ActiveMQControlService();
+        URI uri = applyQueryParameters(service, new URI(providerUri));
+        service.createBroker(uri);
+        return service;
     }
 }
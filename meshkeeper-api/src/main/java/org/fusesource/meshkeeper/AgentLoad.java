@@ -0,0 +1,204 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import java.io.Serializable;
+
+import org.fusesource.meshkeeper.MeshKeeper.Launcher;
+
+/**
+ * AgentLoad
+ * <p>
+ * Description: The load on a launch agent's host, published periodically by
+ * the agent to the registry and used by the {@link Launcher} to schedule
+ * launches, see {@link SchedulingPolicy}. Figures the agent's jvm can't
+ * measure are reported as -1.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class AgentLoad implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String agentId;
+    private long timestamp;
+    private long interval;
+    private int numProcessors;
+    private double cpuLoad = -1;
+    private double loadAverage = -1;
+    private long freeMemory = -1;
+    private long totalMemory = -1;
+    private int processCount;
+    private int pendingLaunches;
+    private int reservedPorts;
+
+    /**
+     * @return The id of the agent.
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+
+    /**
+     * @return When the figures were taken, by the agent's clock.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return How often, in milliseconds, the agent publishes its load.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getNumProcessors() {
+        return numProcessors;
+    }
+
+    public void setNumProcessors(int numProcessors) {
+        this.numProcessors = numProcessors;
+    }
+
+    /**
+     * @return The host's recent cpu usage between 0 and 1.
+     */
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public void setCpuLoad(double cpuLoad) {
+        this.cpuLoad = cpuLoad;
+    }
+
+    /**
+     * @return The host's system load average for the last minute.
+     */
+    public double getLoadAverage() {
+        return loadAverage;
+    }
+
+    public void setLoadAverage(double loadAverage) {
+        this.loadAverage = loadAverage;
+    }
+
+    /**
+     * @return The host's free physical memory in bytes.
+     */
+    public long getFreeMemory() {
+        return freeMemory;
+    }
+
+    public void setFreeMemory(long freeMemory) {
+        this.freeMemory = freeMemory;
+    }
+
+    /**
+     * @return The host's total physical memory in bytes.
+     */
+    public long getTotalMemory() {
+        return totalMemory;
+    }
+
+    public void setTotalMemory(long totalMemory) {
+        this.totalMemory = totalMemory;
+    }
+
+    /**
+     * @return The number of processes the agent has running.
+     */
+    public int getProcessCount() {
+        return processCount;
+    }
+
+    public void setProcessCount(int processCount) {
+        this.processCount = processCount;
+    }
+
+    /**
+     * @return The number of launches queued or in progress on the agent. When
+     *         handed to a {@link SchedulingPolicy} this also counts the
+     *         launches the scheduler placed on the agent since the figures
+     *         were taken.
+     */
+    public int getPendingLaunches() {
+        return pendingLaunches;
+    }
+
+    public void setPendingLaunches(int pendingLaunches) {
+        this.pendingLaunches = pendingLaunches;
+    }
+
+    /**
+     * @return The number of tcp ports reserved on the agent.
+     */
+    public int getReservedPorts() {
+        return reservedPorts;
+    }
+
+    public void setReservedPorts(int reservedPorts) {
+        this.reservedPorts = reservedPorts;
+    }
+
+    /**
+     * @return The processes running or about to run on the agent.
+     */
+    public int getScheduledProcesses() {
+        return processCount + pendingLaunches;
+    }
+
+    /**
+     * Scores how busy the agent is, for comparing agents of differing sizes:
+     * the scheduled processes per processor plus the cpu usage, or the load
+     * average per processor if the cpu usage isn't known.
+     * 
+     * @return The score, lower is less loaded.
+     */
+    public double getLoadScore() {
+        int processors = Math.max(1, numProcessors);
+        double cpu = cpuLoad >= 0 ? cpuLoad : loadAverage >= 0 ? loadAverage / processors : 0;
+        return (double) getScheduledProcesses() / processors + cpu;
+    }
+
+    public AgentLoad clone() {
+        try {
+            return (AgentLoad) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String toString() {
+        return agentId + ": processes=" + processCount + " pending=" + pendingLaunches + " cpu=" + cpuLoad + " loadAverage=" + loadAverage + " freeMemory=" + freeMemory / (1024 * 1024)
+                + "MB ports=" + reservedPorts;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+/**
+ * ExecutorMetrics
+ * <p>
+ * Instrumentation for one of the executors MeshKeeper runs its work on, see
+ * {@link MeshKeeper#getExecutorMetrics()}. Latencies and execution times are
+ * in nanoseconds and cover every task run since the executor was created.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface ExecutorMetrics {
+
+    /**
+     * @return The executor's name, the subsystem it serves.
+     */
+    public String getName();
+
+    /**
+     * @return The number of threads in the executor.
+     */
+    public int getPoolSize();
+
+    /**
+     * @return The number of threads running tasks.
+     */
+    public int getActiveCount();
+
+    /**
+     * @return The number of tasks waiting to run.
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return The number of tasks run to completion.
+     */
+    public long getCompletedTaskCount();
+
+    /**
+     * @return The average time tasks waited between being due to run and
+     *         starting.
+     */
+    public long getAverageQueueLatency();
+
+    /**
+     * @return The longest time a task waited between being due to run and
+     *         starting.
+     */
+    public long getMaxQueueLatency();
+
+    /**
+     * @return The average time tasks took to run.
+     */
+    public long getAverageExecutionTime();
+
+    /**
+     * @return The longest time a task took to run.
+     */
+    public long getMaxExecutionTime();
+}
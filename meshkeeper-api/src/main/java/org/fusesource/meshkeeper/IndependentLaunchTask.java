@@ -0,0 +1,37 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+/**
+ * IndependentLaunchTask
+ * <p>
+ * Description: A {@link LaunchTask} that neither depends on nor is depended
+ * on by the independent tasks next to it in a launch's pre-launch tasks, so
+ * the agent may run them concurrently. A plain {@link LaunchTask} still waits
+ * for every task added before it, and every task added after it waits for it
+ * in turn, so tasks that set up state others rely on keep their ordering.
+ * </p>
+ * <p>
+ * Independent tasks running together must only touch the launching process
+ * in thread safe ways, such as setting process properties.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface IndependentLaunchTask extends LaunchTask {
+}
@@ -20,6 +20,7 @@ import org.fusesource.meshkeeper.Expression;
 import org.fusesource.meshkeeper.MeshKeeper.Launcher;
 import org.fusesource.meshkeeper.classloader.ClassLoaderFactory;
 import org.fusesource.meshkeeper.launcher.LocalProcess;
+import org.fusesource.meshkeeper.util.OutputFilter;
 import org.fusesource.meshkeeper.util.internal.ProcessSupport;
 
 import java.io.File;
@@ -48,6 +49,7 @@ public class LaunchDescription implements Serializable {
     HashMap<String, Expression> environment;
     Expression.FileExpression workingDirectory;
     ArrayList<LaunchTask> preLaunchTasks = new ArrayList<LaunchTask>();
+    OutputFilter outputFilter;
     
     public LaunchDescription add(String... values) {
         return add(string(values));
@@ -82,7 +84,7 @@ public class LaunchDescription implements Serializable {
         }
     }
 
-    private static class InstallLaunchResourceTask implements Serializable, LaunchTask {
+    private static class InstallLaunchResourceTask implements Serializable, IndependentLaunchTask {
 
         private static final long serialVersionUID = 1L;
         private final MeshArtifact resource;
@@ -94,9 +96,13 @@ public class LaunchDescription implements Serializable {
         public void execute(LocalProcess process) throws Exception {
             process.getProcessLauncher().getMeshKeeper().repository().resolveArtifact(resource);
         }
+
+        public String toString() {
+            return "resolve " + resource.getRepositoryPath();
+        }
     }
 
-    static class BootstrapClassPathTask implements Serializable, LaunchTask {
+    static class BootstrapClassPathTask implements Serializable, IndependentLaunchTask {
         public static final String BOOTSTRAP_CP_PROPERTY = "bootstrap.classpath";
         private static final long serialVersionUID = 1L;
         private final String classLoaderPath;
@@ -131,6 +137,10 @@ public class LaunchDescription implements Serializable {
             }
 
         }
+
+        public String toString() {
+            return "bootstrap " + classLoaderPath;
+        }
     }
 
     private static class SubLaunchTask implements Serializable, LaunchTask, MeshProcessListener {
@@ -149,7 +159,9 @@ public class LaunchDescription implements Serializable {
 
         public void execute(LocalProcess process) throws Exception {
             this.process = process;
-            process.getProcessLauncher().launch(launch, process.getOwnerRegistryPath(), this);
+            //Launched on this thread, which is already one of the agent's
+            //launch threads:
+            process.getProcessLauncher().launchInline(launch, process.getOwnerRegistryPath(), this);
             done.await();
             if (error != null) {
                 throw error;
@@ -181,10 +193,16 @@ public class LaunchDescription implements Serializable {
                 listener.onProcessOutput(fd, output);
             }
         }
+
+        public String toString() {
+            return "setup " + launch.getCommand();
+        }
     }
 
     /**
-     * Adds a prelaunch taks to the launch description:
+     * Adds a prelaunch taks to the launch description. Consecutive
+     * {@link IndependentLaunchTask}s may be run concurrently, other tasks run
+     * in the order added.
      * 
      * @param task
      *            The task to add.
@@ -238,6 +256,22 @@ public class LaunchDescription implements Serializable {
         this.workingDirectory = file(workingDirectory);
     }
 
+    /**
+     * Sets a filter the launch agent applies to the process' output, so that
+     * only matching lines, or just the number of them, are sent to the
+     * process listener rather than all of the output.
+     * 
+     * @param outputFilter
+     *            The filter or null to send all output.
+     */
+    public void setOutputFilter(OutputFilter outputFilter) {
+        this.outputFilter = outputFilter;
+    }
+
+    public OutputFilter getOutputFilter() {
+        return outputFilter;
+    }
+
     public ArrayList<Expression> getCommand() {
         return command;
     }
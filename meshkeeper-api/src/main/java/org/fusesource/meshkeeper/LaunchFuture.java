@@ -0,0 +1,43 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import java.util.concurrent.Future;
+
+/**
+ * LaunchFuture
+ * <p>
+ * Description: The pending result of a launch made with a batch launch.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ * @param <T> The launched process type.
+ */
+public interface LaunchFuture<T> extends Future<T> {
+
+    /**
+     * @return The request this is the result of.
+     */
+    public LaunchRequest getRequest();
+
+    /**
+     * @return The launch's timings, or null if the launch hasn't completed
+     *         or failed before reaching the agent.
+     */
+    public LaunchMetrics getMetrics();
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LaunchMetrics
+ * <p>
+ * Description: Timings for a single launch, split by phase. The queue,
+ * bootstrap, exec and registration phases are measured on the launch agent,
+ * the round trip and container registration on the launching client. Times
+ * are in nanoseconds, a phase that didn't take place is reported as 0.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LaunchMetrics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long queueTime;
+    private long bootstrapTime;
+    private long execTime;
+    private long registrationTime;
+    private long roundTripTime;
+    private long containerRegistrationTime;
+    private LinkedHashMap<String, Long> taskTimes;
+
+    /**
+     * @return The time the launch waited in the agent's launch queue for
+     *         other launches to finish.
+     */
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    public void setQueueTime(long queueTime) {
+        this.queueTime = queueTime;
+    }
+
+    /**
+     * @return The time the agent spent preparing the launch: running its
+     *         pre-launch tasks, which resolve the classpath and other
+     *         resources, and evaluating the command line.
+     */
+    public long getBootstrapTime() {
+        return bootstrapTime;
+    }
+
+    public void setBootstrapTime(long bootstrapTime) {
+        this.bootstrapTime = bootstrapTime;
+    }
+
+    /**
+     * @return The time the agent spent executing the process.
+     */
+    public long getExecTime() {
+        return execTime;
+    }
+
+    public void setExecTime(long execTime) {
+        this.execTime = execTime;
+    }
+
+    /**
+     * @return The time the agent spent registering the process in the
+     *         registry.
+     */
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    public void setRegistrationTime(long registrationTime) {
+        this.registrationTime = registrationTime;
+    }
+
+    /**
+     * @return The time from the client sending the launch to the agent until
+     *         it got the launched process back. For a batch launch this
+     *         covers every launch sent to the agent in the same call.
+     */
+    public long getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public void setRoundTripTime(long roundTripTime) {
+        this.roundTripTime = roundTripTime;
+    }
+
+    /**
+     * @return For a {@link MeshContainer} launch the time from the process
+     *         being launched until the container registered itself, which
+     *         includes the container's jvm start up and class loader
+     *         bootstrap.
+     */
+    public long getContainerRegistrationTime() {
+        return containerRegistrationTime;
+    }
+
+    public void setContainerRegistrationTime(long containerRegistrationTime) {
+        this.containerRegistrationTime = containerRegistrationTime;
+    }
+
+    /**
+     * @return The time each pre-launch task took, keyed by the task's
+     *         position and name, e.g. "0: task", in task order. Tasks that
+     *         ran concurrently overlap, so these can add up to more than the
+     *         bootstrap time.
+     */
+    public synchronized Map<String, Long> getTaskTimes() {
+        if (taskTimes == null) {
+            return new LinkedHashMap<String, Long>();
+        }
+        return new LinkedHashMap<String, Long>(taskTimes);
+    }
+
+    public synchronized void addTaskTime(String task, long time) {
+        if (taskTimes == null) {
+            taskTimes = new LinkedHashMap<String, Long>();
+        }
+        String key = task;
+        for (int i = 2; taskTimes.containsKey(key); i++) {
+            key = task + " (" + i + ")";
+        }
+        taskTimes.put(key, time);
+    }
+
+    public String toString() {
+        return "queue=" + queueTime / 1000000 + "ms bootstrap=" + bootstrapTime / 1000000 + "ms exec=" + execTime / 1000000 + "ms registration=" + registrationTime / 1000000 + "ms roundTrip=" + roundTripTime / 1000000
+                + "ms containerRegistration=" + containerRegistrationTime / 1000000 + "ms";
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import org.fusesource.meshkeeper.MeshKeeper.Launcher;
+
+/**
+ * LaunchRequest
+ * <p>
+ * Description: A single entry in a batch launch, see
+ * {@link Launcher#launchProcesses(java.util.List)} and
+ * {@link Launcher#launchMeshContainers(java.util.List)}.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LaunchRequest {
+
+    private final String agentId;
+    private final LaunchDescription launch;
+    private final JavaLaunch javaLaunch;
+    private final MeshProcessListener listener;
+
+    /**
+     * @param agentId
+     *            The agent to launch on, or null to have the launcher
+     *            schedule it, see {@link Launcher#scheduleAgent()}.
+     * @param launch
+     *            The launch description.
+     * @param listener
+     *            A listener for the process's output, may be null.
+     */
+    public LaunchRequest(String agentId, LaunchDescription launch, MeshProcessListener listener) {
+        this.agentId = agentId;
+        this.launch = launch;
+        this.javaLaunch = null;
+        this.listener = listener;
+    }
+
+    /**
+     * @param agentId
+     *            The agent to launch on, or null to have the launcher
+     *            schedule it, see {@link Launcher#scheduleAgent()}.
+     * @param launch
+     *            The java launch, for a {@link MeshContainer} launch it must
+     *            have been created by {@link Launcher#createMeshContainerLaunch()}
+     *            or be null.
+     * @param listener
+     *            A listener for the process's output, may be null.
+     */
+    public LaunchRequest(String agentId, JavaLaunch launch, MeshProcessListener listener) {
+        this.agentId = agentId;
+        this.launch = null;
+        this.javaLaunch = launch;
+        this.listener = listener;
+    }
+
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * @return The launch description, converting the java launch if this
+     *         request was created with one.
+     */
+    public LaunchDescription getLaunchDescription() {
+        if (launch == null && javaLaunch != null) {
+            return javaLaunch.toLaunchDescription();
+        }
+        return launch;
+    }
+
+    /**
+     * @return The java launch if this request was created with one.
+     */
+    public JavaLaunch getJavaLaunch() {
+        return javaLaunch;
+    }
+
+    public MeshProcessListener getListener() {
+        return listener;
+    }
+
+    public String toString() {
+        return "LaunchRequest[" + agentId + "]";
+    }
+}
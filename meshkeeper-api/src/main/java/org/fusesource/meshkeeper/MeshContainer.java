@@ -17,8 +17,10 @@
 package org.fusesource.meshkeeper;
 
 import java.io.Serializable;
+import java.util.concurrent.Future;
 
 import org.fusesource.meshkeeper.launcher.MeshContainerService;
+import org.fusesource.meshkeeper.util.MeshContainers;
 
 /**
  * MeshContainer
@@ -32,6 +34,28 @@ import org.fusesource.meshkeeper.launcher.MeshContainerService;
  */
 public interface MeshContainer extends MeshProcess, MeshContainerService {
 
+    /**
+     * Runs the {@link Runnable} in the container without waiting for it to
+     * complete.
+     * 
+     * @param r The {@link Runnable}
+     * @return A future that completes once the {@link Runnable} has run in
+     *         the container.
+     * @throws Exception If the {@link Runnable} couldn't be submitted.
+     */
+    public <R extends java.lang.Runnable & Serializable> Future<?> runAsync(R r) throws Exception;
+
+    /**
+     * Invokes the {@link Callable} in the container without waiting for it to
+     * complete. {@link MeshContainers#callAll(java.util.Collection, java.util.concurrent.Callable)}
+     * can be used to invoke it on a number of containers at once.
+     * 
+     * @param c The {@link Callable}
+     * @return A future for the {@link Callable}'s result.
+     * @throws Exception If the {@link Callable} couldn't be submitted.
+     */
+    public <T, C extends java.util.concurrent.Callable<T> & Serializable> Future<T> callAsync(C c) throws Exception;
+
     /**
      * Extension of {@link java.util.concurrent.Callable} that extends
      * {@link Serializable}
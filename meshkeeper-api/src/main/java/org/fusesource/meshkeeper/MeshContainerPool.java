@@ -0,0 +1,116 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import org.fusesource.meshkeeper.MeshKeeper.Launcher;
+
+/**
+ * MeshContainerPool
+ * <p>
+ * A pool of already launched and bootstrapped {@link MeshContainer}s, created
+ * via {@link Launcher#createMeshContainerPool(org.fusesource.meshkeeper.classloader.ClassLoaderFactory, int)}.
+ * The pool keeps up to its idle count of containers waiting on each agent it
+ * has been used with so that acquiring a container doesn't wait on a jvm
+ * start up and class loader bootstrap.
+ * </p>
+ * <p>
+ * Closing an acquired container returns it to the pool: the objects hosted in
+ * it are unhosted and it is kept for reuse if the agent's idle containers
+ * aren't already at the idle count, otherwise it is killed. Killing an
+ * acquired container retires it from the pool. A container that is still
+ * running {@link Runnable}s when closed is retired too.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface MeshContainerPool {
+
+    /**
+     * Acquires a container on the given agent, launching one if none is idle.
+     * Either way the agent's idle containers are topped back up in the
+     * background.
+     * 
+     * @param agentId
+     *            The agent, or null to acquire one on the agent the launcher
+     *            schedules.
+     * @return The container.
+     * @throws Exception
+     *             If there is no idle container and launching one fails.
+     */
+    public MeshContainer acquire(String agentId) throws Exception;
+
+    /**
+     * Acquires a container on the given agent, see {@link #acquire(String)}.
+     * 
+     * @param agentId
+     *            The agent.
+     * @param listener
+     *            The listener for the container's output until it is closed.
+     * @return The container.
+     * @throws Exception
+     *             If there is no idle container and launching one fails.
+     */
+    public MeshContainer acquire(String agentId, MeshProcessListener listener) throws Exception;
+
+    /**
+     * Launches containers on the given agent in the background until it has
+     * the idle count waiting.
+     * 
+     * @param agentId
+     *            The agent.
+     */
+    public void prestart(String agentId) throws Exception;
+
+    /**
+     * @return The number of idle containers kept per agent.
+     */
+    public int getIdleCount();
+
+    /**
+     * Sets the number of idle containers kept per agent.
+     */
+    public void setIdleCount(int idleCount);
+
+    /**
+     * @return The number of times a container is acquired before it is
+     *         retired, 0 if containers aren't retired based on use.
+     */
+    public int getMaxUses();
+
+    /**
+     * Sets the number of times a container is acquired before it is retired,
+     * 0 for no limit.
+     */
+    public void setMaxUses(int maxUses);
+
+    /**
+     * @return The number of acquires that found an idle container.
+     */
+    public long getHits();
+
+    /**
+     * @return The number of acquires that had to launch a container.
+     */
+    public long getMisses();
+
+    /**
+     * Kills the pool's idle containers. Containers still acquired are killed
+     * when they are closed.
+     */
+    public void close();
+}
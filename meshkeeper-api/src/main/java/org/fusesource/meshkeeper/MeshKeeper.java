@@ -22,6 +22,7 @@ import java.io.Serializable;
 import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -155,6 +156,21 @@ public interface MeshKeeper {
          */
         public List<Integer> reserveTcpPorts(String agentName, int count) throws Exception;
 
+        /**
+         * Requests a range of consecutive tcp ports from the specified
+         * process launcher. The ports are released like those reserved with
+         * {@link #reserveTcpPorts(String, int)}.
+         * 
+         * @param agentName
+         *            The name of the process launcher
+         * @param count
+         *            The number of ports.
+         * @return The reserved ports in ascending order
+         * @throws Exception
+         *             If there is no free range of the requested size.
+         */
+        public List<Integer> reserveTcpPortRange(String agentName, int count) throws Exception;
+
         /**
          * Releases previously reserved ports at the launcher.
          */
@@ -203,6 +219,45 @@ public interface MeshKeeper {
          */
         public HostProperties[] getAvailableAgents();
 
+        /**
+         * Gets the load most recently published by each available agent.
+         * Launches placed by this launcher's scheduler since an agent last
+         * published are counted in {@link AgentLoad#getPendingLaunches()}.
+         * 
+         * @return The load of each available agent, sorted by agent id.
+         */
+        public AgentLoad[] getAgentLoads();
+
+        /**
+         * Sets the policy used to choose the agent for launches that don't
+         * name one, see {@link #scheduleAgent()}.
+         * 
+         * @param policy
+         *            The policy, or null for the default
+         *            {@link org.fusesource.meshkeeper.util.SchedulingPolicies#spread()}
+         */
+        public void setSchedulingPolicy(SchedulingPolicy policy);
+
+        /**
+         * @return The policy used to choose the agent for launches that don't
+         *         name one.
+         */
+        public SchedulingPolicy getSchedulingPolicy();
+
+        /**
+         * Chooses an available agent for a launch using the
+         * {@link SchedulingPolicy}. The placement is counted against the
+         * agent's load until the agent next publishes it, so the caller is
+         * expected to launch on the agent. This is done for any launch
+         * passed a null agent id.
+         * 
+         * @return The id of the chosen agent.
+         * @throws Exception
+         *             If there are no available agents or none fits the
+         *             policy.
+         */
+        public String scheduleAgent() throws Exception;
+
         /**
          * Attempts to bind the given agent. Once an agent is bound it is
          * exclusively available to this mesh keeper until it is released or
@@ -237,7 +292,8 @@ public interface MeshKeeper {
          * Launches a process on the specified agent.
          * 
          * @param agentId
-         *            The agent
+         *            The agent, or null to schedule the launch with
+         *            {@link #scheduleAgent()}.
          * @param launch
          *            The launch description.
          * @param listener
@@ -316,7 +372,7 @@ public interface MeshKeeper {
         /**
          * Launches a {@link MeshContainer} on the specified agent.
          *  
-         * @param agentId The agent. 
+         * @param agentId The agent, or null to schedule the launch with {@link #scheduleAgent()}. 
          * @return The newly launched container
          * @throws Exception If there is an error launching the container. 
          */
@@ -325,7 +381,7 @@ public interface MeshKeeper {
         /**
          * Launches a {@link MeshContainer} on the specified agent.
          *  
-         * @param agentId The agent. 
+         * @param agentId The agent, or null to schedule the launch with {@link #scheduleAgent()}. 
          * @param listener The listener for container output. 
          * @return The newly launched container
          * @throws Exception If there is an error launching the container. 
@@ -338,7 +394,7 @@ public interface MeshKeeper {
          * used to set additional jvm args, or classpath elements for the launched container. Usage
          * of a provided java launch is an advanced feature, and is recommended only when needed. 
          *  
-         * @param agentId The agent. 
+         * @param agentId The agent, or null to schedule the launch with {@link #scheduleAgent()}. 
          * @param listener The listener for container output. 
          * @param launch The launch description. 
          * @return The newly launched container
@@ -346,6 +402,55 @@ public interface MeshKeeper {
          */
         public MeshContainer launchMeshContainer(String agentId, JavaLaunch launch, MeshProcessListener listener) throws Exception;
 
+        /**
+         * Launches a batch of processes. The requests are grouped by agent
+         * and each agent is sent its launches in a single call, with the
+         * agents being called in parallel. A launch that fails doesn't
+         * affect the others, its future reports the error.
+         * 
+         * @param requests
+         *            The launches.
+         * @return A future for each request, in the same order. Each future's
+         *         {@link LaunchFuture#getMetrics()} gives the launch's timings
+         *         once done.
+         * @throws Exception
+         *             If the launcher is closed.
+         */
+        public List<LaunchFuture<MeshProcess>> launchProcesses(List<LaunchRequest> requests) throws Exception;
+
+        /**
+         * Launches a batch of {@link MeshContainer}s in the same manner as
+         * {@link #launchProcesses(List)}. A request's {@link JavaLaunch},
+         * when non null, must have been created via
+         * {@link #createMeshContainerLaunch()}. A container's future
+         * completes once the container has registered itself.
+         * 
+         * @param requests
+         *            The container launches.
+         * @return A future for each request, in the same order.
+         * @throws Exception
+         *             If the launcher is closed or a request's launch wasn't
+         *             created for a container.
+         */
+        public List<LaunchFuture<MeshContainer>> launchMeshContainers(List<LaunchRequest> requests) throws Exception;
+
+        /**
+         * Creates a pool of {@link MeshContainer}s that keeps the given
+         * number of idle containers, bootstrapped with the given factory,
+         * on each agent it is used with. The pool is closed when this
+         * launcher is destroyed.
+         * 
+         * @param factory
+         *            The class loader factory the containers are bootstrapped
+         *            with, or null to use {@link #getBootstrapClassLoaderFactory()}.
+         * @param idlePerAgent
+         *            The number of idle containers to keep on each agent.
+         * @return The pool
+         * @throws Exception
+         *             If the launcher is closed.
+         */
+        public MeshContainerPool createMeshContainerPool(ClassLoaderFactory factory, int idlePerAgent) throws Exception;
+
         /**
          * Sets the classloader that will be used to bootstrap java launches.
          * This classloader will be used for launched {@link MeshContainer}s and
@@ -488,6 +593,26 @@ public interface MeshKeeper {
          */
         public <T> T getRegistryObject(String path) throws Exception;
 
+        /**
+         * Gets the objects stored in the children of the given path, or in
+         * all of its descendants when recursive is true, in a single call.
+         * This is much cheaper than listing the nodes and getting each object
+         * in turn as implementations may fetch the nodes concurrently. Nodes
+         * that hold no data are not included.
+         * 
+         * @param <T>
+         *            The type of the objects expected.
+         * @param path
+         *            The parent path.
+         * @param recursive
+         *            If true then all descendants are included, otherwise
+         *            only the direct children.
+         * @return A map of node path to object, sorted by path.
+         * @throws Exception
+         *             If the objects couldn't be retrieved.
+         */
+        public <T> Map<String, T> getRegistryObjects(String path, boolean recursive) throws Exception;
+
         /**
          * Gets the data at the specified node. The path name
          * must not end with a '/' character. 
@@ -536,6 +661,36 @@ public interface MeshKeeper {
          */
         public String addRegistryData(String path, boolean sequential, byte[] data) throws Exception;
 
+        /**
+         * Replaces the data stored at the given path in place, creating the
+         * node if it doesn't exist. Unlike removing and re-adding the node
+         * the path never disappears, so readers never miss it, and no child
+         * watchers of the parent are notified.
+         * 
+         * @param path
+         *            The path of the node.
+         * @param data
+         *            The data. If null then a 0 byte array will be stored in
+         *            the registry
+         * @throws Exception
+         *             If there is an error updating the node.
+         */
+        public void updateRegistryData(String path, byte[] data) throws Exception;
+
+        /**
+         * Replaces the object stored at the given path in place, creating the
+         * node if it doesn't exist.
+         * 
+         * @param path
+         *            The path of the node.
+         * @param o
+         *            The object to store.
+         * @throws Exception
+         *             If there is an error updating the node.
+         * @see #updateRegistryData(String, byte[])
+         */
+        public void updateRegistryObject(String path, Serializable o) throws Exception;
+
         /**
          * Adds a listener for changes in a path's child elements. 
          * 
@@ -856,6 +1011,16 @@ public interface MeshKeeper {
      */
     public ScheduledExecutorService getExecutorService();
 
+    /**
+     * Gets the metrics of the executors that MeshKeeper runs its work on in
+     * this jvm, one for each subsystem: the default executor returned by
+     * {@link #getExecutorService()}, event dispatch, registry watchers,
+     * remote calls and container tasks.
+     * 
+     * @return The metrics of each executor in use.
+     */
+    public Collection<ExecutorMetrics> getExecutorMetrics();
+
     /**
      * Sets the user class loader. Setting the user class loader can assist
      * meshkeeper in resolving user's serialized objects in some cases. This is
@@ -0,0 +1,55 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import java.util.List;
+
+import org.fusesource.meshkeeper.MeshKeeper.Registry;
+
+/**
+ * RegistryDeltaWatcher
+ * <p>
+ * A {@link RegistryWatcher} that is told which children were added and
+ * removed rather than being given the full list of children on every change.
+ * The first notification after the watcher is added reports all existing
+ * children as added.
+ * </p>
+ * <p>
+ * {@link Registry} implementations that support delta notifications call
+ * {@link #onChildrenChanged(String, List, List)} instead of
+ * {@link #onChildrenChanged(String, List)}. The latter is still called by
+ * registries that don't, so implementations should handle both.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface RegistryDeltaWatcher extends RegistryWatcher {
+
+    /**
+     * Called when children of the watched path are added or removed.
+     * 
+     * @param path
+     *            The watched path.
+     * @param added
+     *            The names of the children added since the last notification.
+     * @param removed
+     *            The names of the children removed since the last
+     *            notification.
+     */
+    public void onChildrenChanged(String path, List<String> added, List<String> removed);
+}
@@ -0,0 +1,48 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper;
+
+import java.util.List;
+
+import org.fusesource.meshkeeper.MeshKeeper.Launcher;
+
+/**
+ * SchedulingPolicy
+ * <p>
+ * Description: Chooses the agent for a launch that doesn't name one, see
+ * {@link Launcher#setSchedulingPolicy(SchedulingPolicy)}. Policies are handed
+ * the current load of every available agent, with the launches the
+ * {@link Launcher} placed since the agents last published their load already
+ * counted in {@link AgentLoad#getPendingLaunches()}, so that a large batch of
+ * launches scheduled at once is spread as it would be had the load been
+ * published after each one. Common policies are available from
+ * {@link org.fusesource.meshkeeper.util.SchedulingPolicies}.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * @param candidates
+     *            The load of each available agent, sorted by agent id. The
+     *            policy may modify the list.
+     * @return The chosen agent or null if none fits.
+     */
+    public AgentLoad select(List<AgentLoad> candidates);
+}
@@ -52,14 +52,9 @@ public class Marshalled<T> implements Serializable {
         ClassLoader original = Thread.currentThread().getContextClassLoader();
         Thread.currentThread().setContextClassLoader(cl);
         try {
-            final ClassLoader[]loaders = new ClassLoader[]{cl, PluginClassLoader.getDefaultPluginLoader()};
+            ClassLoader[] loaders = new ClassLoader[]{cl, PluginClassLoader.getDefaultPluginLoader()};
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedObject);
-            ClassLoadingAwareObjectInputStream is = new ClassLoadingAwareObjectInputStream(bais) {
-                @Override
-                protected ClassLoader[] getClassLoaders() {
-                    return loaders;
-                }
-            };
+            ClassLoadingAwareObjectInputStream is = new ClassLoadingAwareObjectInputStream(bais, loaders);
             return (T) is.readObject();
         } finally {
             Thread.currentThread().setContextClassLoader(original);
@@ -24,13 +24,39 @@ import org.fusesource.meshkeeper.util.internal.HexSupport;
 import java.io.*;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.channels.FileLock;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Downloads the exported classpath into a local cache directory and creates a
+ * {@link URLClassLoader} over it.
+ * <p>
+ * Up to <code>meshkeeper.classloader.download.threads</code> (default 4)
+ * path elements are downloaded at once, each keeping up to
+ * <code>meshkeeper.classloader.download.window</code> (default 4) chunk
+ * requests in flight. Setting both to 1 gives the old one chunk at a time
+ * transfer. Partially downloaded files are kept as <code>.part</code> files
+ * and resumed by the next attempt.
+ * <p>
+ * Files are named by their fingerprint so the cache directory can be shared
+ * by every process on a host. Files whose fingerprint has been verified are
+ * recorded in a {@link ClassPathCacheIndex} and aren't hashed again until
+ * they change.
+ * 
  * @author chirino
  */
 public class BasicClassLoaderFactory implements ClassLoaderFactory {
@@ -38,6 +64,25 @@ public class BasicClassLoaderFactory implements ClassLoaderFactory {
     private static final int CHUNK_SIZE = 1024 * 64;
     private static final Log LOG = LogFactory.getLog(BasicClassLoaderFactory.class);
 
+    private static final int DOWNLOAD_THREADS = Math.max(1, Integer.getInteger("meshkeeper.classloader.download.threads", 4));
+    private static final int DOWNLOAD_WINDOW = Math.max(1, Integer.getInteger("meshkeeper.classloader.download.window", 4));
+    private static final AtomicInteger DOWNLOAD_THREAD_COUNT = new AtomicInteger();
+    //Downloads in progress in this VM, keyed by target file:
+    private static final ConcurrentHashMap<File, FutureTask<File>> DOWNLOADS = new ConcurrentHashMap<File, FutureTask<File>>();
+
+    private static final ThreadFactory DOWNLOAD_THREAD_FACTORY = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MeshKeeper Classpath Download-" + DOWNLOAD_THREAD_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+    //Shared by every class loader created in this VM since a download can be
+    //waited on by several of them. File downloads wait on their chunks so the
+    //two need separate pools:
+    private static final ExecutorService FILE_EXECUTOR = Executors.newFixedThreadPool(DOWNLOAD_THREADS, DOWNLOAD_THREAD_FACTORY);
+    private static final ExecutorService CHUNK_EXECUTOR = Executors.newFixedThreadPool(DOWNLOAD_THREADS * DOWNLOAD_WINDOW, DOWNLOAD_THREAD_FACTORY);
+
     private BasicClassLoaderServer.IServer server;
     private String registryPath;
     private final long id;
@@ -88,66 +133,59 @@ public class BasicClassLoaderFactory implements ClassLoaderFactory {
 
         // We can build stadard URLClassLoader by downloading all the
         // jars or using the same URL elements as the original classloader.
+        cacheDir = cacheDir.getCanonicalFile();
+        cacheDir.mkdirs();
+        ClassPathCacheIndex index = ClassPathCacheIndex.getIndex(cacheDir);
+
         ArrayList<URL> urls = new ArrayList<URL>();
+        ArrayList<Future<File>> downloads = new ArrayList<Future<File>>(elements.size());
         for (BasicClassLoaderServer.PathElement element : elements) {
-
             if (element.url != null) {
-                urls.add(element.url);
+                downloads.add(null);
+                continue;
+            }
+
+            File file = new File(cacheDir, getCacheFileName(element));
+            if (!file.exists()) {
+                downloads.add(scheduleDownload(element, file));
             } else {
+                downloads.add(null);
+            }
+        }
 
-                cacheDir.mkdirs();
-                String name = "";
-                if (element.name != null) {
-                    if (element.name.indexOf(".") > 0) {
-                        String suffix = element.name.substring(element.name.lastIndexOf("."));
-                        String prefix = element.name.substring(0, element.name.lastIndexOf("."));
-                        name = prefix + "_" + HexSupport.toHexFromBytes(element.fingerprint) + suffix;
-                    } else {
-                        name = HexSupport.toHexFromBytes(element.fingerprint) + "_" + element.name;
-                    }
-                } else {
-                    name = HexSupport.toHexFromBytes(element.fingerprint) + ".jar";
-                }
-                File file = new File(cacheDir, name);
+        for (int i = 0; i < elements.size(); i++) {
+            BasicClassLoaderServer.PathElement element = elements.get(i);
+            if (element.url != null) {
+                urls.add(element.url);
+                continue;
+            }
 
-                if (!file.exists()) {
-                    LOG.debug("Downloading: " + file);
-                    // We need to download it...
-                    File tmp = null;
-                    FileOutputStream out = null;
-                    try {
-                        tmp = File.createTempFile(name, ".part", cacheDir);
-                        out = new FileOutputStream(tmp);
-                        int pos = 0;
-                        while (true) {
-                            byte[] data = server.download(element.id, pos, CHUNK_SIZE);
-                            out.write(data);
-                            if (data.length < CHUNK_SIZE) {
-                                break;
-                            }
-                            pos += CHUNK_SIZE;
-                        }
-                    } finally {
-                        try {
-                            out.close();
-                        } catch (Throwable e) {
-                        }
-                    }
-                    if (!tmp.renameTo(file)) {
-                        tmp.delete();
+            File file = new File(cacheDir, getCacheFileName(element));
+            Future<File> download = downloads.get(i);
+            if (download != null) {
+                try {
+                    download.get();
+                } catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof Exception) {
+                        throw (Exception) ee.getCause();
                     }
+                    throw ee;
                 }
+            }
 
-                // It may be in the cache dir already...
-                if (file.exists()) {
+            // It may be in the cache dir already...
+            if (file.exists()) {
+                if (!index.isVerified(file, element.fingerprint, element.length)) {
                     if (!Arrays.equals(element.fingerprint, fingerprint(new FileInputStream(file))) || element.length != file.length()) {
-                        throw new IOException("fingerprint missmatch: " + name);
+                        file.delete();
+                        throw new IOException("fingerprint missmatch: " + file.getName());
                     }
-
-                    urls.add(file.toURI().toURL());
-                } else {
-                    throw new IOException("Could not download: " + name);
+                    index.setVerified(file, element.fingerprint, element.length);
                 }
+
+                urls.add(file.toURI().toURL());
+            } else {
+                throw new IOException("Could not download: " + file.getName());
             }
         }
 
@@ -180,6 +218,141 @@ public class BasicClassLoaderFactory implements ClassLoaderFactory {
         };
     }
 
+    private static String getCacheFileName(BasicClassLoaderServer.PathElement element) {
+        if (element.name != null) {
+            if (element.name.indexOf(".") > 0) {
+                String suffix = element.name.substring(element.name.lastIndexOf("."));
+                String prefix = element.name.substring(0, element.name.lastIndexOf("."));
+                return prefix + "_" + HexSupport.toHexFromBytes(element.fingerprint) + suffix;
+            } else {
+                return HexSupport.toHexFromBytes(element.fingerprint) + "_" + element.name;
+            }
+        } else {
+            return HexSupport.toHexFromBytes(element.fingerprint) + ".jar";
+        }
+    }
+
+    /**
+     * Schedules the download of a path element. If another thread in this VM
+     * is already downloading the same file its download is returned instead.
+     */
+    private Future<File> scheduleDownload(final BasicClassLoaderServer.PathElement element, final File file) {
+        FutureTask<File> download = new FutureTask<File>(new Callable<File>() {
+            public File call() throws Exception {
+                try {
+                    return download(element, file);
+                } finally {
+                    DOWNLOADS.remove(file);
+                }
+            }
+        });
+
+        FutureTask<File> existing = DOWNLOADS.putIfAbsent(file, download);
+        if (existing != null) {
+            return existing;
+        }
+        FILE_EXECUTOR.execute(download);
+        return download;
+    }
+
+    /**
+     * Downloads a path element into file keeping up to DOWNLOAD_WINDOW chunk
+     * requests in flight. Chunks are written in order to a .part file which
+     * is locked while downloading so that other processes sharing the cache
+     * directory wait for it rather than downloading it again. If a previous
+     * attempt left a .part file behind the download resumes from the last
+     * complete chunk.
+     * <p>
+     * The .part file is renamed while still locked, so a process that opened
+     * it while waiting for the lock may find its handle now refers to the
+     * completed file. The file is therefore checked for again once the lock
+     * is acquired and, if present, left untouched.
+     * </p>
+     */
+    private File download(final BasicClassLoaderServer.PathElement element, File file) throws Exception {
+        File part = new File(file.getParentFile(), file.getName() + ".part");
+        LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
+        boolean renamed = false;
+        RandomAccessFile out = new RandomAccessFile(part, "rw");
+        try {
+            FileLock lock = out.getChannel().lock();
+            try {
+                if (file.exists()) {
+                    // Downloaded by another process while we waited for the
+                    // lock. Our handle may be to the renamed file so it
+                    // mustn't be written, but the path may hold a new empty
+                    // .part file created by us or another waiter:
+                    part.delete();
+                    return file;
+                }
+
+                long pos = (out.length() / CHUNK_SIZE) * CHUNK_SIZE;
+                if (pos > element.length) {
+                    pos = 0;
+                }
+                if (pos > 0) {
+                    LOG.debug("Resuming download of: " + file + " at " + pos);
+                } else {
+                    LOG.debug("Downloading: " + file);
+                }
+                out.setLength(pos);
+                out.seek(pos);
+
+                long next = pos;
+                while (pos < element.length) {
+                    while (inFlight.size() < DOWNLOAD_WINDOW && next < element.length) {
+                        final int chunkPos = (int) next;
+                        inFlight.add(CHUNK_EXECUTOR.submit(new Callable<byte[]>() {
+                            public byte[] call() throws Exception {
+                                return server.download(element.id, chunkPos, CHUNK_SIZE);
+                            }
+                        }));
+                        next += CHUNK_SIZE;
+                    }
+
+                    byte[] data;
+                    try {
+                        data = inFlight.removeFirst().get();
+                    } catch (ExecutionException ee) {
+                        if (ee.getCause() instanceof Exception) {
+                            throw (Exception) ee.getCause();
+                        }
+                        throw ee;
+                    }
+
+                    long expected = Math.min(CHUNK_SIZE, element.length - pos);
+                    if (data == null || data.length != expected) {
+                        throw new IOException("Unexpected chunk length at " + pos + " for " + file.getName() + ": " + (data == null ? null : data.length));
+                    }
+                    out.write(data);
+                    pos += data.length;
+                }
+
+                //Rename before releasing the lock so that waiters find the
+                //file once they get it:
+                renamed = part.renameTo(file);
+            } finally {
+                for (Future<byte[]> f : inFlight) {
+                    f.cancel(false);
+                }
+                lock.release();
+            }
+        } finally {
+            try {
+                out.close();
+            } catch (Throwable e) {
+            }
+        }
+
+        //Some platforms can't rename an open file, do it now. A waiter that
+        //gets the lock first will resume the complete .part file and rename
+        //it itself:
+        if (!renamed && !part.renameTo(file) && !file.exists()) {
+            throw new IOException("Could not rename " + part + " to " + file);
+        }
+        return file;
+    }
+
     static byte[] fingerprint(InputStream is) throws IOException {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
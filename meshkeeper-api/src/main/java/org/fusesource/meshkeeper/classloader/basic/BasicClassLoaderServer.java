@@ -17,7 +17,6 @@
 package org.fusesource.meshkeeper.classloader.basic;
 
 import static org.fusesource.meshkeeper.util.internal.FileSupport.jar;
-import static org.fusesource.meshkeeper.util.internal.FileSupport.read;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -27,7 +26,9 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarFile;
@@ -41,11 +42,21 @@ import org.fusesource.meshkeeper.classloader.ClassLoaderFactory;
 import org.fusesource.meshkeeper.classloader.ClassLoaderServer;
 
 /**
+ * Exports class loaders by serving the files on their class path in chunks.
+ * <p>
+ * Exported files are kept open and memory mapped while the server is
+ * running, set <code>meshkeeper.classloader.server.mmap=false</code> to use
+ * positional reads instead. Directories on the class path are jarred once and
+ * the jar reused until the directory changes.
+ * 
  * @author chirino
  */
 public class BasicClassLoaderServer implements ClassLoaderServer {
 
     private static final Log LOG = LogFactory.getLog(BasicClassLoaderServer.class);
+    private static final boolean MMAP = Boolean.valueOf(System.getProperty("meshkeeper.classloader.server.mmap", "true")).booleanValue();
+    //How long a file can go unread before its reader is closed:
+    private static final long READER_IDLE_TIMEOUT = Long.getLong("meshkeeper.classloader.server.readerIdleTimeout", 60000);
 
     static final long ROUNDUP_MILLIS = 1999;
     private final MeshKeeper meshKeeper;
@@ -88,11 +99,29 @@ public class BasicClassLoaderServer implements ClassLoaderServer {
                 throw new IllegalArgumentException("Requested file not found: " + fileId);
             }
             File file = exportedFile.jared == null ? exportedFile.file : exportedFile.jared;
-            LOG.debug("Client downloading from: " + file + " starting at " + pos);
-            return read(file, pos, length);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Client downloading from: " + file + " starting at " + pos);
+            }
+            while (true) {
+                ExportedFileReader reader = getReader(file);
+                try {
+                    return reader.read(pos, length);
+                } catch (IOException ioe) {
+                    //Retry if the reader was replaced while in use:
+                    if (!reader.isClosed()) {
+                        throw ioe;
+                    }
+                }
+            }
         }
     }
 
+    private static class JaredDirectory {
+        File jar;
+        long lastModified;
+        int fileCount;
+    }
+
     static class ExportedFile {
         final public PathElement element = new PathElement();;
         public File file;
@@ -113,6 +142,10 @@ public class BasicClassLoaderServer implements ClassLoaderServer {
     private final static AtomicLong ids = new AtomicLong();
     private final ConcurrentHashMap<Long, ArrayList<ExportedFile>> exportedClassLoaders = new ConcurrentHashMap<Long, ArrayList<ExportedFile>>();
     private final ConcurrentHashMap<Long, ExportedFile> exportedFiles = new ConcurrentHashMap<Long, ExportedFile>();
+    private final ConcurrentHashMap<File, ExportedFileReader> readers = new ConcurrentHashMap<File, ExportedFileReader>();
+    private final AtomicLong lastReaderSweep = new AtomicLong(System.currentTimeMillis());
+    //Jars built from exported directories keyed by directory:
+    private final static HashMap<File, JaredDirectory> jaredDirectories = new HashMap<File, JaredDirectory>();
     private final Server server = new Server();
     private IServer proxy;
 
@@ -135,6 +168,51 @@ public class BasicClassLoaderServer implements ClassLoaderServer {
 
             meshKeeper.remoting().unexport(proxy);
             proxy = null;
+
+            for (ExportedFileReader reader : readers.values()) {
+                reader.close();
+            }
+            readers.clear();
+        }
+    }
+
+    /**
+     * Gets the reader for a file, replacing it if the file has changed since
+     * it was opened. Readers that have been idle for a while are closed so
+     * that superseded jars of exported directories don't stay mapped.
+     */
+    private ExportedFileReader getReader(File file) {
+        long now = System.currentTimeMillis();
+        long last = lastReaderSweep.get();
+        if (now - last >= READER_IDLE_TIMEOUT && lastReaderSweep.compareAndSet(last, now)) {
+            for (Map.Entry<File, ExportedFileReader> entry : readers.entrySet()) {
+                if (now - entry.getValue().getLastUsed() >= READER_IDLE_TIMEOUT) {
+                    closeReader(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        ExportedFileReader reader = readers.get(file);
+        if (reader != null && reader.isStale()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Reopening modified file: " + file);
+            }
+            closeReader(file, reader);
+            reader = null;
+        }
+        if (reader == null) {
+            reader = new ExportedFileReader(file, MMAP);
+            ExportedFileReader existing = readers.putIfAbsent(file, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+        return reader;
+    }
+
+    private void closeReader(File file, ExportedFileReader reader) {
+        if (readers.remove(file, reader)) {
+            reader.close();
         }
     }
 
@@ -242,11 +320,7 @@ public class BasicClassLoaderServer implements ClassLoaderServer {
             if (file.list().length <= 0) {
                 return;
             }
-            if (LOG.isDebugEnabled())
-                LOG.debug("Jaring: " + file);
-            File jar = exportedFile.jared = jar(file);
-            if (LOG.isDebugEnabled())
-                LOG.debug("Jared: " + file + " as: " + jar);
+            File jar = exportedFile.jared = jarDirectory(file);
             file = jar;
         } else {
             // if it's a file then it needs to be eaither a zip or jar file.
@@ -289,4 +363,45 @@ public class BasicClassLoaderServer implements ClassLoaderServer {
         }
     }
 
+    /**
+     * Jars up a directory, reusing the jar from a previous export if nothing
+     * in the directory has been added, removed or modified since.
+     */
+    static File jarDirectory(File directory) throws IOException {
+        File dir = directory.getCanonicalFile();
+        JaredDirectory current = new JaredDirectory();
+        scan(dir, current);
+
+        synchronized (jaredDirectories) {
+            JaredDirectory jared = jaredDirectories.get(dir);
+            if (jared != null && jared.lastModified == current.lastModified && jared.fileCount == current.fileCount && jared.jar.exists()) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Reusing: " + jared.jar + " for: " + dir);
+                return jared.jar;
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Jaring: " + dir);
+            current.jar = jar(dir);
+            current.jar.deleteOnExit();
+            if (LOG.isDebugEnabled())
+                LOG.debug("Jared: " + dir + " as: " + current.jar);
+            jaredDirectories.put(dir, current);
+            return current.jar;
+        }
+    }
+
+    private static void scan(File file, JaredDirectory signature) {
+        signature.fileCount++;
+        signature.lastModified = Math.max(signature.lastModified, file.lastModified());
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    scan(child, signature);
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
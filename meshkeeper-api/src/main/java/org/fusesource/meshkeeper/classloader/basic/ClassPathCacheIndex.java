@@ -0,0 +1,193 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.classloader.basic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.util.internal.HexSupport;
+
+/**
+ * ClassPathCacheIndex
+ * <p>
+ * Description: Remembers which files in a classpath cache directory have
+ * already had their fingerprint verified, so that they don't need to be hashed
+ * again each time a class loader is created over them. Each line of the index
+ * holds the fingerprint, length and last modified time seen at verification
+ * followed by the file name; a file whose length or modification time has
+ * changed since is hashed again.
+ * </p>
+ * <p>
+ * The index is kept in an append only file in the cache directory so that it
+ * is shared by every process using the directory. The file is locked while it
+ * is read or appended to.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+class ClassPathCacheIndex {
+
+    private static final Log LOG = LogFactory.getLog(ClassPathCacheIndex.class);
+    static final String INDEX_FILE_NAME = "cache.index";
+
+    private static final ConcurrentHashMap<File, ClassPathCacheIndex> INDEXES = new ConcurrentHashMap<File, ClassPathCacheIndex>();
+
+    private final File indexFile;
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    //How much of the index file has been read into entries:
+    private long position;
+
+    private ClassPathCacheIndex(File cacheDir) {
+        this.indexFile = new File(cacheDir, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Gets the index for the given cache directory. There is one instance per
+     * directory in the VM.
+     */
+    static ClassPathCacheIndex getIndex(File cacheDir) throws IOException {
+        File dir = cacheDir.getCanonicalFile();
+        ClassPathCacheIndex index = INDEXES.get(dir);
+        if (index == null) {
+            index = new ClassPathCacheIndex(dir);
+            ClassPathCacheIndex existing = INDEXES.putIfAbsent(dir, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return true if the file was verified to have the given fingerprint and
+     *         length and hasn't been modified since.
+     */
+    public synchronized boolean isVerified(File file, byte[] fingerprint, long length) throws IOException {
+        String hex = HexSupport.toHexFromBytes(fingerprint);
+        if (matches(entries.get(file.getName()), file, hex, length)) {
+            return true;
+        }
+
+        //Another process may have verified it:
+        update(null);
+        return matches(entries.get(file.getName()), file, hex, length);
+    }
+
+    /**
+     * Records that the file was verified to have the given fingerprint and
+     * length.
+     */
+    public synchronized void setVerified(File file, byte[] fingerprint, long length) throws IOException {
+        Entry entry = new Entry(HexSupport.toHexFromBytes(fingerprint), length, file.lastModified());
+        update(entry.fingerprint + " " + entry.length + " " + entry.modified + " " + file.getName() + "\n");
+        entries.put(file.getName(), entry);
+    }
+
+    private static boolean matches(Entry entry, File file, String fingerprint, long length) {
+        return entry != null && entry.length == length && entry.fingerprint.equals(fingerprint) && file.length() == length && file.lastModified() == entry.modified;
+    }
+
+    /**
+     * Reads entries appended by others since the last update and then
+     * appends the given line, if any, all while holding the file lock.
+     */
+    private void update(String append) throws IOException {
+        if (append == null && indexFile.length() == position) {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        try {
+            FileLock lock = raf.getChannel().lock();
+            try {
+                long length = raf.length();
+                if (length < position) {
+                    //Index was cleared:
+                    entries.clear();
+                    position = 0;
+                }
+
+                if (length > position) {
+                    byte[] data = new byte[(int) (length - position)];
+                    raf.seek(position);
+                    raf.readFully(data);
+                    position += load(data);
+                }
+
+                if (append != null) {
+                    raf.seek(position);
+                    raf.write(append.getBytes("UTF-8"));
+                    position = raf.getFilePointer();
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Loads complete lines from the given data.
+     *
+     * @return The number of bytes consumed.
+     */
+    private int load(byte[] data) throws IOException {
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') {
+            end--;
+        }
+        StringTokenizer lines = new StringTokenizer(new String(data, 0, end, "UTF-8"), "\n");
+        while (lines.hasMoreTokens()) {
+            String line = lines.nextToken();
+            String[] fields = line.split(" ", 4);
+            if (fields.length != 4) {
+                LOG.warn("Ignoring malformed entry in " + indexFile + ": " + line);
+                continue;
+            }
+            try {
+                entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } catch (NumberFormatException nfe) {
+                LOG.warn("Ignoring malformed entry in " + indexFile + ": " + line);
+            }
+        }
+        return end;
+    }
+
+    private static class Entry {
+        final String fingerprint;
+        final long length;
+        final long modified;
+
+        Entry(String fingerprint, long length, long modified) {
+            this.fingerprint = fingerprint;
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+}
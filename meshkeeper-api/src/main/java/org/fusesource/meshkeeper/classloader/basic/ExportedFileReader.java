@@ -0,0 +1,158 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.classloader.basic;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ExportedFileReader
+ * <p>
+ * Description: Serves chunks of an exported file from a channel that stays
+ * open between requests. The file is either memory mapped, in which case a
+ * chunk is a copy out of the page cache with no system call, or read with
+ * positional reads that don't disturb other readers. Either way the reader
+ * can be used by many threads at once.
+ * </p>
+ * <p>
+ * The reader notes the file's length and modification time when created so
+ * that the owner can replace it once the file changes, see
+ * {@link #isStale()}. A mapped file whose size changes in the meantime is read
+ * with positional reads from then on, since touching a mapping past the end
+ * of a truncated file faults.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+class ExportedFileReader {
+
+    private final File file;
+    private final boolean mmap;
+    private final long length;
+    private final long lastModified;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    private volatile RandomAccessFile raf;
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private boolean closed;
+
+    ExportedFileReader(File file, boolean mmap) {
+        this.file = file;
+        this.mmap = mmap;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * @return true if the file has been modified, replaced or removed since
+     *         the reader was created.
+     */
+    public boolean isStale() {
+        return file.lastModified() != lastModified || file.length() != length || !file.exists();
+    }
+
+    /**
+     * @return When the reader was last read from.
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Reads up to length bytes starting at pos. Fewer bytes are returned when
+     * the end of the file is reached.
+     */
+    public byte[] read(long pos, int length) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        lastUsed = System.currentTimeMillis();
+
+        long size = channel.size();
+        MappedByteBuffer m = mapped;
+        if (m != null && m.capacity() != size) {
+            //Changed in place since it was mapped:
+            m = mapped = null;
+        }
+        long remaining = Math.max(0, size - pos);
+        byte rc[] = new byte[(int) Math.min(remaining, length)];
+        if (rc.length == 0) {
+            return rc;
+        }
+
+        if (m != null) {
+            try {
+                //Duplicate so that concurrent readers don't share a position:
+                ByteBuffer b = m.duplicate();
+                b.position((int) pos);
+                b.get(rc);
+                return rc;
+            } catch (InternalError e) {
+                //Truncated since the size was checked:
+                mapped = null;
+            }
+        }
+
+        ByteBuffer b = ByteBuffer.wrap(rc);
+        while (b.hasRemaining()) {
+            if (channel.read(b, pos + b.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        return rc;
+    }
+
+    private synchronized void open() throws IOException {
+        if (closed) {
+            throw new IOException("Closed: " + file);
+        }
+        if (channel == null) {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel c = raf.getChannel();
+            if (mmap && c.size() <= Integer.MAX_VALUE) {
+                mapped = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+            }
+            channel = c;
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        mapped = null;
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.AgentLoad;
+import org.fusesource.meshkeeper.HostProperties;
+import org.fusesource.meshkeeper.SchedulingPolicy;
+import org.fusesource.meshkeeper.MeshKeeper.Registry;
+import org.fusesource.meshkeeper.launcher.LaunchAgent;
+import org.fusesource.meshkeeper.launcher.LaunchAgentService;
+import org.fusesource.meshkeeper.util.SchedulingPolicies;
+
+/**
+ * AgentScheduler
+ * <p>
+ * Description: Chooses agents for a launch client's launches from the load
+ * the agents publish to the registry. The published load is read at most once
+ * per refresh period, by one caller at a time and without holding the
+ * scheduler's lock, so that a slow registry doesn't stall other launches.
+ * Each placement is counted as a pending launch on its agent until a load
+ * snapshot shows that the agent has published since the placement, so that
+ * launches scheduled between publications don't all land on the same agent.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+class AgentScheduler {
+
+    private static final Log LOG = LogFactory.getLog(AgentScheduler.class);
+    static final long REFRESH_PERIOD = Long.getLong("meshkeeper.launcher.loadRefresh", 1000);
+
+    private final Registry registry;
+    private SchedulingPolicy policy = SchedulingPolicies.spread();
+
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<String, AgentLoad>(), 0, 0);
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    //The sequence number of each placement by agent, guarded by this:
+    private final HashMap<String, LinkedList<Long>> placements = new HashMap<String, LinkedList<Long>>();
+    private long placementCount;
+
+    AgentScheduler(Registry registry) {
+        this.registry = registry;
+    }
+
+    public synchronized void setPolicy(SchedulingPolicy policy) {
+        this.policy = policy == null ? SchedulingPolicies.spread() : policy;
+    }
+
+    public synchronized SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Chooses one of the given agents with the scheduling policy and counts
+     * the placement against it.
+     *
+     * @return The chosen agent's id.
+     * @throws Exception
+     *             If there are no agents or none fits the policy.
+     */
+    public String schedule(HostProperties[] agents) throws Exception {
+        if (agents.length == 0) {
+            throw new Exception("No launch agents available to schedule on");
+        }
+
+        refreshIfStale();
+        AgentLoad chosen;
+        synchronized (this) {
+            List<AgentLoad> candidates = computeLoads(agents);
+            chosen = policy.select(new ArrayList<AgentLoad>(candidates));
+            if (chosen == null) {
+                throw new Exception("No launch agent fits scheduling policy " + policy + ": " + candidates);
+            }
+
+            String agentId = chosen.getAgentId().toUpperCase();
+            LinkedList<Long> placed = placements.get(agentId);
+            if (placed == null) {
+                placed = new LinkedList<Long>();
+                placements.put(agentId, placed);
+            }
+            placed.add(placementCount++);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Scheduled launch on " + chosen);
+        }
+        return chosen.getAgentId().toUpperCase();
+    }
+
+    /**
+     * Gets the load of each of the given agents, with the placements not yet
+     * covered by the agent's published load counted as pending. Agents that
+     * haven't published a load yet are treated as idle.
+     *
+     * @return A copy of each agent's load, sorted by agent id.
+     */
+    public List<AgentLoad> getLoads(HostProperties[] agents) {
+        refreshIfStale();
+        synchronized (this) {
+            return computeLoads(agents);
+        }
+    }
+
+    private List<AgentLoad> computeLoads(HostProperties[] agents) {
+        Map<String, AgentLoad> loads = snapshot.loads;
+        ArrayList<AgentLoad> rc = new ArrayList<AgentLoad>(agents.length);
+        for (HostProperties props : agents) {
+            String agentId = props.getAgentId().toUpperCase();
+            AgentLoad load = loads.get(agentId);
+            if (load == null) {
+                load = new AgentLoad();
+                load.setAgentId(agentId);
+                load.setNumProcessors(props.getNumProcessors());
+                load.setInterval(LaunchAgent.LOAD_INTERVAL);
+            } else {
+                load = load.clone();
+            }
+            LinkedList<Long> placed = placements.get(agentId);
+            if (placed != null) {
+                load.setPendingLaunches(load.getPendingLaunches() + placed.size());
+            }
+            rc.add(load);
+        }
+
+        Collections.sort(rc, new Comparator<AgentLoad>() {
+            public int compare(AgentLoad a, AgentLoad b) {
+                return a.getAgentId().compareTo(b.getAgentId());
+            }
+        });
+        return rc;
+    }
+
+    /**
+     * Reads the published load if the last read is older than the refresh
+     * period. If another caller is already reading it the last snapshot is
+     * used instead of waiting.
+     */
+    private void refreshIfStale() {
+        if (System.currentTimeMillis() - snapshot.time >= REFRESH_PERIOD) {
+            refresh();
+        }
+    }
+
+    /**
+     * Reads the published load and installs it as the current snapshot.
+     * Does nothing if another caller is already reading it.
+     */
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long time = System.currentTimeMillis();
+            long placed;
+            synchronized (this) {
+                placed = placementCount;
+            }
+
+            //Read without holding the lock:
+            Map<String, AgentLoad> published;
+            try {
+                published = registry.getRegistryObjects(LaunchAgentService.LAUNCH_AGENT_LOAD_PATH, false);
+            } catch (Exception e) {
+                LOG.debug("Error reading agent load, using last known load", e);
+                //Don't retry until the next period:
+                synchronized (this) {
+                    snapshot = new Snapshot(snapshot.loads, time, snapshot.placed);
+                }
+                return;
+            }
+
+            HashMap<String, AgentLoad> updated = new HashMap<String, AgentLoad>();
+            if (published != null) {
+                for (AgentLoad load : published.values()) {
+                    if (load != null && load.getAgentId() != null) {
+                        updated.put(load.getAgentId().toUpperCase(), load);
+                    }
+                }
+            }
+
+            synchronized (this) {
+                Snapshot last = snapshot;
+                for (Map.Entry<String, AgentLoad> entry : updated.entrySet()) {
+                    AgentLoad previous = last.loads.get(entry.getKey());
+                    if (previous != null && previous.getTimestamp() == entry.getValue().getTimestamp()) {
+                        continue;
+                    }
+                    //The agent has published since the last read began, so
+                    //the load includes the launches placed before it began:
+                    LinkedList<Long> placedOn = placements.get(entry.getKey());
+                    if (placedOn != null) {
+                        while (!placedOn.isEmpty() && placedOn.getFirst() < last.placed) {
+                            placedOn.removeFirst();
+                        }
+                        if (placedOn.isEmpty()) {
+                            placements.remove(entry.getKey());
+                        }
+                    }
+                }
+                snapshot = new Snapshot(updated, time, placed);
+            }
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * The published load as of a read, with the time the read began and the
+     * number of placements made before it.
+     */
+    private static class Snapshot {
+        final Map<String, AgentLoad> loads;
+        final long time;
+        final long placed;
+
+        Snapshot(Map<String, AgentLoad> loads, long time, long placed) {
+            this.loads = loads;
+            this.time = time;
+            this.placed = placed;
+        }
+    }
+}
@@ -25,12 +25,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.ExecutorMetrics;
 import org.fusesource.meshkeeper.MeshKeeper;
 import org.fusesource.meshkeeper.MeshKeeperFactory;
 import org.fusesource.meshkeeper.RegistryWatcher;
@@ -43,6 +45,7 @@ import org.fusesource.meshkeeper.distribution.remoting.RemotingClient;
 import org.fusesource.meshkeeper.distribution.remoting.RemotingFactory;
 import org.fusesource.meshkeeper.distribution.repository.RepositoryClient;
 import org.fusesource.meshkeeper.distribution.repository.RepositoryProviderFactory;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 
 /**
  * Distributor
@@ -93,6 +96,10 @@ class DefaultDistributor implements MeshKeeper {
         return DistributorFactory.getExecutorService();
     }
 
+    public Collection<ExecutorMetrics> getExecutorMetrics() {
+        return ExecutorSupport.getExecutorMetrics();
+    }
+
     public void setUserClassLoader(ClassLoader classLoader) {
         if (userClassLoader != classLoader) {
             userClassLoader = classLoader;
@@ -876,6 +883,16 @@ class DefaultDistributor implements MeshKeeper {
             return client.addRegistryObject(path, sequential, o);
         }
 
+        public final void updateRegistryData(String path, byte[] data) throws Exception {
+            path = doPathSubstitutions(path);
+            client.updateRegistryData(path, data);
+        }
+
+        public final void updateRegistryObject(String path, Serializable o) throws Exception {
+            path = doPathSubstitutions(path);
+            client.updateRegistryObject(path, o);
+        }
+
         public final void addRegistryWatcher(String path, RegistryWatcher watcher) throws Exception {
             path = doPathSubstitutions(path);
             client.addRegistryWatcher(path, watcher);
@@ -900,6 +917,11 @@ class DefaultDistributor implements MeshKeeper {
             return (T) client.getRegistryObject(path);
         }
 
+        public final <T> Map<String, T> getRegistryObjects(String path, boolean recursive) throws Exception {
+            path = doPathSubstitutions(path);
+            return client.getRegistryObjects(path, recursive);
+        }
+
         public final ClassLoader getUserClassLoader() {
             return client.getUserClassLoader();
         }
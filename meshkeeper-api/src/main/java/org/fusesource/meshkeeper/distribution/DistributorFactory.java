@@ -16,15 +16,13 @@
  */
 package org.fusesource.meshkeeper.distribution;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.fusesource.meshkeeper.MeshKeeperFactory;
 import org.fusesource.meshkeeper.control.ControlServer;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 
 /**
  * DistributorFactory
@@ -40,15 +38,6 @@ public class DistributorFactory {
     private Log log = LogFactory.getLog(DistributorFactory.class);
 
     private static String DEFAULT_REGISTRY_URI = ControlServer.DEFAULT_REGISTRY_URI;
-    private static final ScheduledExecutorService EXECUTOR;
-    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger(0);
-    static {
-        EXECUTOR = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "MeshKeeperExecutor-" + EXECUTOR_COUNT.incrementAndGet());
-            }
-        });
-    }
 
     private String repositoryUri;
     private String registryUri = DEFAULT_REGISTRY_URI;
@@ -71,8 +60,12 @@ public class DistributorFactory {
         DEFAULT_REGISTRY_URI = defaultRegistryUri;
     }
 
+    /**
+     * @return The default executor, see {@link ExecutorSupport} for the
+     *         executors used by each subsystem.
+     */
     public static ScheduledExecutorService getExecutorService() {
-        return EXECUTOR;
+        return ExecutorSupport.getDefaultExecutor();
     }
 
     public DefaultDistributor create() throws Exception {
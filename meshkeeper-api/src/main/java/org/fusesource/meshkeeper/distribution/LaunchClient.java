@@ -25,23 +25,34 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.AgentLoad;
 import org.fusesource.meshkeeper.HostProperties;
 import org.fusesource.meshkeeper.JavaLaunch;
 import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.LaunchFuture;
+import org.fusesource.meshkeeper.LaunchMetrics;
+import org.fusesource.meshkeeper.LaunchRequest;
 import org.fusesource.meshkeeper.MeshContainer;
+import org.fusesource.meshkeeper.MeshContainerPool;
 import org.fusesource.meshkeeper.MeshKeeper;
 import org.fusesource.meshkeeper.MeshKeeperFactory;
 import org.fusesource.meshkeeper.MeshProcess;
 import org.fusesource.meshkeeper.MeshProcessListener;
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
 import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.SchedulingPolicy;
 import org.fusesource.meshkeeper.MeshKeeper.DistributionRef;
 import org.fusesource.meshkeeper.MeshKeeper.Launcher;
 import org.fusesource.meshkeeper.classloader.ClassLoaderFactory;
@@ -49,9 +60,13 @@ import org.fusesource.meshkeeper.classloader.ClassLoaderServer;
 import org.fusesource.meshkeeper.classloader.ClassLoaderServerFactory;
 import org.fusesource.meshkeeper.launcher.LaunchAgent;
 import org.fusesource.meshkeeper.launcher.LaunchAgentService;
+import org.fusesource.meshkeeper.launcher.AsyncMeshContainerService;
+import org.fusesource.meshkeeper.launcher.InvocationListener;
 import org.fusesource.meshkeeper.launcher.LaunchClientService;
-import org.fusesource.meshkeeper.launcher.MeshContainerService;
+import org.fusesource.meshkeeper.launcher.LaunchResult;
 import org.fusesource.meshkeeper.util.DefaultProcessListener;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
+import org.fusesource.meshkeeper.util.internal.SettableFuture;
 
 ;
 
@@ -74,6 +89,8 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     private long bindTimeout = 1000 * 10;
     private HashMap<String, LaunchAgentService> knownAgents = new HashMap<String, LaunchAgentService>();
     private HashMap<String, HostProperties> agentProps = new HashMap<String, HostProperties>();
+    //Agents currently in the registry, including those still being discovered:
+    private HashSet<String> liveAgents = new HashSet<String>();
 
     private HashSet<MeshProcessWatcher> runningProcesses = new HashSet<MeshProcessWatcher>();
 
@@ -86,41 +103,86 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     private ClassLoaderServer classLoaderServer;
     private ClassLoaderFactory bootStrapClassLoaderFactory;
     private ClassLoader bootStrapClassLoader;
-    private int meshContainerCounter;
+    private final AtomicInteger meshContainerCounter = new AtomicInteger();
+    private final ArrayList<MeshContainerPool> pools = new ArrayList<MeshContainerPool>();
+    private AgentScheduler scheduler;
 
     public void start() throws Exception {
+        scheduler = new AgentScheduler(meshKeeper.registry());
         distributionRef = meshKeeper.distribute(LAUNCHER_REGISTRY_PATH + "/" + System.getProperty("user.name"), true, (LaunchClientService) this, LaunchClientService.class);
         name = distributionRef.getRegistryPath().substring(distributionRef.getRegistryPath().lastIndexOf("/") + 1);
-        agentWatcher = new RegistryWatcher() {
+        agentWatcher = new RegistryDeltaWatcher() {
 
             public void onChildrenChanged(String path, List<String> children) {
+                ArrayList<String> removed;
                 synchronized (LaunchClient.this) {
-                    for (String agentId : children) {
-                        if (!knownAgents.containsKey(agentId)) {
-                            try {
-                                LaunchAgentService pl = meshKeeper.registry().getRegistryObject(path + "/" + agentId);
-                                knownAgents.put(agentId, pl);
-                                HostProperties props = pl.getHostProperties();
-                                agentProps.put(agentId, props);
-
-                                if (log.isDebugEnabled()) {
-                                    log.debug("DISCOVERED: " + props.getAgentId());
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
+                    removed = new ArrayList<String>(liveAgents);
+                    removed.removeAll(children);
+                }
+                onChildrenChanged(path, children, removed);
+            }
+
+            public void onChildrenChanged(String path, List<String> added, List<String> removed) {
+                ArrayList<String> discover = new ArrayList<String>(added.size());
+                synchronized (LaunchClient.this) {
+                    liveAgents.removeAll(removed);
+                    knownAgents.keySet().removeAll(removed);
+                    agentProps.keySet().removeAll(removed);
+                    for (String agentId : added) {
+                        if (liveAgents.add(agentId) && !knownAgents.containsKey(agentId)) {
+                            discover.add(agentId);
                         }
                     }
-                    knownAgents.keySet().retainAll(children);
-                    agentProps.keySet().retainAll(children);
                     LaunchClient.this.notifyAll();
                 }
+
+                //Look up the new agents in parallel, outside of the lock:
+                for (final String agentId : discover) {
+                    ExecutorSupport.getExecutor(ExecutorSupport.REMOTING).execute(new Runnable() {
+                        public void run() {
+                            discoverAgent(agentId);
+                        }
+                    });
+                }
             }
         };
 
         meshKeeper.registry().addRegistryWatcher(LaunchAgentService.LAUNCH_AGENT_REGISTRY_PATH, agentWatcher);
     }
 
+    /**
+     * Looks up a newly registered agent and its properties and, if the agent
+     * is still registered, publishes both. The properties are read from the
+     * registry when the agent has published them there, otherwise the agent
+     * is asked for them.
+     */
+    private void discoverAgent(String agentId) {
+        try {
+            LaunchAgentService pl = meshKeeper.registry().getRegistryObject(LaunchAgentService.LAUNCH_AGENT_REGISTRY_PATH + "/" + agentId);
+            if (pl == null) {
+                return;
+            }
+            HostProperties props = meshKeeper.registry().getRegistryObject(LaunchAgentService.LAUNCH_AGENT_PROPERTIES_PATH + "/" + agentId);
+            if (props == null) {
+                props = pl.getHostProperties();
+            }
+
+            synchronized (this) {
+                if (liveAgents.contains(agentId) && !knownAgents.containsKey(agentId)) {
+                    knownAgents.put(agentId, pl);
+                    agentProps.put(agentId, props);
+                    notifyAll();
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("DISCOVERED: " + props.getAgentId());
+            }
+        } catch (Exception e) {
+            log.warn("Error discovering agent " + agentId, e);
+        }
+    }
+
     /**
      * Requests the specified number of tcp ports from the specified process
      * launcher.
@@ -131,30 +193,52 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
      * @throws Exception If there is an error reserving the requested number of
      *             ports.
      */
-    public synchronized List<Integer> reserveTcpPorts(String agentName, int count) throws Exception {
+    public List<Integer> reserveTcpPorts(String agentName, int count) throws Exception {
+        return reserveTcpPorts(agentName, count, false);
+    }
+
+    /**
+     * Requests a range of consecutive tcp ports from the specified process
+     * launcher.
+     * 
+     * @param agentName The name of the process launcher
+     * @param count The number of ports.
+     * @return The reserved ports in ascending order
+     * @throws Exception If there is no free range of the requested size.
+     */
+    public List<Integer> reserveTcpPortRange(String agentName, int count) throws Exception {
+        return reserveTcpPorts(agentName, count, true);
+    }
+
+    private List<Integer> reserveTcpPorts(String agentName, int count, boolean contiguous) throws Exception {
         agentName = agentName.toUpperCase();
         LaunchAgentService agent = getAgent(agentName);
 
-        List<Integer> ports = agent.reserveTcpPorts(count);
-        HashSet<Integer> reserved = reservedPorts.get(agentName);
-        if (reserved == null) {
-            reserved = new HashSet<Integer>();
-            reservedPorts.put(agentName, reserved);
+        //Only the bookkeeping is done under the lock, not the remote call:
+        List<Integer> ports = agent.reserveTcpPorts(distributionRef.getRegistryPath(), count, contiguous);
+        synchronized (this) {
+            HashSet<Integer> reserved = reservedPorts.get(agentName);
+            if (reserved == null) {
+                reserved = new HashSet<Integer>();
+                reservedPorts.put(agentName, reserved);
+            }
+            reserved.addAll(ports);
         }
-        reserved.addAll(ports);
         return ports;
     }
 
     /**
      * Releases previously reserved ports at the launcher.
      */
-    public synchronized void releasePorts(String agentName, Collection<Integer> ports) throws Exception {
+    public void releasePorts(String agentName, Collection<Integer> ports) throws Exception {
         agentName = agentName.toUpperCase();
-        HashSet<Integer> reserved = reservedPorts.get(agentName);
-        if (reserved != null) {
-            reserved.removeAll(ports);
-            if (reserved.isEmpty()) {
-                reservedPorts.remove(agentName);
+        synchronized (this) {
+            HashSet<Integer> reserved = reservedPorts.get(agentName);
+            if (reserved != null) {
+                reserved.removeAll(ports);
+                if (reserved.isEmpty()) {
+                    reservedPorts.remove(agentName);
+                }
             }
         }
         LaunchAgentService agent = getAgent(agentName);
@@ -165,9 +249,12 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     /**
      * Releases all ports that have been reserved on the specified launcher.
      */
-    public synchronized void releaseAllPorts(String agentName) throws Exception {
+    public void releaseAllPorts(String agentName) throws Exception {
         agentName = agentName.toUpperCase();
-        HashSet<Integer> reserved = reservedPorts.remove(agentName);
+        HashSet<Integer> reserved;
+        synchronized (this) {
+            reserved = reservedPorts.remove(agentName);
+        }
         if (reserved != null) {
             getAgent(agentName).releaseTcpPorts(reserved);
         }
@@ -179,6 +266,10 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
             classLoaderServer.stop();
         }
 
+        for (MeshContainerPool pool : pools.toArray(new MeshContainerPool[pools.size()])) {
+            pool.close();
+        }
+
         //Release reserved ports:
         for (String agentName : reservedPorts.keySet().toArray(new String[] {})) {
             releaseAllPorts(agentName);
@@ -201,6 +292,7 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
 
         knownAgents.clear();
         agentProps.clear();
+        liveAgents.clear();
         closed.set(true);
     }
 
@@ -209,19 +301,14 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     }
 
     public void waitForAvailableAgents(int agentCount, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
-        timeout = unit.toNanos(timeout);
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
         synchronized (this) {
-            long start = System.nanoTime();
-            while (timeout > 0 && agentProps.isEmpty()) {
-                wait(timeout);
-                if (agentProps.size() >= agentCount) {
-                    return;
+            while (agentProps.size() < agentCount) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
                 }
-                timeout -= System.nanoTime() - start;
-            }
-
-            if (agentProps.isEmpty()) {
-                throw new TimeoutException();
+                wait(remaining);
             }
         }
     }
@@ -236,11 +323,15 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
         if (launcher == null) {
             LaunchAgentService pl = meshKeeper.registry().getRegistryObject(LaunchAgentService.LAUNCH_AGENT_REGISTRY_PATH + "/" + agentName);
             if (pl != null) {
-                HostProperties props = pl.getHostProperties();
+                HostProperties props = meshKeeper.registry().getRegistryObject(LaunchAgentService.LAUNCH_AGENT_PROPERTIES_PATH + "/" + agentName);
+                if (props == null) {
+                    props = pl.getHostProperties();
+                }
                 synchronized (this) {
                     launcher = knownAgents.get(agentName);
                     if (launcher == null) {
                         launcher = pl;
+                        liveAgents.add(agentName);
                         knownAgents.put(agentName, pl);
                         agentProps.put(agentName, props);
                     }
@@ -269,11 +360,29 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     }
 
     public HostProperties[] getAvailableAgents() {
-        synchronized (knownAgents) {
+        synchronized (this) {
             return agentProps.values().toArray(new HostProperties[agentProps.size()]);
         }
     }
 
+    public AgentLoad[] getAgentLoads() {
+        List<AgentLoad> loads = scheduler.getLoads(getAvailableAgents());
+        return loads.toArray(new AgentLoad[loads.size()]);
+    }
+
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        scheduler.setPolicy(policy);
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return scheduler.getPolicy();
+    }
+
+    public String scheduleAgent() throws Exception {
+        checkNotClosed();
+        return scheduler.schedule(getAvailableAgents());
+    }
+
     public void releaseAgent(String agentName) throws Exception {
         checkNotClosed();
         agentName = agentName.toUpperCase();
@@ -306,8 +415,15 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
     }
 
     public MeshProcess launchProcess(String agentId, final LaunchDescription launch, MeshProcessListener listener) throws Exception {
+        return launchWatched(agentId, launch, listener).getProcess();
+    }
+
+    private MeshProcessWatcher launchWatched(String agentId, final LaunchDescription launch, MeshProcessListener listener) throws Exception {
         checkNotClosed();
 
+        if (agentId == null) {
+            agentId = scheduleAgent();
+        }
         LaunchAgentService agent = getAgent(agentId);
         MeshProcessWatcher watcher = new MeshProcessWatcher(listener, agentId);
         addWatchedProcess(watcher);
@@ -318,8 +434,210 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
             throw e;
         }
 
-        return watcher.getProcess();
+        return watcher;
+    }
+
+    public List<LaunchFuture<MeshProcess>> launchProcesses(List<LaunchRequest> requests) throws Exception {
+        checkNotClosed();
 
+        ArrayList<BatchLaunch<MeshProcess>> launches = new ArrayList<BatchLaunch<MeshProcess>>(requests.size());
+        for (LaunchRequest request : requests) {
+            launches.add(new BatchLaunch<MeshProcess>(request, request.getLaunchDescription()));
+        }
+        dispatch(launches);
+        return new ArrayList<LaunchFuture<MeshProcess>>(launches);
+    }
+
+    public List<LaunchFuture<MeshContainer>> launchMeshContainers(List<LaunchRequest> requests) throws Exception {
+        checkNotClosed();
+
+        ArrayList<BatchLaunch<MeshContainer>> launches = new ArrayList<BatchLaunch<MeshContainer>>(requests.size());
+        for (LaunchRequest request : requests) {
+            JavaLaunch launch = request.getJavaLaunch();
+            if (launch == null) {
+                launch = createMeshContainerLaunch();
+            }
+            if (!(launch instanceof MeshContainerLaunch)) {
+                throw new IllegalStateException("Invalid JavaLaunch, not created via createMeshContainerLaunch");
+            }
+            launches.add(new ContainerLaunch(request, (MeshContainerLaunch) launch));
+        }
+        dispatch(launches);
+        return new ArrayList<LaunchFuture<MeshContainer>>(launches);
+    }
+
+    /**
+     * Groups the launches by agent and sends each group to its agent from a
+     * separate thread. Launches without an agent are scheduled first, a
+     * launch that can't be scheduled fails.
+     */
+    private void dispatch(List<? extends BatchLaunch<?>> launches) {
+        LinkedHashMap<String, ArrayList<BatchLaunch<?>>> groups = new LinkedHashMap<String, ArrayList<BatchLaunch<?>>>();
+        for (BatchLaunch<?> launch : launches) {
+            String agentId = launch.request.getAgentId();
+            if (agentId == null) {
+                try {
+                    agentId = scheduleAgent();
+                } catch (Exception e) {
+                    launch.setException(e);
+                    continue;
+                }
+            }
+            agentId = agentId.toUpperCase();
+            ArrayList<BatchLaunch<?>> group = groups.get(agentId);
+            if (group == null) {
+                group = new ArrayList<BatchLaunch<?>>();
+                groups.put(agentId, group);
+            }
+            group.add(launch);
+        }
+
+        ExecutorService executor = getBatchExecutor();
+        for (final Map.Entry<String, ArrayList<BatchLaunch<?>>> entry : groups.entrySet()) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    launchGroup(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+    }
+
+    private void launchGroup(String agentId, List<BatchLaunch<?>> group) {
+        try {
+            LaunchAgentService agent = getAgent(agentId);
+            ArrayList<LaunchDescription> descriptions = new ArrayList<LaunchDescription>(group.size());
+            ArrayList<MeshProcessListener> listeners = new ArrayList<MeshProcessListener>(group.size());
+            for (BatchLaunch<?> launch : group) {
+                launch.watcher = new MeshProcessWatcher(launch.request.getListener(), agentId);
+                addWatchedProcess(launch.watcher);
+                descriptions.add(launch.description);
+                listeners.add(launch.watcher.getProxy());
+            }
+
+            long begin = System.nanoTime();
+            List<LaunchResult> results = agent.launch(descriptions, distributionRef.getRegistryPath(), listeners);
+            long roundTrip = System.nanoTime() - begin;
+            for (BatchLaunch<?> launch : group) {
+                launch.launchedAt = begin + roundTrip;
+            }
+
+            for (int i = 0; i < group.size(); i++) {
+                BatchLaunch<?> launch = group.get(i);
+                LaunchResult result = results.get(i);
+                if (result.getError() != null) {
+                    launch.watcher.cleanup();
+                    launch.setException(result.getError());
+                } else {
+                    result.getMetrics().setRoundTripTime(roundTrip);
+                    launch.metrics = result.getMetrics();
+                    launch.watcher.setProcess(result.getProcess());
+                }
+            }
+
+            for (BatchLaunch<?> launch : group) {
+                if (launch.metrics != null) {
+                    launch.launched(launch.watcher.getProcess());
+                }
+            }
+        } catch (Throwable thrown) {
+            log.warn("Error launching on " + agentId, thrown);
+            for (BatchLaunch<?> launch : group) {
+                if (launch.metrics == null && !launch.isDone()) {
+                    if (launch.watcher != null) {
+                        launch.watcher.cleanup();
+                    }
+                    launch.setException(thrown);
+                }
+            }
+        }
+    }
+
+    public synchronized MeshContainerPool createMeshContainerPool(ClassLoaderFactory factory, int idlePerAgent) throws Exception {
+        checkNotClosed();
+        MeshContainerPoolImpl pool = new MeshContainerPoolImpl(this, factory == null ? getBootstrapClassLoaderFactory() : factory, idlePerAgent);
+        pools.add(pool);
+        return pool;
+    }
+
+    synchronized void removeMeshContainerPool(MeshContainerPool pool) {
+        pools.remove(pool);
+    }
+
+    ExecutorService getBatchExecutor() {
+        return ExecutorSupport.getExecutor(ExecutorSupport.REMOTING);
+    }
+
+    /**
+     * A launch made as part of a batch.
+     */
+    private class BatchLaunch<T> extends SettableFuture<T> implements LaunchFuture<T> {
+        final LaunchRequest request;
+        final LaunchDescription description;
+        MeshProcessWatcher watcher;
+        volatile LaunchMetrics metrics;
+        long launchedAt;
+
+        BatchLaunch(LaunchRequest request, LaunchDescription description) {
+            this.request = request;
+            this.description = description;
+        }
+
+        /**
+         * Called once the agent has launched the process.
+         */
+        @SuppressWarnings("unchecked")
+        void launched(MeshProcess process) {
+            if (!set((T) process)) {
+                //Cancelled:
+                killQuietly(process);
+            }
+        }
+
+        void killQuietly(MeshProcess process) {
+            try {
+                process.kill();
+            } catch (Exception e) {
+                watcher.cleanup();
+            }
+        }
+
+        public LaunchRequest getRequest() {
+            return request;
+        }
+
+        public LaunchMetrics getMetrics() {
+            return metrics;
+        }
+    }
+
+    /**
+     * A {@link MeshContainer} launched as part of a batch, completed once the
+     * container has registered.
+     */
+    private class ContainerLaunch extends BatchLaunch<MeshContainer> {
+        final String regPath;
+
+        ContainerLaunch(LaunchRequest request, MeshContainerLaunch launch) {
+            super(request, launch.toLaunchDescription());
+            this.regPath = launch.regPath;
+        }
+
+        void launched(MeshProcess process) {
+            long begin = System.nanoTime();
+            try {
+                //The group's containers start together, so waiting on them
+                //one after another takes no longer than the slowest:
+                long remaining = launchTimeout - TimeUnit.NANOSECONDS.toMillis(begin - launchedAt);
+                AsyncMeshContainerService proxy = meshKeeper.registry().waitForRegistration(regPath, Math.max(1, remaining));
+                metrics.setContainerRegistrationTime(System.nanoTime() - begin);
+                if (!set(new MeshContainerImpl(watcher, proxy))) {
+                    killQuietly(process);
+                }
+            } catch (Throwable thrown) {
+                killQuietly(process);
+                setException(thrown);
+            }
+        }
     }
 
     public static class MeshContainerLaunch extends JavaLaunch {
@@ -336,7 +654,7 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
 
     public JavaLaunch createMeshContainerLaunch() throws Exception {
         MeshContainerLaunch launch = new MeshContainerLaunch();
-        launch.regPath = MESHCONTAINER_REGISTRY_PATH + "/" + name + "/" + ++meshContainerCounter;
+        launch.regPath = MESHCONTAINER_REGISTRY_PATH + "/" + name + "/" + meshContainerCounter.incrementAndGet();
         setupBootstrapJavaLaunch(launch, org.fusesource.meshkeeper.launcher.MeshContainer.class.getName(), launch.regPath);
         return launch;
     }
@@ -383,13 +701,13 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
         }
 
         String regPath = ((MeshContainerLaunch) launch).regPath;
-        MeshProcess proc = launchProcess(agentId, launch.toLaunchDescription(), listener);
+        MeshProcessWatcher watcher = launchWatched(agentId, launch.toLaunchDescription(), listener);
         try {
-            MeshContainerService proxy = meshKeeper.registry().waitForRegistration(regPath, launchTimeout);
-            MeshContainerImpl mc = new MeshContainerImpl(proc, proxy);
+            AsyncMeshContainerService proxy = meshKeeper.registry().waitForRegistration(regPath, launchTimeout);
+            MeshContainerImpl mc = new MeshContainerImpl(watcher, proxy);
             return mc;
         } catch (Exception e) {
-            proc.kill();
+            watcher.getProcess().kill();
             throw e;
         }
 
@@ -520,12 +838,16 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
 
     private class MeshContainerImpl implements MeshContainer {
         private final MeshProcess process;
-        private final MeshContainerService container;
+        private final AsyncMeshContainerService container;
+        private Invocations invocations;
+        private boolean exited;
 
-        MeshContainerImpl(MeshProcess processProxy, MeshContainerService containerProxy) {
-            this.process = processProxy;
+        MeshContainerImpl(MeshProcessWatcher watcher, AsyncMeshContainerService containerProxy) {
+            this.process = watcher.getProcess();
             this.container = containerProxy;
-
+            if (!watcher.setContainer(this)) {
+                exited = true;
+            }
         }
 
         /*
@@ -573,6 +895,49 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
             return container.call(c);
         }
 
+        public boolean reset() throws Exception {
+            return container.reset();
+        }
+
+        public <R extends java.lang.Runnable & Serializable> Future<?> runAsync(R r) throws Exception {
+            Invocations listener = getInvocations();
+            SettableFuture<Object> future = new SettableFuture<Object>();
+            long id = listener.add(future);
+            try {
+                container.runAsync(id, r, listener.proxy);
+            } catch (Exception e) {
+                listener.remove(id);
+                throw e;
+            }
+            return future;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T, C extends java.util.concurrent.Callable<T> & Serializable> Future<T> callAsync(C c) throws Exception {
+            Invocations listener = getInvocations();
+            SettableFuture<Object> future = new SettableFuture<Object>();
+            long id = listener.add(future);
+            try {
+                container.callAsync(id, c, listener.proxy);
+            } catch (Exception e) {
+                listener.remove(id);
+                throw e;
+            }
+            return (Future<T>) (Future<?>) future;
+        }
+
+        private synchronized Invocations getInvocations() throws Exception {
+            if (exited) {
+                throw new Exception("Container process exited");
+            }
+            if (invocations == null) {
+                Invocations i = new Invocations();
+                i.proxy = meshKeeper.remoting().export(i, InvocationListener.class);
+                invocations = i;
+            }
+            return invocations;
+        }
+
         public void close() {
             try {
                 kill();
@@ -605,8 +970,35 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
          * @see org.fusesource.meshkeeper.MeshProcess#kill()
          */
         public void kill() throws Exception {
-            container.close();
-            process.kill();
+            try {
+                container.close();
+                process.kill();
+            } finally {
+                Invocations i;
+                synchronized (this) {
+                    i = invocations;
+                    invocations = null;
+                }
+                if (i != null) {
+                    i.close("Container closed");
+                }
+            }
+        }
+
+        /**
+         * Fails the outstanding asynchronous invocations once the container's
+         * process has exited, as they will never be reported back.
+         */
+        void onProcessExit(int exitCode) {
+            Invocations i;
+            synchronized (this) {
+                exited = true;
+                i = invocations;
+                invocations = null;
+            }
+            if (i != null) {
+                i.close("Container process exited with " + exitCode);
+            }
         }
 
         /*
@@ -629,6 +1021,64 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
         }
     }
 
+    /**
+     * Tracks the asynchronous invocations made on a container, completing
+     * their futures as the container reports back.
+     */
+    private class Invocations implements InvocationListener {
+        private final HashMap<Long, SettableFuture<Object>> pending = new HashMap<Long, SettableFuture<Object>>();
+        private long counter;
+        private boolean closed;
+        InvocationListener proxy;
+
+        synchronized long add(SettableFuture<Object> future) {
+            if (closed) {
+                throw new IllegalStateException("Container closed");
+            }
+            long id = ++counter;
+            pending.put(id, future);
+            return id;
+        }
+
+        synchronized SettableFuture<Object> remove(long id) {
+            return pending.remove(id);
+        }
+
+        public void onInvocationResult(long invocationId, Object result) {
+            SettableFuture<Object> future = remove(invocationId);
+            if (future != null) {
+                future.set(result);
+            }
+        }
+
+        public void onInvocationError(long invocationId, Throwable error) {
+            SettableFuture<Object> future = remove(invocationId);
+            if (future != null) {
+                future.setException(error);
+            }
+        }
+
+        /**
+         * Fails outstanding invocations and stops listening.
+         */
+        void close(String reason) {
+            ArrayList<SettableFuture<Object>> failed;
+            synchronized (this) {
+                closed = true;
+                failed = new ArrayList<SettableFuture<Object>>(pending.values());
+                pending.clear();
+            }
+            for (SettableFuture<Object> future : failed) {
+                future.setException(new Exception(reason));
+            }
+            try {
+                meshKeeper.remoting().unexport(this);
+            } catch (Exception e) {
+                log.debug("Error unexporting invocation listener", e);
+            }
+        }
+    }
+
     private synchronized void addWatchedProcess(MeshProcessWatcher watched) {
         runningProcesses.add(watched);
     }
@@ -680,6 +1130,7 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
         private MeshProcessListener proxy = null;
         private AtomicBoolean running = new AtomicBoolean(true);
         private MeshProcess process;
+        private MeshContainerImpl container;
 
         MeshProcessWatcher(MeshProcessListener delegate, String id) {
             if (delegate == null) {
@@ -704,6 +1155,19 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
             return process;
         }
 
+        /**
+         * Has the container told of the process' exit.
+         * 
+         * @return false if the process has already exited.
+         */
+        synchronized boolean setContainer(MeshContainerImpl container) {
+            if (!running.get()) {
+                return false;
+            }
+            this.container = container;
+            return true;
+        }
+
         public void cleanup() {
             synchronized (this) {
                 if (proxy != null) {
@@ -724,7 +1188,14 @@ class LaunchClient extends AbstractPluginClient implements MeshKeeper.Launcher,
 
         public void onProcessExit(int exitCode) {
             delegate.onProcessExit(exitCode);
-            running.set(false);
+            MeshContainerImpl exited;
+            synchronized (this) {
+                running.set(false);
+                exited = container;
+            }
+            if (exited != null) {
+                exited.onProcessExit(exitCode);
+            }
             cleanup();
         }
 
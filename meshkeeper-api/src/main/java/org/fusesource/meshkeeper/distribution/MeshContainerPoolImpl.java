@@ -0,0 +1,444 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.JavaLaunch;
+import org.fusesource.meshkeeper.LaunchFuture;
+import org.fusesource.meshkeeper.LaunchRequest;
+import org.fusesource.meshkeeper.MeshContainer;
+import org.fusesource.meshkeeper.MeshContainerPool;
+import org.fusesource.meshkeeper.MeshProcessListener;
+import org.fusesource.meshkeeper.classloader.ClassLoaderFactory;
+import org.fusesource.meshkeeper.util.DefaultProcessListener;
+
+/**
+ * MeshContainerPoolImpl
+ * <p>
+ * Description: {@link MeshContainerPool} implementation backed by a
+ * {@link LaunchClient}. Idle containers are launched in batches with
+ * {@link LaunchClient#launchMeshContainers(List)}. Each pooled container's
+ * output goes to a listener that can be switched, so that it reaches the
+ * listener of whoever has acquired it.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+class MeshContainerPoolImpl implements MeshContainerPool {
+
+    private static final Log LOG = LogFactory.getLog(MeshContainerPoolImpl.class);
+
+    private final LaunchClient launcher;
+    private final ClassLoaderFactory factory;
+    private final HashMap<String, AgentPool> agents = new HashMap<String, AgentPool>();
+    private int idleCount;
+    private int maxUses;
+    private boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    MeshContainerPoolImpl(LaunchClient launcher, ClassLoaderFactory factory, int idleCount) {
+        this.launcher = launcher;
+        this.factory = factory;
+        this.idleCount = idleCount;
+    }
+
+    public MeshContainer acquire(String agentId) throws Exception {
+        return acquire(agentId, null);
+    }
+
+    public MeshContainer acquire(String agentId, MeshProcessListener listener) throws Exception {
+        agentId = agentId(agentId);
+        PooledContainer pooled = null;
+        synchronized (this) {
+            checkNotClosed();
+            AgentPool agent = getAgentPool(agentId);
+            long deadline = System.currentTimeMillis() + launcher.getLaunchTimeout();
+            while (true) {
+                pooled = agent.idle.poll();
+                if (pooled != null) {
+                    if (pooled.listener.exited) {
+                        continue;
+                    }
+                    hits.incrementAndGet();
+                    break;
+                }
+
+                //Rather than launch another, wait for containers already on
+                //their way:
+                long remaining = deadline - System.currentTimeMillis();
+                if (agent.pending == 0 || remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+                checkNotClosed();
+            }
+        }
+
+        refill(agentId);
+
+        if (pooled == null) {
+            misses.incrementAndGet();
+            SwitchableListener switchable = new SwitchableListener();
+            //Output can arrive while the container is launching:
+            switchable.setDelegate(listener == null ? new DefaultProcessListener(agentId) : listener);
+            pooled = new PooledContainer(agentId, launcher.launchMeshContainer(agentId, createLaunch(), switchable), switchable);
+        }
+
+        pooled.uses++;
+        pooled.listener.setDelegate(listener == null ? new DefaultProcessListener(agentId) : listener);
+        return new Lease(pooled);
+    }
+
+    public void prestart(String agentId) throws Exception {
+        synchronized (this) {
+            checkNotClosed();
+        }
+        refill(agentId(agentId));
+    }
+
+    /**
+     * @return The agent id upper cased, or the one the launcher schedules if
+     *         it is null.
+     */
+    private String agentId(String agentId) throws Exception {
+        if (agentId == null) {
+            agentId = launcher.scheduleAgent();
+        }
+        return agentId.toUpperCase();
+    }
+
+    /**
+     * Launches containers in the background until the agent has the idle
+     * count of containers idle or on their way.
+     */
+    private void refill(final String agentId) {
+        final ArrayList<LaunchRequest> requests = new ArrayList<LaunchRequest>();
+        final ArrayList<SwitchableListener> listeners = new ArrayList<SwitchableListener>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            AgentPool agent = getAgentPool(agentId);
+            try {
+                for (int i = agent.idle.size() + agent.pending; i < idleCount; i++) {
+                    SwitchableListener listener = new SwitchableListener();
+                    listener.setDelegate(new DefaultProcessListener(agentId));
+                    requests.add(new LaunchRequest(agentId, createLaunch(), listener));
+                    listeners.add(listener);
+                }
+            } catch (Exception e) {
+                LOG.warn("Error creating container launch for " + agentId, e);
+            }
+            if (requests.isEmpty()) {
+                return;
+            }
+            agent.pending += requests.size();
+        }
+
+        try {
+            final List<LaunchFuture<MeshContainer>> futures = launcher.launchMeshContainers(requests);
+            launcher.getBatchExecutor().execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < futures.size(); i++) {
+                        PooledContainer pooled = null;
+                        try {
+                            pooled = new PooledContainer(agentId, futures.get(i).get(), listeners.get(i));
+                        } catch (Exception e) {
+                            LOG.warn("Error launching pooled container on " + agentId, e);
+                        }
+                        synchronized (MeshContainerPoolImpl.this) {
+                            getAgentPool(agentId).pending--;
+                            MeshContainerPoolImpl.this.notifyAll();
+                            if (pooled == null || offer(pooled)) {
+                                continue;
+                            }
+                        }
+                        retire(pooled);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            LOG.warn("Error launching pooled containers on " + agentId, e);
+            synchronized (this) {
+                getAgentPool(agentId).pending -= requests.size();
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Recycles or retires a container that has been closed by whoever
+     * acquired it.
+     */
+    private void release(PooledContainer pooled) {
+        pooled.listener.setDelegate(new DefaultProcessListener(pooled.agentId));
+        boolean reusable = !pooled.listener.exited && (maxUses <= 0 || pooled.uses < maxUses);
+        if (reusable) {
+            try {
+                reusable = pooled.container.reset();
+            } catch (Exception e) {
+                LOG.warn("Error resetting pooled container, retiring it", e);
+                reusable = false;
+            }
+        }
+
+        synchronized (this) {
+            if (reusable && offer(pooled)) {
+                notifyAll();
+                return;
+            }
+        }
+        retire(pooled);
+    }
+
+    /**
+     * Adds the container to its agent's idle containers unless the pool is
+     * closed or the agent has enough, in which case the caller retires it.
+     * 
+     * @return true if the container was added.
+     */
+    private boolean offer(PooledContainer pooled) {
+        AgentPool agent = getAgentPool(pooled.agentId);
+        if (closed || agent.idle.size() >= idleCount) {
+            return false;
+        }
+        agent.idle.add(pooled);
+        return true;
+    }
+
+    private void retire(PooledContainer pooled) {
+        try {
+            pooled.container.kill();
+        } catch (Exception e) {
+            LOG.debug("Error retiring pooled container", e);
+        }
+    }
+
+    private AgentPool getAgentPool(String agentId) {
+        AgentPool agent = agents.get(agentId);
+        if (agent == null) {
+            agent = new AgentPool();
+            agents.put(agentId, agent);
+        }
+        return agent;
+    }
+
+    private JavaLaunch createLaunch() throws Exception {
+        JavaLaunch launch = launcher.createMeshContainerLaunch();
+        launch.setBootstrapClassLoaderFactory(factory.getRegistryPath());
+        return launch;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("closed");
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    public synchronized void setIdleCount(int idleCount) {
+        this.idleCount = idleCount;
+    }
+
+    public synchronized int getMaxUses() {
+        return maxUses;
+    }
+
+    public synchronized void setMaxUses(int maxUses) {
+        this.maxUses = maxUses;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void close() {
+        ArrayList<PooledContainer> idle = new ArrayList<PooledContainer>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (AgentPool agent : agents.values()) {
+                idle.addAll(agent.idle);
+                agent.idle.clear();
+            }
+            notifyAll();
+        }
+
+        for (PooledContainer pooled : idle) {
+            retire(pooled);
+        }
+        launcher.removeMeshContainerPool(this);
+    }
+
+    public String toString() {
+        return "MeshContainerPool[" + factory.getRegistryPath() + "] hits=" + hits.get() + " misses=" + misses.get();
+    }
+
+    private static class AgentPool {
+        final LinkedList<PooledContainer> idle = new LinkedList<PooledContainer>();
+        //Containers launched to refill idle that haven't yet registered:
+        int pending;
+    }
+
+    private static class PooledContainer {
+        final String agentId;
+        final MeshContainer container;
+        final SwitchableListener listener;
+        int uses;
+
+        PooledContainer(String agentId, MeshContainer container, SwitchableListener listener) {
+            this.agentId = agentId;
+            this.container = container;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Passes process output on to the listener of the container's current
+     * holder.
+     */
+    private static class SwitchableListener implements MeshProcessListener {
+        private volatile MeshProcessListener delegate;
+        volatile boolean exited;
+
+        void setDelegate(MeshProcessListener delegate) {
+            this.delegate = delegate;
+        }
+
+        public void onProcessError(Throwable thrown) {
+            delegate.onProcessError(thrown);
+        }
+
+        public void onProcessExit(int exitCode) {
+            exited = true;
+            delegate.onProcessExit(exitCode);
+        }
+
+        public void onProcessInfo(String message) {
+            delegate.onProcessInfo(message);
+        }
+
+        public void onProcessOutput(int fd, byte[] output) {
+            delegate.onProcessOutput(fd, output);
+        }
+    }
+
+    /**
+     * The container handed out by an acquire, closing it returns the
+     * container to the pool after which it can't be used.
+     */
+    private class Lease implements MeshContainer {
+        private PooledContainer pooled;
+
+        Lease(PooledContainer pooled) {
+            this.pooled = pooled;
+        }
+
+        private synchronized MeshContainer container() {
+            if (pooled == null) {
+                throw new IllegalStateException("Container returned to pool");
+            }
+            return pooled.container;
+        }
+
+        private synchronized PooledContainer take() {
+            PooledContainer rc = pooled;
+            pooled = null;
+            return rc;
+        }
+
+        public <T extends Serializable> T host(String name, T object, Class<?>... interfaces) throws Exception {
+            return container().host(name, object, interfaces);
+        }
+
+        public void unhost(String name) throws Exception {
+            container().unhost(name);
+        }
+
+        public <R extends java.lang.Runnable & Serializable> void run(R r) throws Exception {
+            container().run(r);
+        }
+
+        public <T, C extends java.util.concurrent.Callable<T> & Serializable> T call(C c) throws Exception {
+            return container().call(c);
+        }
+
+        public boolean reset() throws Exception {
+            return container().reset();
+        }
+
+        public <R extends java.lang.Runnable & Serializable> Future<?> runAsync(R r) throws Exception {
+            return container().runAsync(r);
+        }
+
+        public <T, C extends java.util.concurrent.Callable<T> & Serializable> Future<T> callAsync(C c) throws Exception {
+            return container().callAsync(c);
+        }
+
+        public void close() {
+            PooledContainer released = take();
+            if (released != null) {
+                release(released);
+            }
+        }
+
+        public void kill() throws Exception {
+            PooledContainer released = take();
+            if (released != null) {
+                released.container.kill();
+            }
+        }
+
+        public boolean isRunning() throws Exception {
+            return container().isRunning();
+        }
+
+        public void open(int fd) throws IOException {
+            container().open(fd);
+        }
+
+        public void close(int fd) throws IOException {
+            container().close(fd);
+        }
+
+        public void write(int fd, byte[] data) throws IOException {
+            container().write(fd, data);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.fusesource.meshkeeper.MeshEvent;
+import org.fusesource.meshkeeper.util.internal.ClassLoadingAwareObjectInputStream;
+
+/**
+ * BinaryEventCodec
+ * <p>
+ * Description: A compact encoding for {@link MeshEvent}s. The type and source
+ * are written directly, as are attachments that are null, strings, byte
+ * arrays or boxed primitives. Other attachments fall back to java
+ * serialization, which is also the only place class names appear on the
+ * wire.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class BinaryEventCodec implements EventCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BYTES = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte BOOLEAN = 9;
+    private static final byte CHARACTER = 10;
+    private static final byte SERIALIZED = 127;
+
+    public byte[] encode(MeshEvent event) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(VERSION);
+        out.writeInt(event.getType());
+        writeString(out, event.getSource());
+
+        Object attachment = event.getAttachment();
+        if (attachment == null) {
+            out.writeByte(NULL);
+        } else if (attachment instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) attachment);
+        } else if (attachment instanceof byte[]) {
+            byte[] bytes = (byte[]) attachment;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (attachment instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) attachment);
+        } else if (attachment instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) attachment);
+        } else if (attachment instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) attachment);
+        } else if (attachment instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) attachment);
+        } else if (attachment instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) attachment);
+        } else if (attachment instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) attachment);
+        } else if (attachment instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) attachment);
+        } else if (attachment instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) attachment);
+        } else {
+            out.writeByte(SERIALIZED);
+            out.flush();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(attachment);
+            oos.flush();
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    public MeshEvent decode(byte[] data) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(bais);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event encoding version: " + version);
+        }
+
+        MeshEvent event = new MeshEvent();
+        event.setType(in.readInt());
+        event.setSource(readString(in));
+
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            break;
+        case STRING:
+            event.setAttachment(readString(in));
+            break;
+        case BYTES: {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            event.setAttachment(bytes);
+            break;
+        }
+        case INTEGER:
+            event.setAttachment(in.readInt());
+            break;
+        case LONG:
+            event.setAttachment(in.readLong());
+            break;
+        case DOUBLE:
+            event.setAttachment(in.readDouble());
+            break;
+        case FLOAT:
+            event.setAttachment(in.readFloat());
+            break;
+        case SHORT:
+            event.setAttachment(in.readShort());
+            break;
+        case BYTE:
+            event.setAttachment(in.readByte());
+            break;
+        case BOOLEAN:
+            event.setAttachment(in.readBoolean());
+            break;
+        case CHARACTER:
+            event.setAttachment(in.readChar());
+            break;
+        case SERIALIZED: {
+            ObjectInputStream ois = new ClassLoadingAwareObjectInputStream(bais);
+            event.setAttachment(ois.readObject());
+            break;
+        }
+        default:
+            throw new IOException("Unknown attachment type: " + tag);
+        }
+        return event;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
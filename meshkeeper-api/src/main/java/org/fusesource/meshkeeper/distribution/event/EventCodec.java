@@ -0,0 +1,39 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.event;
+
+import java.io.IOException;
+
+import org.fusesource.meshkeeper.MeshEvent;
+
+/**
+ * EventCodec
+ * <p>
+ * Description: Converts {@link MeshEvent}s to and from the bytes sent by an
+ * {@link EventClient}. Implementations must be thread safe.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface EventCodec {
+
+    public byte[] encode(MeshEvent event) throws IOException;
+
+    public MeshEvent decode(byte[] data) throws IOException, ClassNotFoundException;
+
+}
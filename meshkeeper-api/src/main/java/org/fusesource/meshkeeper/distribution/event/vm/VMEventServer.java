@@ -16,22 +16,25 @@
  */
 package org.fusesource.meshkeeper.distribution.event.vm;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.fusesource.meshkeeper.MeshEvent;
 import org.fusesource.meshkeeper.MeshEventListener;
 import org.fusesource.meshkeeper.control.ControlService;
-import org.fusesource.meshkeeper.distribution.DistributorFactory;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 
 /**
  * VMEventServer
  * <p>
  * Description: An in memory event server. This class queues and dispatches
- * events, on a separate thread.
+ * events, on a separate thread. Each topic has its own dispatcher which
+ * delivers queued events to the topic's listeners in batches, in the order in
+ * which they were sent. Sending an event doesn't block on other topics.
  * </p>
  * 
  * @author cmacnaug
@@ -39,8 +42,17 @@ import org.fusesource.meshkeeper.distribution.DistributorFactory;
  */
 public class VMEventServer implements ControlService{
 
-    private final HashMap<String, EventQueue> EVENT_QUEUES = new HashMap<String, EventQueue>();
-    private final ExecutorService EXECUTOR = DistributorFactory.getExecutorService();
+    private static final Log LOG = LogFactory.getLog(VMEventServer.class);
+    private static final MeshEventListener[] NO_LISTENERS = new MeshEventListener[0];
+
+    /**
+     * The maximum number of events a topic dispatcher delivers before giving
+     * up its executor thread to other work.
+     */
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private final ConcurrentHashMap<String, EventQueue> EVENT_QUEUES = new ConcurrentHashMap<String, EventQueue>();
+    private final ExecutorService EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.EVENTS);
     /*
      * (non-Javadoc)
      * 
@@ -84,7 +96,7 @@ public class VMEventServer implements ControlService{
      * org.fusesource.meshkeeper.distribution.event.EventClient#sendEvent(org
      * .fusesource.meshkeeper.distribution.event.Event, java.lang.String)
      */
-    public synchronized void sendEvent(final MeshEvent event, String topic) throws Exception {
+    public void sendEvent(final MeshEvent event, String topic) throws Exception {
         EventQueue queue = EVENT_QUEUES.get(topic);
 
         if (queue != null) {
@@ -93,57 +105,87 @@ public class VMEventServer implements ControlService{
     }
 
     private class EventQueue implements Runnable {
-        final HashSet<MeshEventListener> listeners = new HashSet<MeshEventListener>(1);
-        final LinkedBlockingQueue<Runnable> eventQueue = new LinkedBlockingQueue<Runnable>();
+        //Copy on write, replaced under this queue's monitor:
+        volatile MeshEventListener[] listeners = NO_LISTENERS;
+        final ConcurrentLinkedQueue<MeshEvent> eventQueue = new ConcurrentLinkedQueue<MeshEvent>();
         final AtomicBoolean scheduled = new AtomicBoolean(false);
+        //Only touched by the dispatching thread:
+        final MeshEvent[] batch = new MeshEvent[MAX_BATCH_SIZE];
         final String topic;
 
         EventQueue(String topic) {
             this.topic = topic;
         }
 
-        public synchronized boolean canBeRemoved() {
-            return listeners.isEmpty() && eventQueue.isEmpty();
+        public boolean canBeRemoved() {
+            return listeners.length == 0 && eventQueue.isEmpty();
         }
 
         public synchronized void addListener(MeshEventListener listener) {
-            listeners.add(listener);
+            MeshEventListener[] current = listeners;
+            for (MeshEventListener l : current) {
+                if (l.equals(listener)) {
+                    return;
+                }
+            }
+            MeshEventListener[] updated = new MeshEventListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            listeners = updated;
         }
 
         public synchronized void removeListener(MeshEventListener listener) {
-            listeners.remove(listener);
-        }
-
-        public void add(final MeshEvent event) {
-            synchronized (this) {
-                if (listeners.isEmpty()) {
+            MeshEventListener[] current = listeners;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].equals(listener)) {
+                    if (current.length == 1) {
+                        listeners = NO_LISTENERS;
+                    } else {
+                        MeshEventListener[] updated = new MeshEventListener[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        listeners = updated;
+                    }
                     return;
                 }
+            }
+        }
 
-                final MeshEventListener[] targets = (MeshEventListener[]) listeners.toArray();
-                eventQueue.add(new Runnable() {
-
-                    public void run() {
-                        for (MeshEventListener t : targets) {
-                            t.onEvent(event);
-                        }
-                    }
-                });
+        public void add(final MeshEvent event) {
+            if (listeners.length == 0) {
+                return;
             }
+            eventQueue.add(event);
             schedule();
         }
 
         public void run() {
-            Runnable r = eventQueue.poll();
-            if (r != null) {
-                r.run();
+            try {
+                int count = 0;
+                MeshEvent event;
+                while (count < MAX_BATCH_SIZE && (event = eventQueue.poll()) != null) {
+                    batch[count++] = event;
+                }
+
+                MeshEventListener[] targets = listeners;
+                for (int i = 0; i < count; i++) {
+                    for (MeshEventListener t : targets) {
+                        try {
+                            t.onEvent(batch[i]);
+                        } catch (Throwable thrown) {
+                            LOG.warn("Error dispatching event on " + topic + " to " + t, thrown);
+                        }
+                    }
+                    batch[i] = null;
+                }
+            } finally {
+                scheduled.set(false);
             }
-            scheduled.set(false);
 
             if (canBeRemoved()) {
                 synchronized (VMEventServer.this) {
                     if (canBeRemoved()) {
-                        EVENT_QUEUES.remove(topic);
+                        EVENT_QUEUES.remove(topic, this);
                     }
                 }
             } else {
@@ -153,8 +195,8 @@ public class VMEventServer implements ControlService{
         }
 
         private void schedule() {
-            if (!eventQueue.isEmpty() || listeners.isEmpty()) {
-                if (!scheduled.compareAndSet(false, true)) {
+            if (!eventQueue.isEmpty()) {
+                if (scheduled.compareAndSet(false, true)) {
                     EXECUTOR.execute(this);
                 }
             }
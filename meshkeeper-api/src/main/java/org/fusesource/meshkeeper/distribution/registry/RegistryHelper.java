@@ -19,14 +19,17 @@ package org.fusesource.meshkeeper.distribution.registry;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 
 /**
  * RegistryHelper
@@ -84,14 +87,22 @@ public class RegistryHelper {
     }
 
     /**
-     * 
+     * Collects the objects registered under a path. Changes are applied in
+     * order on the watcher executor rather than on the thread notifying
+     * them, as loading the objects reads from the registry and the registry
+     * may notify from the thread that completes its reads.
      */
-    private static class RegistrationWatcher<T> implements RegistryWatcher {
+    private static class RegistrationWatcher<T> implements RegistryDeltaWatcher {
+
+        private static final Executor EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.WATCHERS);
 
         final HashMap<String, T> map = new HashMap<String, T>();
         RegistryClient registry;
         String path;
         Set<String> filters;
+        //Guarded by updates:
+        private final LinkedList<Runnable> updates = new LinkedList<Runnable>();
+        private boolean applying;
 
         RegistrationWatcher(String path, Set<String> filters, RegistryClient registry) throws Exception {
             this.path = path;
@@ -100,9 +111,86 @@ public class RegistryHelper {
             registry.addRegistryWatcher(path, this);
         }
 
-        @SuppressWarnings("unchecked")
-        public synchronized void onChildrenChanged(String path, List<String> nodes) {
+        public void onChildrenChanged(final String path, final List<String> nodes) {
             //System.out.println("Nodes changed for " + path + ": " + nodes);
+            update(new Runnable() {
+                public void run() {
+                    load(path, nodes, nodes.size());
+                    // Removes agents that go away.
+                    map.keySet().retainAll(nodes);
+                }
+            });
+        }
+
+        public void onChildrenChanged(final String path, final List<String> added, final List<String> removed) {
+            update(new Runnable() {
+                public void run() {
+                    load(path, added, map.size() + added.size());
+                    map.keySet().removeAll(removed);
+                }
+            });
+        }
+
+        private void update(Runnable update) {
+            synchronized (updates) {
+                updates.add(update);
+                if (applying) {
+                    return;
+                }
+                applying = true;
+            }
+
+            EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    while (true) {
+                        Runnable next;
+                        synchronized (updates) {
+                            if (updates.isEmpty()) {
+                                applying = false;
+                                return;
+                            }
+                            next = updates.removeFirst();
+                        }
+                        synchronized (RegistrationWatcher.this) {
+                            next.run();
+                            RegistrationWatcher.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Loads the objects for any of the given nodes not already loaded.
+         * 
+         * @param children
+         *            The number of children the path has, or close to it.
+         */
+        @SuppressWarnings("unchecked")
+        private void load(String path, List<String> nodes, int children) {
+            int added = 0;
+            for (String node : nodes) {
+                if (filter(node) && !map.containsKey(node)) {
+                    added++;
+                }
+            }
+
+            //Fetch the whole path in one go when most of it was added, when
+            //only a few of many children were added fetch just those:
+            if (added > 1 && added * 2 >= children) {
+                try {
+                    Map<String, Object> objects = registry.getRegistryObjects(path, false);
+                    for (Map.Entry<String, Object> entry : objects.entrySet()) {
+                        String node = entry.getKey().substring(entry.getKey().lastIndexOf("/") + 1);
+                        if (filter(node) && !map.containsKey(node)) {
+                            map.put(node, (T) entry.getValue());
+                        }
+                    }
+                } catch (Throwable e) {
+                    LOG.error("Error retrieving registry objects at " + path, e);
+                }
+            }
+
             for (String node : nodes) {
                 
                 if (filter(node) && !map.containsKey(node)) {
@@ -115,9 +203,6 @@ public class RegistryHelper {
                     }
                 }
             }
-            // Removes agents that go away.
-            map.keySet().retainAll(nodes);
-            notifyAll();
         }
 
         private boolean filter(String node) {
@@ -0,0 +1,167 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+import org.fusesource.meshkeeper.RegistryWatcher;
+
+/**
+ * RegistryWatcherList
+ * <p>
+ * Description: The watchers registered on a registry path. Registry
+ * implementations pass each new list of children to {@link #update(List)}.
+ * The list remembers the previous children and computes what was added and
+ * removed once for all {@link RegistryDeltaWatcher}s. Plain
+ * {@link RegistryWatcher}s get the full list as before.
+ * </p>
+ * <p>
+ * Updates are delivered one at a time and in order. Watchers may be added
+ * and removed from within a notification.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class RegistryWatcherList {
+
+    private static final Log LOG = LogFactory.getLog(RegistryWatcherList.class);
+    private static final List<String> NONE = Collections.emptyList();
+
+    private final String path;
+    private final CopyOnWriteArrayList<RegistryWatcher> watchers = new CopyOnWriteArrayList<RegistryWatcher>();
+    //Delta watchers that haven't been given the current children yet:
+    private final HashSet<RegistryWatcher> uninitialized = new HashSet<RegistryWatcher>(1);
+    private final Object dispatchMutex = new Object();
+    //Guarded by dispatchMutex:
+    private HashSet<String> children;
+
+    public RegistryWatcherList(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return true if the watcher wasn't already in the list.
+     */
+    public boolean add(RegistryWatcher watcher) {
+        if (!(watcher instanceof RegistryDeltaWatcher)) {
+            return watchers.addIfAbsent(watcher);
+        }
+        //Held until the watcher is marked so that an update can't give it a
+        //delta first, and a watcher already added isn't given the full
+        //children again:
+        synchronized (uninitialized) {
+            if (!watchers.addIfAbsent(watcher)) {
+                return false;
+            }
+            uninitialized.add(watcher);
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the list is now empty.
+     */
+    public boolean remove(RegistryWatcher watcher) {
+        watchers.remove(watcher);
+        synchronized (uninitialized) {
+            uninitialized.remove(watcher);
+        }
+        return watchers.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return watchers.isEmpty();
+    }
+
+    /**
+     * Supplies a path's current children to {@link RegistryWatcherList#update(Children)}.
+     */
+    public interface Children {
+        public List<String> get();
+    }
+
+    /**
+     * Notifies watchers with the children returned by the given source,
+     * which is read while holding the dispatch lock so that concurrent
+     * updates can't be delivered out of order.
+     */
+    public void update(Children source) {
+        synchronized (dispatchMutex) {
+            update(source.get());
+        }
+    }
+
+    /**
+     * Notifies watchers of the path's current children.
+     */
+    public void update(List<String> current) {
+        synchronized (dispatchMutex) {
+            if (current == null) {
+                current = NONE;
+            }
+            List<String> added = new ArrayList<String>();
+            HashSet<String> next = new HashSet<String>(current);
+            for (String child : current) {
+                if (children == null || !children.contains(child)) {
+                    added.add(child);
+                }
+            }
+            List<String> removed = NONE;
+            if (children != null && children.size() + added.size() != next.size()) {
+                removed = new ArrayList<String>();
+                for (String child : children) {
+                    if (!next.contains(child)) {
+                        removed.add(child);
+                    }
+                }
+            }
+            children = next;
+
+            for (RegistryWatcher watcher : watchers) {
+                try {
+                    if (watcher instanceof RegistryDeltaWatcher) {
+                        boolean initialize;
+                        synchronized (uninitialized) {
+                            initialize = uninitialized.remove(watcher);
+                        }
+                        if (initialize) {
+                            ((RegistryDeltaWatcher) watcher).onChildrenChanged(path, new ArrayList<String>(current), NONE);
+                        } else if (!added.isEmpty() || !removed.isEmpty()) {
+                            ((RegistryDeltaWatcher) watcher).onChildrenChanged(path, added, removed);
+                        }
+                    } else {
+                        watcher.onChildrenChanged(path, current);
+                    }
+                } catch (Throwable thrown) {
+                    LOG.warn("Error notifying watcher for " + path, thrown);
+                }
+            }
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
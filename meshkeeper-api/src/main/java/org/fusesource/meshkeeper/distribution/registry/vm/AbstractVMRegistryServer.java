@@ -0,0 +1,150 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry.vm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.control.ControlService;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
+
+/**
+ * AbstractVMRegistryServer
+ * <p>
+ * Description: Base class for the in VM registry engines. Subclasses provide
+ * the node tree, this class handles object serialization and the
+ * {@link ControlService} lifecycle.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public abstract class AbstractVMRegistryServer implements ControlService {
+
+    protected static final ExecutorService EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.WATCHERS);
+    protected static final String SEQUENCE_FORMAT = "%010d";
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    public abstract String addData(String path, boolean sequential, byte[] data) throws Exception;
+
+    public abstract void updateData(String path, byte[] data) throws Exception;
+
+    public abstract byte[] getData(String path) throws Exception;
+
+    public abstract void remove(String path, boolean recursive) throws Exception;
+
+    public abstract void addRegistryWatcher(String path, RegistryWatcher watcher) throws Exception;
+
+    public abstract void removeRegistryWatcher(String path, RegistryWatcher watcher);
+
+    public abstract Collection<String> list(String path, boolean recursive, String... filters);
+
+    public String addObject(String path, boolean sequential, Serializable o) throws Exception {
+        return addData(path, sequential, toBytes(o));
+    }
+
+    public void updateObject(String path, Serializable o) throws Exception {
+        updateData(path, toBytes(o));
+    }
+
+    private static byte[] toBytes(Serializable o) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(baos);
+        os.writeObject(o);
+        os.close();
+        return baos.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(String path) throws Exception {
+        byte[] data = getData(path);
+        if (data == null) {
+            return null;
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        return (T) in.readObject();
+    }
+
+    protected void checkStarted() throws Exception {
+        if (!started.get()) {
+            throw new Exception("Not Connected");
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    //Control Service Implementation
+    //////////////////////////////////////////////////////////////////////
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.fusesource.meshkeeper.control.ControlService#start()
+     */
+    public void start() throws Exception {
+        started.set(true);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.fusesource.meshkeeper.control.ControlService#destroy()
+     */
+    public void destroy() throws Exception {
+        started.set(false);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.fusesource.meshkeeper.control.ControlService#getName()
+     */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.fusesource.meshkeeper.control.ControlService#getServiceUri()
+     */
+    public String getServiceUri() {
+        return "vm:" + getName();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.fusesource.meshkeeper.control.ControlService#setDirectory(java.lang
+     * .String)
+     */
+    public void setDirectory(String directory) {
+        //NoOp
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    //End of Control Service Implementation
+    //////////////////////////////////////////////////////////////////////
+}
@@ -0,0 +1,317 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.distribution.registry.RegistryWatcherList;
+
+/**
+ * ConcurrentVMRegistryServer
+ * <p>
+ * Description: An in VM registry engine that allows many threads to use the
+ * registry at once. Reads (getData, list) walk the tree without locking.
+ * Structural changes lock only the node whose children are being changed (and
+ * the node itself when it is being removed), so writers in different subtrees
+ * don't contend with each other.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ConcurrentVMRegistryServer extends AbstractVMRegistryServer {
+
+    private final CNode root = new CNode(null, "");
+
+    public String addData(String path, boolean sequential, byte[] data) throws Exception {
+        checkStarted();
+
+        int ls = path.lastIndexOf("/");
+        String parentPath = path.substring(0, ls);
+        String name = path.substring(ls + 1);
+
+        while (true) {
+            CNode parent = createPath(parentPath);
+            CNode node;
+            synchronized (parent) {
+                //Lost a race with the removal of an empty ancestor, try again:
+                if (parent.deleted) {
+                    continue;
+                }
+
+                String childName = name;
+                if (sequential) {
+                    childName = name + String.format(SEQUENCE_FORMAT, parent.sequence.incrementAndGet());
+                } else if (parent.children.containsKey(name)) {
+                    throw new Exception("Node Already Exists: " + path);
+                }
+                node = new CNode(parent, childName);
+                node.data = data;
+                parent.children.put(childName, node);
+            }
+            parent.fireChildrenChanged();
+            return node.fullPath;
+        }
+    }
+
+    public void updateData(String path, byte[] data) throws Exception {
+        checkStarted();
+
+        int ls = path.lastIndexOf("/");
+        String parentPath = path.substring(0, ls);
+        String name = path.substring(ls + 1);
+
+        while (true) {
+            CNode parent = createPath(parentPath);
+            boolean created = false;
+            synchronized (parent) {
+                if (parent.deleted) {
+                    continue;
+                }
+
+                //A linked child can't be deleted while the parent's monitor
+                //is held, so it is safe to replace its data:
+                CNode node = parent.children.get(name);
+                if (node == null) {
+                    node = new CNode(parent, name);
+                    node.data = data;
+                    parent.children.put(name, node);
+                    created = true;
+                } else {
+                    node.data = data;
+                }
+            }
+            if (created) {
+                parent.fireChildrenChanged();
+            }
+            return;
+        }
+    }
+
+    public byte[] getData(String path) throws Exception {
+        CNode node = findNode(path);
+        if (node == null) {
+            return null;
+        } else {
+            return node.data;
+        }
+    }
+
+    public void remove(String path, boolean recursive) throws Exception {
+        CNode node = findNode(path);
+        if (node == null) {
+            return;
+        }
+        if (recursive) {
+            remove(node);
+        } else {
+            //Children are added under the parent's monitor:
+            synchronized (node) {
+                if (!node.children.isEmpty()) {
+                    throw new Exception("Node Not Empty: " + path);
+                }
+                node.data = null;
+            }
+            node.deleteIfUnused();
+        }
+    }
+
+    private void remove(CNode node) {
+        node.data = null;
+        for (CNode child : node.children.values()) {
+            remove(child);
+        }
+        node.deleteIfUnused();
+    }
+
+    public void addRegistryWatcher(String path, RegistryWatcher watcher) throws Exception {
+        checkStarted();
+        while (true) {
+            CNode node = createPath(path);
+            synchronized (node) {
+                if (node.deleted) {
+                    continue;
+                }
+                node.watchers.add(watcher);
+            }
+            node.fireChildrenChanged();
+            return;
+        }
+    }
+
+    public void removeRegistryWatcher(String path, RegistryWatcher watcher) {
+        CNode node = findNode(path);
+        if (node != null && node.watchers.remove(watcher)) {
+            //Last watcher removed:
+            node.deleteIfUnused();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection<String> list(String path, boolean recursive, String... filters) {
+        if (filters != null) {
+            HashSet<String> filterSet = new HashSet<String>();
+            filterSet.addAll(Arrays.asList(filters));
+            return list(findNode(path), recursive, new LinkedList<String>(), filterSet);
+        } else {
+            return list(findNode(path), recursive, new LinkedList<String>(), Collections.EMPTY_SET);
+        }
+    }
+
+    private Collection<String> list(CNode node, boolean recursive, Collection<String> results, Set<String> filters) {
+        if (node != null) {
+            if (node.data != null) {
+                results.add(node.fullPath);
+            }
+
+            if (recursive) {
+                for (CNode child : node.children.values()) {
+                    if (!filters.remove(child.fullPath)) {
+                        list(child, recursive, results, filters);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Walks the tree to the given path, creating any missing nodes.
+     */
+    private CNode createPath(String path) {
+        retry: while (true) {
+            CNode node = root;
+            StringTokenizer tok = new StringTokenizer(path, "/");
+            while (tok.hasMoreTokens()) {
+                String name = tok.nextToken();
+                CNode child = node.children.get(name);
+                if (child == null) {
+                    boolean created = false;
+                    synchronized (node) {
+                        if (node.deleted) {
+                            continue retry;
+                        }
+                        child = node.children.get(name);
+                        if (child == null) {
+                            child = new CNode(node, name);
+                            node.children.put(name, child);
+                            created = true;
+                        }
+                    }
+                    if (created) {
+                        node.fireChildrenChanged();
+                    }
+                }
+                node = child;
+            }
+            return node;
+        }
+    }
+
+    private CNode findNode(String path) {
+        CNode node = root;
+        StringTokenizer tok = new StringTokenizer(path.trim(), "/");
+        while (node != null && tok.hasMoreTokens()) {
+            node = node.children.get(tok.nextToken());
+        }
+        return node;
+    }
+
+    private static class CNode {
+        final CNode parent;
+        final String name;
+        final String fullPath;
+        final ConcurrentHashMap<String, CNode> children = new ConcurrentHashMap<String, CNode>(4);
+        final RegistryWatcherList watchers;
+        final AtomicInteger sequence = new AtomicInteger();
+        volatile byte[] data;
+        //Guarded by this node's monitor, set once the node is unlinked:
+        volatile boolean deleted;
+
+        CNode(CNode parent, String name) {
+            this.parent = parent;
+            this.name = name;
+            if (parent == null) {
+                fullPath = "/";
+            } else if (parent.parent == null) {
+                fullPath = "/" + name;
+            } else {
+                fullPath = parent.fullPath + "/" + name;
+            }
+            watchers = new RegistryWatcherList(fullPath);
+        }
+
+        private final RegistryWatcherList.Children childList = new RegistryWatcherList.Children() {
+            public List<String> get() {
+                return new ArrayList<String>(children.keySet());
+            }
+        };
+
+        private boolean isUnused() {
+            return data == null && children.isEmpty() && watchers.isEmpty();
+        }
+
+        /**
+         * Unlinks this node if it no longer holds data, children or watchers
+         * and then does the same for its ancestors. Locks are always taken
+         * parent first.
+         */
+        void deleteIfUnused() {
+            CNode node = this;
+            while (node.parent != null) {
+                CNode p = node.parent;
+                boolean removed = false;
+                synchronized (p) {
+                    synchronized (node) {
+                        if (!node.deleted && node.isUnused()) {
+                            node.deleted = true;
+                            p.children.remove(node.name, node);
+                            removed = true;
+                        }
+                    }
+                }
+
+                if (!removed) {
+                    return;
+                }
+                p.fireChildrenChanged();
+                node = p;
+            }
+        }
+
+        void fireChildrenChanged() {
+            if (!watchers.isEmpty()) {
+                EXECUTOR.execute(new Runnable() {
+                    public void run() {
+                        watchers.update(childList);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.fusesource.meshkeeper.RegistryWatcher;
@@ -37,9 +38,28 @@ import org.fusesource.meshkeeper.distribution.registry.AbstractRegistryClient;
  */
 public class VMRegistry extends AbstractRegistryClient {
 
-    private static final VMRegistryServer SERVER = new VMRegistryServer();
+    private static final AbstractVMRegistryServer LOCKING_SERVER = new VMRegistryServer();
+    private static final AbstractVMRegistryServer CONCURRENT_SERVER = new ConcurrentVMRegistryServer();
     private HashMap<String, HashSet<RegistryWatcher>> watchers = new HashMap<String, HashSet<RegistryWatcher>>();
     AtomicBoolean started = new AtomicBoolean(false);
+    private AbstractVMRegistryServer server = CONCURRENT_SERVER;
+
+    /**
+     * Selects the in VM registry engine. When true (the default) the
+     * {@link ConcurrentVMRegistryServer} is used, otherwise the single lock
+     * {@link VMRegistryServer} is used. Clients using the same engine share
+     * the same registry tree.
+     * 
+     * @param concurrent
+     *            Whether to use the concurrent registry engine.
+     */
+    public void setConcurrent(boolean concurrent) {
+        server = concurrent ? CONCURRENT_SERVER : LOCKING_SERVER;
+    }
+
+    public boolean isConcurrent() {
+        return server == CONCURRENT_SERVER;
+    }
 
     /*
      * (non-Javadoc)
@@ -47,11 +67,12 @@ public class VMRegistry extends AbstractRegistryClient {
      * @see org.fusesource.meshkeeper.distribution.registry.Registry#start()
      */
     public void start() throws Exception {
+        server.start();
         started.compareAndSet(false, true);
         synchronized (this) {
             for (Map.Entry<String, HashSet<RegistryWatcher>> e : watchers.entrySet()) {
                 for (RegistryWatcher w : e.getValue()) {
-                    SERVER.removeRegistryWatcher(e.getKey(), w);
+                    server.removeRegistryWatcher(e.getKey(), w);
                 }
             }
             watchers.clear();
@@ -76,7 +97,7 @@ public class VMRegistry extends AbstractRegistryClient {
      */
     public String addRegistryData(String path, boolean sequential, byte[] data) throws Exception {
         checkStarted();
-        return SERVER.addData(path, sequential, data);
+        return server.addData(path, sequential, data);
     }
 
     /*
@@ -88,7 +109,31 @@ public class VMRegistry extends AbstractRegistryClient {
      */
     public String addRegistryObject(String path, boolean sequential, Serializable o) throws Exception {
         checkStarted();
-        return SERVER.addObject(path, sequential, o);
+        return server.addObject(path, sequential, o);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.fusesource.meshkeeper.MeshKeeper.Registry#updateRegistryData(java
+     * .lang.String, byte[])
+     */
+    public void updateRegistryData(String path, byte[] data) throws Exception {
+        checkStarted();
+        server.updateData(path, data);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.fusesource.meshkeeper.MeshKeeper.Registry#updateRegistryObject(java
+     * .lang.String, java.io.Serializable)
+     */
+    public void updateRegistryObject(String path, Serializable o) throws Exception {
+        checkStarted();
+        server.updateObject(path, o);
     }
 
     /*
@@ -101,7 +146,31 @@ public class VMRegistry extends AbstractRegistryClient {
     @SuppressWarnings("unchecked")
     public <T> T getRegistryObject(String path) throws Exception {
         checkStarted();
-        return (T) SERVER.getObject(path);
+        return (T) server.getObject(path);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.fusesource.meshkeeper.MeshKeeper.Registry#getRegistryObjects(java
+     * .lang.String, boolean)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getRegistryObjects(String path, boolean recursive) throws Exception {
+        checkStarted();
+        String prefix = path.endsWith("/") ? path : path + "/";
+        TreeMap<String, T> objects = new TreeMap<String, T>();
+        for (String node : server.list(path, true)) {
+            if (!node.startsWith(prefix) || (!recursive && node.indexOf('/', prefix.length()) >= 0)) {
+                continue;
+            }
+            byte[] data = server.getData(node);
+            if (data != null && data.length > 0) {
+                objects.put(node, (T) server.getObject(node));
+            }
+        }
+        return objects;
     }
 
     /*
@@ -113,7 +182,7 @@ public class VMRegistry extends AbstractRegistryClient {
      */
     public byte[] getRegistryData(String path) throws Exception {
         checkStarted();
-        return SERVER.getData(path);
+        return server.getData(path);
     }
 
     /*
@@ -124,7 +193,7 @@ public class VMRegistry extends AbstractRegistryClient {
      */
     public void removeRegistryData(String path, boolean recursive) throws Exception {
         checkStarted();
-        SERVER.remove(path, recursive);
+        server.remove(path, recursive);
     }
 
     /*
@@ -151,7 +220,7 @@ public class VMRegistry extends AbstractRegistryClient {
         }
 
         if (added) {
-            SERVER.addRegistryWatcher(path, watcher);
+            server.addRegistryWatcher(path, watcher);
         }
     }
 
@@ -166,7 +235,7 @@ public class VMRegistry extends AbstractRegistryClient {
      * @return A list of nodes at the path or an empty list if there are none.
      */
     public Collection<String> list(String path, boolean recursive, String ... filters) throws Exception {
-        return SERVER.list(path, recursive, filters);
+        return server.list(path, recursive, filters);
     }
 
     /*
@@ -191,7 +260,7 @@ public class VMRegistry extends AbstractRegistryClient {
         }
 
         if (removed) {
-            SERVER.removeRegistryWatcher(path, watcher);
+            server.removeRegistryWatcher(path, watcher);
         }
     }
 
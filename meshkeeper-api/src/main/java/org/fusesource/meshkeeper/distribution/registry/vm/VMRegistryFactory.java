@@ -16,6 +16,8 @@
  */
 package org.fusesource.meshkeeper.distribution.registry.vm;
 
+import java.net.URI;
+
 import org.fusesource.meshkeeper.distribution.registry.RegistryClient;
 import org.fusesource.meshkeeper.distribution.registry.RegistryFactory;
 
@@ -34,6 +36,8 @@ public class VMRegistryFactory extends RegistryFactory{
      */
     @Override
     protected RegistryClient createPlugin(String uri) throws Exception {
-        return new VMRegistry();
+        VMRegistry registry = new VMRegistry();
+        applyQueryParameters(registry, new URI(uri));
+        return registry;
     }
 }
@@ -16,11 +16,6 @@
  */
 package org.fusesource.meshkeeper.distribution.registry.vm;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,27 +23,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.fusesource.meshkeeper.RegistryWatcher;
-import org.fusesource.meshkeeper.control.ControlService;
-import org.fusesource.meshkeeper.distribution.DistributorFactory;
+import org.fusesource.meshkeeper.distribution.registry.RegistryWatcherList;
 
 /**
  * VMRegistryServer
  * <p>
- * Description:
+ * Description: An in VM registry engine that serializes all access to the
+ * registry tree through a single monitor. See
+ * {@link ConcurrentVMRegistryServer} for an engine suited to many concurrent
+ * callers.
  * </p>
  * 
  * @author cmacnaug
  * @version 1.0
  */
-public class VMRegistryServer implements ControlService {
-    private static final ExecutorService EXECUTOR = DistributorFactory.getExecutorService();
-    private final AtomicBoolean started = new AtomicBoolean(false);
+public class VMRegistryServer extends AbstractVMRegistryServer {
 
     VMRNode root = new VMRNode();
 
@@ -56,32 +50,25 @@ public class VMRegistryServer implements ControlService {
         checkStarted();
 
         VMRNode parent = createParentPath(path);
-        String name = path.substring(path.lastIndexOf("/"));
+        String name = path.substring(path.lastIndexOf("/") + 1);
         if (!sequential) {
-            if (parent.children.containsKey(name)) {
+            if (parent.children != null && parent.children.containsKey(name)) {
                 throw new Exception("Node Already Exists: " + path);
             }
         }
-        VMRNode node = parent.createChild(path.substring(path.lastIndexOf("/")), sequential, data);
+        VMRNode node = parent.createChild(name, sequential, data);
         return node.getFullPath();
     }
 
-    public synchronized String addObject(String path, boolean sequential, Serializable o) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream os = new ObjectOutputStream(baos);
-        os.writeObject(o);
-        os.close();
-        return addData(path, sequential, baos.toByteArray());
-    }
+    public synchronized void updateData(String path, byte[] data) throws Exception {
+        checkStarted();
 
-    @SuppressWarnings("unchecked")
-    public <T> T getObject(String path) throws Exception {
-        byte[] data = getData(path);
-        if (data == null) {
-            return null;
+        VMRNode node = findNode(path);
+        if (node == null) {
+            addData(path, false, data);
+        } else {
+            node.data = data;
         }
-        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
-        return (T) in.readObject();
     }
 
     public synchronized byte[] getData(String path) throws Exception {
@@ -96,16 +83,23 @@ public class VMRegistryServer implements ControlService {
     public synchronized void remove(String path, boolean recursive) throws Exception {
         VMRNode node = findNode(path);
         if (node != null) {
-            if (node.hasChildren()) {
+            if (!recursive && node.hasChildren()) {
                 throw new Exception("Node Not Empty: " + path);
             }
-            if (node.hasData()) {
-                node.data = null;
-            }
-            if (node.isOkToDelete()) {
-                node.delete(true);
+            remove(node);
+        }
+    }
+
+    private void remove(VMRNode node) {
+        node.data = null;
+        if (node.hasChildren()) {
+            for (VMRNode child : new ArrayList<VMRNode>(node.children.values())) {
+                remove(child);
             }
         }
+        if (node.isOkToDelete()) {
+            node.delete(true);
+        }
     }
 
     public synchronized void addRegistryWatcher(String path, RegistryWatcher watcher) throws Exception {
@@ -128,7 +122,7 @@ public class VMRegistryServer implements ControlService {
      * @return
      */
     @SuppressWarnings("unchecked")
-    public Collection<String> list(String path, boolean recursive, String... filters) {
+    public synchronized Collection<String> list(String path, boolean recursive, String... filters) {
         if (filters != null) {
             HashSet<String> filterSet = new HashSet<String>();
             filterSet.addAll(Arrays.asList(filters));
@@ -157,10 +151,10 @@ public class VMRegistryServer implements ControlService {
     }
 
     private VMRNode createParentPath(String path) throws Exception {
-        StringTokenizer tok = new StringTokenizer(path, "/");
+        StringTokenizer tok = new StringTokenizer(path.substring(0, path.lastIndexOf("/") + 1), "/");
         VMRNode parent = root;
-        while (tok.countTokens() > 1) {
-            parent.createChild(tok.nextToken(), false, null);
+        while (tok.hasMoreTokens()) {
+            parent = parent.createChild(tok.nextToken(), false, null);
         }
         return parent;
     }
@@ -176,86 +170,28 @@ public class VMRegistryServer implements ControlService {
         while (node != null && tok.hasMoreTokens()) {
             node = node.getChild(tok.nextToken());
         }
-        return root;
+        return node;
     }
 
-    private void checkStarted() throws Exception {
-        if (!started.get()) {
-            throw new Exception("Not Connected");
-        }
-    }
-
-    //////////////////////////////////////////////////////////////////////
-    //Control Service Implementation
-    //////////////////////////////////////////////////////////////////////
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.fusesource.meshkeeper.control.ControlService#destroy()
-     */
-    public void destroy() throws Exception {
-        // TODO Auto-generated method stub
-
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.fusesource.meshkeeper.control.ControlService#start()
-     */
-    public void start() throws Exception {
-        // TODO Auto-generated method stub
-
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.fusesource.meshkeeper.control.ControlService#getName()
-     */
-    public String getName() {
-        return "VMRegistryServer";
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.fusesource.meshkeeper.control.ControlService#getServiceUri()
-     */
-    public String getServiceUri() {
-        return "vm:" + getName();
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see
-     * org.fusesource.meshkeeper.control.ControlService#setDirectory(java.lang
-     * .String)
-     */
-    public void setDirectory(String directory) {
-        //NoOp
-    }
-
-    //////////////////////////////////////////////////////////////////////
-    //End of Control Service Implementation
-    //////////////////////////////////////////////////////////////////////
-
     public class VMRNode {
         VMRNode parent;
         HashMap<String, VMRNode> children;
         String name = "";
         String path = "/";
         boolean sequential;
+        int sequence;
         byte[] data;
-        HashSet<RegistryWatcher> watchers;
+        RegistryWatcherList watchers;
 
         public VMRNode createChild(String name, boolean sequential, byte[] data) throws Exception {
             if (this.sequential) {
                 throw new Exception("Can't create child for sequential node");
             }
 
+            if (sequential) {
+                name = name + String.format(SEQUENCE_FORMAT, ++sequence);
+            }
+
             if (children == null) {
                 children = new HashMap<String, VMRNode>();
             } else {
@@ -267,7 +203,7 @@ public class VMRegistryServer implements ControlService {
 
             VMRNode rc = new VMRNode();
             rc.parent = this;
-            rc.path = this.path + this.name + "/";
+            rc.path = parent == null ? "/" + name : this.path + "/" + name;
             rc.name = name;
             rc.sequential = sequential;
             rc.data = data;
@@ -293,7 +229,7 @@ public class VMRegistryServer implements ControlService {
         }
 
         public String getFullPath() {
-            return path + "/" + name;
+            return path;
         }
 
         public boolean hasChildren() {
@@ -309,7 +245,7 @@ public class VMRegistryServer implements ControlService {
         }
 
         public boolean isOkToDelete() {
-            return !(hasChildren() || hasWatchers());
+            return !(hasChildren() || hasWatchers() || hasData());
         }
 
         public void delete(boolean deleteEmptyAncestors) {
@@ -318,56 +254,53 @@ public class VMRegistryServer implements ControlService {
                 parent.fireRegistryWatcher();
 
                 if (deleteEmptyAncestors) {
-                    if (parent.isOkToDelete() && !parent.hasData()) {
+                    if (parent.isOkToDelete()) {
                         parent.delete(deleteEmptyAncestors);
                     }
                 }
             }
         }
 
+        private final RegistryWatcherList.Children childList = new RegistryWatcherList.Children() {
+            public List<String> get() {
+                ArrayList<String> childList = new ArrayList<String>();
+                synchronized (VMRegistryServer.this) {
+                    if (children != null) {
+                        childList.addAll(children.keySet());
+                    }
+                }
+                return childList;
+            }
+        };
+
         public void addRegistryWatcher(RegistryWatcher watcher) {
             if (watchers == null) {
-                watchers = new HashSet<RegistryWatcher>(1);
+                watchers = new RegistryWatcherList(path);
             }
             watchers.add(watcher);
-            fireWatchEvent(new RegistryWatcher[] { watcher });
+            fireRegistryWatcher();
         }
 
         public void removeRegistryWatcher(RegistryWatcher watcher) {
             if (watchers != null) {
                 if (watchers.remove(watcher)) {
-                    if (watchers.isEmpty()) {
-                        watchers = null;
-                        if (!hasData() && isOkToDelete()) {
-                            delete(true);
-                        }
+                    watchers = null;
+                    if (isOkToDelete()) {
+                        delete(true);
                     }
                 }
             }
         }
 
         private void fireRegistryWatcher() {
-            if (watchers != null) {
-                fireWatchEvent((RegistryWatcher[]) watchers.toArray());
-            }
-        }
-
-        private void fireWatchEvent(final RegistryWatcher[] targets) {
-            EXECUTOR.execute(new Runnable() {
-
-                public void run() {
-                    ArrayList<String> childList = new ArrayList<String>();
-                    synchronized (VMRegistryServer.this) {
-                        if (children != null) {
-                            childList.addAll(children.keySet());
-                        }
-                    }
-
-                    for (RegistryWatcher w : targets) {
-                        w.onChildrenChanged(getFullPath(), childList);
+            final RegistryWatcherList targets = watchers;
+            if (targets != null) {
+                EXECUTOR.execute(new Runnable() {
+                    public void run() {
+                        targets.update(childList);
                     }
-                }
-            });
+                });
+            }
         }
     }
 
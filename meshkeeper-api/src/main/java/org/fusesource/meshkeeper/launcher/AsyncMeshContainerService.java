@@ -0,0 +1,67 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.io.Serializable;
+
+import org.fusesource.meshkeeper.MeshKeeper.Remoting;
+
+/**
+ * AsyncMeshContainerService
+ * <p>
+ * Description: The service a container exports for the launcher, adding the
+ * invocations behind {@link org.fusesource.meshkeeper.MeshContainer#runAsync}
+ * and {@link org.fusesource.meshkeeper.MeshContainer#callAsync}. Their
+ * outcome is passed back to an {@link InvocationListener} by id, which is
+ * the launcher's business rather than that of container users.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface AsyncMeshContainerService extends MeshContainerService {
+
+    /**
+     * Runs the {@link Runnable} in the container without waiting for it to
+     * complete. The listener is told when it has completed.
+     * 
+     * @param invocationId
+     *            An id, chosen by the caller, passed back to the listener.
+     * @param r
+     *            The {@link Runnable}
+     * @param listener
+     *            The listener, usually a {@link Remoting} proxy.
+     * @throws Exception
+     *             If the {@link Runnable} couldn't be submitted.
+     */
+    public <R extends java.lang.Runnable & Serializable> void runAsync(long invocationId, R r, InvocationListener listener) throws Exception;
+
+    /**
+     * Invokes the {@link Callable} in the container without waiting for it
+     * to complete. The listener is passed its result.
+     * 
+     * @param invocationId
+     *            An id, chosen by the caller, passed back to the listener.
+     * @param c
+     *            The {@link Callable}
+     * @param listener
+     *            The listener, usually a {@link Remoting} proxy.
+     * @throws Exception
+     *             If the {@link Callable} couldn't be submitted.
+     */
+    public <T, C extends java.util.concurrent.Callable<T> & Serializable> void callAsync(long invocationId, C c, InvocationListener listener) throws Exception;
+}
@@ -0,0 +1,53 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import org.fusesource.meshkeeper.Distributable;
+import org.fusesource.meshkeeper.Oneway;
+
+/**
+ * InvocationListener
+ * <p>
+ * Description: Receives the outcome of invocations made asynchronously on a
+ * {@link AsyncMeshContainerService}. Invocations are identified by the id the
+ * caller passed with them, so one listener can serve all of a caller's
+ * invocations on a container.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public interface InvocationListener extends Distributable {
+
+    /**
+     * Called when an invocation completes.
+     * 
+     * @param invocationId The invocation's id.
+     * @param result The result, null for a {@link Runnable}.
+     */
+    @Oneway
+    public void onInvocationResult(long invocationId, Object result);
+
+    /**
+     * Called when an invocation fails.
+     * 
+     * @param invocationId The invocation's id.
+     * @param error The error thrown by the invocation.
+     */
+    @Oneway
+    public void onInvocationError(long invocationId, Throwable error);
+}
@@ -18,30 +18,54 @@ package org.fusesource.meshkeeper.launcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.AgentLoad;
 import org.fusesource.meshkeeper.HostProperties;
 import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.LaunchMetrics;
 import org.fusesource.meshkeeper.MeshKeeper;
 import org.fusesource.meshkeeper.MeshKeeperFactory;
 import org.fusesource.meshkeeper.MeshProcess;
 import org.fusesource.meshkeeper.MeshProcessListener;
-import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.ExecutorMetrics;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 import org.fusesource.meshkeeper.util.internal.FileSupport;
 
 /**
+ * LaunchAgent
+ * <p>
+ * Description: Launches processes on behalf of launch clients. Only pid
+ * allocation and process bookkeeping happen under the agent's lock, the
+ * launches themselves run on the {@link ExecutorSupport#LAUNCH} executor so
+ * that a slow launch, such as one downloading a large classpath, doesn't hold
+ * up others. The executor's size, set with the
+ * <code>meshkeeper.executor.launch.threads</code> system property, bounds how
+ * many launches run at once.
+ * </p>
+ * 
  * @author chirino
  */
 public class LaunchAgent implements LaunchAgentService {
     public static final long CLEANUP_TIMEOUT = 60000;
+    public static final long LOAD_INTERVAL = Long.getLong("meshkeeper.launcher.loadInterval", 5000);
     public static final String LOCAL_REPO_PROP = "org.fusesource.testrunner.localRepoDir";
     public static final Log LOG = LogFactory.getLog(LaunchAgent.class);
 
@@ -55,16 +79,39 @@ public class LaunchAgent implements LaunchAgentService {
 
     //ProcessHandlers:
     private final Map<Integer, LocalProcess> processes = new HashMap<Integer, LocalProcess>();
+    private final Map<String, Set<LocalProcess>> processesByOwner = new HashMap<String, Set<LocalProcess>>();
     int pidCounter = 0;
     private Thread shutdownHook;
 
     private HostPropertiesImpl properties = new HostPropertiesImpl();
 
     private Monitor monitor = new Monitor(this);
+    private final LaunchClientIndex launchClients = new LaunchClientIndex(MeshKeeper.Launcher.LAUNCHER_REGISTRY_PATH, monitor);
     private MeshKeeper meshKeeper;
 
+    //Launch pipeline metrics:
+    private final AtomicInteger queuedLaunches = new AtomicInteger();
+    private final AtomicInteger activeLaunches = new AtomicInteger();
+    private final AtomicLong failedLaunches = new AtomicLong();
+    private final AtomicLong outputDelivered = new AtomicLong();
+    private final AtomicLong outputDropped = new AtomicLong();
+    private final PhaseStats[] phaseStats = new PhaseStats[LaunchAgentMetrics.PHASES.length];
+    {
+        for (int i = 0; i < phaseStats.length; i++) {
+            phaseStats[i] = new PhaseStats();
+        }
+    }
+
     public List<Integer> reserveTcpPorts(int count) throws Exception {
-        return Arrays.asList(PortReserver.reservePorts(PortReserver.TCP, count));
+        return reserveTcpPorts(null, count, false);
+    }
+
+    public List<Integer> reserveTcpPorts(String owner, int count, boolean contiguous) throws Exception {
+        if (contiguous) {
+            return PortReserver.reserveContiguousPorts(PortReserver.TCP, count, owner);
+        } else {
+            return PortReserver.reservePorts(PortReserver.TCP, count, owner);
+        }
     }
 
     public void releaseTcpPorts(Collection<Integer> ports) {
@@ -91,24 +138,215 @@ public class LaunchAgent implements LaunchAgentService {
     }
 
     public MeshProcess launch(LaunchDescription launchDescription, String sourceRegistryPath, MeshProcessListener handler) throws Exception {
-        checkForRogueProcesses();
+        return waitForLaunch(submitLaunch(launchDescription, sourceRegistryPath, handler)).getProxy();
+    }
+
+    public List<LaunchResult> launch(List<LaunchDescription> launchDescriptions, String sourceRegistryPath, List<MeshProcessListener> listeners) throws Exception {
+        if (listeners.size() != launchDescriptions.size()) {
+            throw new IllegalArgumentException("Expected " + launchDescriptions.size() + " listeners, got " + listeners.size());
+        }
+
+        //Queue the whole batch before waiting so the launches run concurrently:
+        ArrayList<Object> launches = new ArrayList<Object>(launchDescriptions.size());
+        for (int i = 0; i < launchDescriptions.size(); i++) {
+            try {
+                launches.add(submitLaunch(launchDescriptions.get(i), sourceRegistryPath, listeners.get(i)));
+            } catch (Exception e) {
+                launches.add(e);
+            }
+        }
+
+        ArrayList<LaunchResult> results = new ArrayList<LaunchResult>(launchDescriptions.size());
+        for (Object launch : launches) {
+            try {
+                if (launch instanceof Exception) {
+                    throw (Exception) launch;
+                }
+                @SuppressWarnings("unchecked")
+                LocalProcess process = waitForLaunch((Future<LocalProcess>) launch);
+                results.add(new LaunchResult(process.getProxy(), process.getMetrics()));
+            } catch (Exception e) {
+                LOG.warn("Error in batch launch for " + sourceRegistryPath, e);
+                results.add(new LaunchResult(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Launches a process on the calling thread rather than the launch
+     * executor. Used for launches made by a task that is itself running on
+     * the launch executor, which could otherwise wait forever for a launch
+     * queued behind it.
+     */
+    public MeshProcess launchInline(LaunchDescription launchDescription, String sourceRegistryPath, MeshProcessListener handler) throws Exception {
+        LocalProcess rc = createLaunch(launchDescription, sourceRegistryPath, handler);
+        activeLaunches.incrementAndGet();
+        try {
+            startProcess(rc);
+        } finally {
+            activeLaunches.decrementAndGet();
+        }
+        return rc.getProxy();
+    }
+
+    /**
+     * Queues the launch on the launch executor.
+     */
+    private Future<LocalProcess> submitLaunch(LaunchDescription launchDescription, String sourceRegistryPath, MeshProcessListener handler) throws Exception {
+        final LocalProcess rc = createLaunch(launchDescription, sourceRegistryPath, handler);
+        final long submitted = System.nanoTime();
+        queuedLaunches.incrementAndGet();
+        try {
+            return getLaunchExecutor().submit(new Callable<LocalProcess>() {
+                public LocalProcess call() throws Exception {
+                    queuedLaunches.decrementAndGet();
+                    activeLaunches.incrementAndGet();
+                    try {
+                        rc.getMetrics().setQueueTime(System.nanoTime() - submitted);
+                        startProcess(rc);
+                        return rc;
+                    } finally {
+                        activeLaunches.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            queuedLaunches.decrementAndGet();
+            failedLaunches.incrementAndGet();
+            removeProcess(rc);
+            throw e;
+        }
+    }
+
+    /**
+     * Allocates a pid for the launch and registers its process.
+     */
+    private LocalProcess createLaunch(LaunchDescription launchDescription, String sourceRegistryPath, MeshProcessListener handler) throws Exception {
+        final LocalProcess rc;
         synchronized (this) {
-            if(!started) {
+            if (!started) {
                 throw new IllegalStateException("Agent is not started");
             }
             int pid = pidCounter++;
-
-            LocalProcess rc = createLocalProcess(launchDescription, handler, pid);
+            rc = createLocalProcess(launchDescription, handler, pid);
             rc.setOwnerRegistryPath(sourceRegistryPath);
             processes.put(pid, rc);
+            Set<LocalProcess> owned = processesByOwner.get(sourceRegistryPath);
+            if (owned == null) {
+                owned = new HashSet<LocalProcess>();
+                processesByOwner.put(sourceRegistryPath, owned);
+            }
+            owned.add(rc);
+        }
+        return rc;
+    }
+
+    private void startProcess(LocalProcess process) throws Exception {
+        try {
+            process.start();
+        } catch (Exception e) {
+            failedLaunches.incrementAndGet();
+            removeProcess(process);
+            throw e;
+        }
+
+        LaunchMetrics metrics = process.getMetrics();
+        phaseStats[LaunchAgentMetrics.QUEUE].add(metrics.getQueueTime());
+        phaseStats[LaunchAgentMetrics.BOOTSTRAP].add(metrics.getBootstrapTime());
+        phaseStats[LaunchAgentMetrics.EXEC].add(metrics.getExecTime());
+        phaseStats[LaunchAgentMetrics.REGISTRATION].add(metrics.getRegistrationTime());
+
+        //The agent may have been stopped while the process was launching, in
+        //which case it missed being killed:
+        boolean orphaned;
+        synchronized (this) {
+            orphaned = !started;
+        }
+        if (orphaned) {
+            process.kill();
+            throw new IllegalStateException("Agent stopped during launch");
+        }
+    }
+
+    private static LocalProcess waitForLaunch(Future<LocalProcess> launch) throws Exception {
+        try {
+            return launch.get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof Exception) {
+                throw (Exception) ee.getCause();
+            }
+            throw ee;
+        }
+    }
+
+    private static ExecutorService getLaunchExecutor() {
+        return ExecutorSupport.getExecutor(ExecutorSupport.LAUNCH);
+    }
+
+    public LaunchAgentMetrics getLaunchMetrics() {
+        LaunchAgentMetrics rc = new LaunchAgentMetrics();
+        rc.setQueueDepth(queuedLaunches.get());
+        rc.setActiveLaunches(activeLaunches.get());
+        rc.setMaxConcurrentLaunches(((ExecutorMetrics) getLaunchExecutor()).getPoolSize());
+        rc.setCompletedLaunches(phaseStats[LaunchAgentMetrics.QUEUE].count.get());
+        rc.setFailedLaunches(failedLaunches.get());
+        rc.setOutputDelivered(outputDelivered.get());
+        rc.setOutputDropped(outputDropped.get());
+        for (int i = 0; i < phaseStats.length; i++) {
+            rc.setTimes(i, phaseStats[i].average(), phaseStats[i].max.get());
+        }
+        return rc;
+    }
+
+    public AgentLoad getLoad() {
+        AgentLoad rc = new AgentLoad();
+        rc.setAgentId(getAgentId());
+        rc.setTimestamp(System.currentTimeMillis());
+        rc.setInterval(LOAD_INTERVAL);
+        rc.setNumProcessors(Runtime.getRuntime().availableProcessors());
+        rc.setCpuLoad(getOsStatistic("getSystemCpuLoad"));
+        rc.setLoadAverage(getOsStatistic("getSystemLoadAverage"));
+        rc.setFreeMemory((long) getOsStatistic("getFreePhysicalMemorySize"));
+        rc.setTotalMemory((long) getOsStatistic("getTotalPhysicalMemorySize"));
+        synchronized (this) {
+            rc.setProcessCount(processes.size());
+        }
+        rc.setPendingLaunches(queuedLaunches.get() + activeLaunches.get());
+        rc.setReservedPorts(PortReserver.getReservedCount(PortReserver.TCP));
+        return rc;
+    }
+
+    /**
+     * Reads a statistic from the platform's operating system bean, most of
+     * which are only available from the vendor's extension of it.
+     * 
+     * @return The statistic or -1 if it isn't available.
+     */
+    private static double getOsStatistic(String name) {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        //Call through the public interfaces, the implementation class usually
+        //isn't accessible:
+        for (Class<?> type : os.getClass().getInterfaces()) {
             try {
-                rc.start();
-            } catch (Exception e) {
-                processes.remove(pid);
-                throw e;
+                Method method = type.getMethod(name);
+                double rc = ((Number) method.invoke(os)).doubleValue();
+                return rc < 0 || Double.isNaN(rc) ? -1 : rc;
+            } catch (Throwable ignore) {
             }
+        }
+        return -1;
+    }
 
-            return rc.getProxy();
+    /**
+     * Replaces the agent's load in the registry in place, so that readers
+     * never find it missing.
+     */
+    void publishLoad() {
+        try {
+            meshKeeper.registry().updateRegistryObject(getLoadRegistryPath(), getLoad());
+        } catch (Exception e) {
+            LOG.debug("Error publishing load for " + getAgentId(), e);
         }
     }
 
@@ -152,6 +390,14 @@ public class LaunchAgent implements LaunchAgentService {
 
         monitor.start();
 
+        //Publish our properties ahead of the agent itself so that clients
+        //discovering the agent can read them from the registry:
+        try {
+            meshKeeper.registry().addRegistryObject(getPropertiesRegistryPath(), false, properties);
+        } catch (Exception e) {
+            LOG.warn("Error publishing host properties for " + getAgentId(), e);
+        }
+
         meshKeeper.distribute(getRegistryPath(), false, this);
 
         LOG.info("PROCESS LAUNCHER " + getAgentId() + " STARTED\n");
@@ -162,6 +408,14 @@ public class LaunchAgent implements LaunchAgentService {
         return LaunchAgent.LAUNCH_AGENT_REGISTRY_PATH + "/" + getAgentId();
     }
 
+    private String getPropertiesRegistryPath() {
+        return LaunchAgent.LAUNCH_AGENT_PROPERTIES_PATH + "/" + getAgentId();
+    }
+
+    private String getLoadRegistryPath() {
+        return LaunchAgent.LAUNCH_AGENT_LOAD_PATH + "/" + getAgentId();
+    }
+
     public void stop() throws Exception {
 
         ArrayList<LocalProcess> runningProcs = null;
@@ -180,6 +434,7 @@ public class LaunchAgent implements LaunchAgentService {
             runningProcs = new ArrayList<LocalProcess>(processes.values());
             
             processes.clear();
+            processesByOwner.clear();
         }
         
         for (LocalProcess process : runningProcs) {
@@ -194,6 +449,16 @@ public class LaunchAgent implements LaunchAgentService {
         monitor.stop();
 
         meshKeeper.undistribute(this);
+        try {
+            meshKeeper.registry().removeRegistryData(getPropertiesRegistryPath(), false);
+        } catch (Exception e) {
+            LOG.debug("Error removing host properties for " + getAgentId(), e);
+        }
+        try {
+            meshKeeper.registry().removeRegistryData(getLoadRegistryPath(), false);
+        } catch (Exception e) {
+            LOG.debug("Error removing load for " + getAgentId(), e);
+        }
 
         synchronized (this) {
             notifyAll();
@@ -209,10 +474,30 @@ public class LaunchAgent implements LaunchAgentService {
     /**
      * @param exitValue
      */
-    public synchronized void onProcessExit(LocalProcess process, int exitValue) {
+    /**
+     * Counts process output passed to, or dropped rather than passed to, the
+     * processes' listeners.
+     */
+    void onOutput(long delivered, long dropped) {
+        if (delivered > 0) {
+            outputDelivered.addAndGet(delivered);
+        }
+        if (dropped > 0) {
+            outputDropped.addAndGet(dropped);
+        }
+    }
+
+    public void onProcessExit(LocalProcess process, int exitValue) {
         LOG.info(process + " exited with: " + exitValue);
+        removeProcess(process);
+    }
+
+    private synchronized void removeProcess(LocalProcess process) {
         processes.remove(process.getPid());
-        
+        Set<LocalProcess> owned = processesByOwner.get(process.getOwnerRegistryPath());
+        if (owned != null && owned.remove(process) && owned.isEmpty()) {
+            processesByOwner.remove(process.getOwnerRegistryPath());
+        }
     }
     
     /**
@@ -284,41 +569,69 @@ public class LaunchAgent implements LaunchAgentService {
     }
 
     /**
-     * @param timeout
+     * Kills processes whose launch client is no longer in the registry.
+     * Launch clients known to be live from the registry watch aren't looked
+     * up, so this normally only goes to the registry for clients that
+     * launched before the watch reported them.
      */
     public void checkForRogueProcesses() {
-        ArrayList<LocalProcess> runningProcs = null;
+        ArrayList<String> owners;
         synchronized (this) {
-            runningProcs = new ArrayList<LocalProcess>(processes.size());
-            runningProcs.addAll(processes.values());
+            owners = new ArrayList<String>(processesByOwner.keySet());
         }
 
-        HashSet<String> deadLaunchers = new HashSet<String>();
-        HashSet<String> runningLaunchers = new HashSet<String>();
-        for (LocalProcess p : runningProcs) {
+        for (String owner : owners) {
+            if (!isLaunchClientLive(owner)) {
+                killProcesses(owner);
+            }
+        }
+    }
 
-            if (runningLaunchers.contains(runningLaunchers.contains(p.getOwnerRegistryPath()))) {
-                continue;
+    /**
+     * Releases ports reserved by launch clients that are no longer in the
+     * registry.
+     */
+    public void checkForAbandonedPorts() {
+        long now = System.currentTimeMillis();
+        for (String owner : PortReserver.getLeaseOwners(PortReserver.TCP)) {
+            if (!isLaunchClientLive(owner)) {
+                releasePorts(owner, now);
             }
+        }
+    }
 
-            if (!deadLaunchers.contains(p.getOwnerRegistryPath())) {
-                LaunchClientService launcher = null;
-                try {
-                    launcher = meshKeeper.registry().getRegistryObject(p.getOwnerRegistryPath());
-                } catch (Exception e) {
-                    LOG.warn("Error looking up LaunchClient: " + p.getOwnerRegistryPath(), e);
-                }
+    /**
+     * Cleans up after a launch client that has left the registry.
+     */
+    void onLaunchClientRemoved(String owner) {
+        killProcesses(owner);
+        releasePorts(owner, System.currentTimeMillis());
+    }
 
-                if (launcher != null) {
-                    //TODO how to do this with a reasonable timeout?
-                    //launcher.ping();
-                    runningLaunchers.add(p.getOwnerRegistryPath());
-                    continue;
-                } else {
-                    deadLaunchers.add(p.getOwnerRegistryPath());
-                }
+    private boolean isLaunchClientLive(String owner) {
+        if (launchClients.isTracked(owner) && launchClients.isLive(owner)) {
+            return true;
+        }
+
+        try {
+            return meshKeeper.registry().getRegistryObject(owner) != null;
+        } catch (Exception e) {
+            LOG.warn("Error looking up LaunchClient: " + owner, e);
+            return true;
+        }
+    }
+
+    private void killProcesses(String owner) {
+        ArrayList<LocalProcess> rogues;
+        synchronized (this) {
+            Set<LocalProcess> owned = processesByOwner.get(owner);
+            if (owned == null) {
+                return;
             }
+            rogues = new ArrayList<LocalProcess>(owned);
+        }
 
+        for (LocalProcess p : rogues) {
             LOG.warn("Killing rogue process:  " + p);
             try {
                 p.kill();
@@ -326,16 +639,46 @@ public class LaunchAgent implements LaunchAgentService {
                 LOG.error("", e);
             }
         }
+    }
+
+    private void releasePorts(String owner, long grantedBefore) {
+        int released = PortReserver.expireLeases(PortReserver.TCP, owner, grantedBefore);
+        if (released > 0) {
+            LOG.info("Released " + released + " ports reserved by dead launch client: " + owner);
+        }
+    }
+
+    /**
+     * Accumulates the time launches spent in a phase.
+     */
+    private static class PhaseStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long time) {
+            count.incrementAndGet();
+            total.addAndGet(time);
+            long current = max.get();
+            while (time > current && !max.compareAndSet(current, time)) {
+                current = max.get();
+            }
+        }
 
+        long average() {
+            long c = count.get();
+            return c == 0 ? 0 : total.get() / c;
+        }
     }
 
-    private class Monitor implements Runnable, RegistryWatcher {
+    private class Monitor implements Runnable, LaunchClientIndex.Listener {
         Log log = LogFactory.getLog(this.getClass());
         private final LaunchAgent processLauncher;
 
         Thread thread;
         private String tempDirectory;
         private boolean cleanupRequested = false;
+        private final ArrayList<String> removedClients = new ArrayList<String>();
 
         public Monitor(LaunchAgent processLauncher) {
             this.processLauncher = processLauncher;
@@ -345,14 +688,14 @@ public class LaunchAgent implements LaunchAgentService {
             tempDirectory = processLauncher.getDirectory() + File.separator + processLauncher.getAgentId() + File.separator + "temp";
             thread = new Thread(this, processLauncher.getAgentId() + "-Process Monitor");
             thread.start();
-            processLauncher.getMeshKeeper().registry().addRegistryWatcher(MeshKeeper.Launcher.LAUNCHER_REGISTRY_PATH, this);
+            processLauncher.getMeshKeeper().registry().addRegistryWatcher(launchClients.getPath(), launchClients);
         }
 
         
         public void stop() throws Exception{
             thread.interrupt();
             try {
-                processLauncher.getMeshKeeper().registry().removeRegistryWatcher(MeshKeeper.Launcher.LAUNCHER_REGISTRY_PATH, this);
+                processLauncher.getMeshKeeper().registry().removeRegistryWatcher(launchClients.getPath(), launchClients);
                 thread.join();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -360,22 +703,50 @@ public class LaunchAgent implements LaunchAgentService {
         }
 
         public void run() {
+            long lastSweep = System.currentTimeMillis();
+            long nextPublish = 0;
             while (true) {
+                ArrayList<String> removed;
+                boolean cleanup;
+                boolean interrupted = false;
                 synchronized (this) {
                     try {
-                        wait(LaunchAgent.CLEANUP_TIMEOUT);
+                        long remaining = Math.min(lastSweep + LaunchAgent.CLEANUP_TIMEOUT, nextPublish) - System.currentTimeMillis();
+                        if (removedClients.isEmpty() && !cleanupRequested && remaining > 0) {
+                            wait(remaining);
+                        }
                     } catch (InterruptedException ie) {
+                        interrupted = true;
                         cleanupRequested = true;
-                        return;
-                    } finally {
-                        processLauncher.checkForRogueProcesses();
-                        if (cleanupRequested) {
-                            cleanUpTempFiles();
-                            cleanupRequested = false;
-                        }
                     }
+                    removed = new ArrayList<String>(removedClients);
+                    removedClients.clear();
+                    cleanup = cleanupRequested;
+                    cleanupRequested = false;
                 }
 
+                for (String owner : removed) {
+                    processLauncher.onLaunchClientRemoved(owner);
+                }
+
+                if (!interrupted && System.currentTimeMillis() >= nextPublish) {
+                    processLauncher.publishLoad();
+                    nextPublish = System.currentTimeMillis() + LaunchAgent.LOAD_INTERVAL;
+                }
+
+                //Periodically catch anything the watch missed:
+                if (interrupted || System.currentTimeMillis() - lastSweep >= LaunchAgent.CLEANUP_TIMEOUT) {
+                    processLauncher.checkForRogueProcesses();
+                    processLauncher.checkForAbandonedPorts();
+                    lastSweep = System.currentTimeMillis();
+                }
+
+                if (cleanup) {
+                    cleanUpTempFiles();
+                }
+                if (interrupted) {
+                    return;
+                }
             }
         }
 
@@ -405,11 +776,14 @@ public class LaunchAgent implements LaunchAgentService {
             notify();
         }
 
-        public void onChildrenChanged(String path, List<String> children) {
-            if(log.isDebugEnabled()) {
-                log.debug("Detected launcher change: " + children.toString());
+        public synchronized void onLaunchClientRemoved(String ownerRegistryPath) {
+            if (log.isDebugEnabled()) {
+                log.debug("Detected launch client removal: " + ownerRegistryPath);
             }
-            checkForRogueProcesses();
+            //Processes are killed from the monitor thread, a kill waits for
+            //the process to exit:
+            removedClients.add(ownerRegistryPath);
+            notify();
         }
     }
 }
\ No newline at end of file
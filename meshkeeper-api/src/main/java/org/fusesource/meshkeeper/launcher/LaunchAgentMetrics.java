@@ -0,0 +1,170 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.io.Serializable;
+
+/**
+ * LaunchAgentMetrics
+ * <p>
+ * Description: A snapshot of a {@link LaunchAgentService}'s launch pipeline:
+ * how many launches are queued or running and the average and longest time
+ * launches spent in each phase, see
+ * {@link org.fusesource.meshkeeper.LaunchMetrics}, along with how much of
+ * its processes' output reached their listeners. Times are in nanoseconds
+ * and, like the output counts, cover everything since the agent started.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LaunchAgentMetrics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int QUEUE = 0;
+    public static final int BOOTSTRAP = 1;
+    public static final int EXEC = 2;
+    public static final int REGISTRATION = 3;
+    static final String[] PHASES = new String[] { "queue", "bootstrap", "exec", "registration" };
+
+    private int queueDepth;
+    private int activeLaunches;
+    private int maxConcurrentLaunches;
+    private long completedLaunches;
+    private long failedLaunches;
+    private long outputDelivered;
+    private long outputDropped;
+    private final long[] averageTimes = new long[PHASES.length];
+    private final long[] maxTimes = new long[PHASES.length];
+
+    /**
+     * @return The number of launches waiting for a free launch slot.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return The number of launches in progress.
+     */
+    public int getActiveLaunches() {
+        return activeLaunches;
+    }
+
+    public void setActiveLaunches(int activeLaunches) {
+        this.activeLaunches = activeLaunches;
+    }
+
+    /**
+     * @return The number of launches the agent runs at once.
+     */
+    public int getMaxConcurrentLaunches() {
+        return maxConcurrentLaunches;
+    }
+
+    public void setMaxConcurrentLaunches(int maxConcurrentLaunches) {
+        this.maxConcurrentLaunches = maxConcurrentLaunches;
+    }
+
+    /**
+     * @return The number of processes launched.
+     */
+    public long getCompletedLaunches() {
+        return completedLaunches;
+    }
+
+    public void setCompletedLaunches(long completedLaunches) {
+        this.completedLaunches = completedLaunches;
+    }
+
+    /**
+     * @return The number of launches that failed.
+     */
+    public long getFailedLaunches() {
+        return failedLaunches;
+    }
+
+    public void setFailedLaunches(long failedLaunches) {
+        this.failedLaunches = failedLaunches;
+    }
+
+    /**
+     * @return The number of bytes of process output delivered to process
+     *         listeners.
+     */
+    public long getOutputDelivered() {
+        return outputDelivered;
+    }
+
+    public void setOutputDelivered(long outputDelivered) {
+        this.outputDelivered = outputDelivered;
+    }
+
+    /**
+     * @return The number of bytes of process output dropped because a
+     *         listener fell too far behind, see
+     *         <code>meshkeeper.process.output.drop</code>.
+     */
+    public long getOutputDropped() {
+        return outputDropped;
+    }
+
+    public void setOutputDropped(long outputDropped) {
+        this.outputDropped = outputDropped;
+    }
+
+    /**
+     * @param phase
+     *            One of {@link #QUEUE}, {@link #BOOTSTRAP}, {@link #EXEC} or
+     *            {@link #REGISTRATION}.
+     * @return The average time successful launches spent in the phase.
+     */
+    public long getAverageTime(int phase) {
+        return averageTimes[phase];
+    }
+
+    /**
+     * @param phase
+     *            One of {@link #QUEUE}, {@link #BOOTSTRAP}, {@link #EXEC} or
+     *            {@link #REGISTRATION}.
+     * @return The longest time a successful launch spent in the phase.
+     */
+    public long getMaxTime(int phase) {
+        return maxTimes[phase];
+    }
+
+    public void setTimes(int phase, long average, long max) {
+        averageTimes[phase] = average;
+        maxTimes[phase] = max;
+    }
+
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("queued=").append(queueDepth).append(" active=").append(activeLaunches).append("/").append(maxConcurrentLaunches);
+        buf.append(" completed=").append(completedLaunches).append(" failed=").append(failedLaunches);
+        buf.append(" output(delivered/dropped)=").append(outputDelivered).append("/").append(outputDropped);
+        for (int i = 0; i < PHASES.length; i++) {
+            buf.append(" ").append(PHASES[i]).append("(avg/max)=").append(averageTimes[i] / 1000000).append("/").append(maxTimes[i] / 1000000).append("ms");
+        }
+        return buf.toString();
+    }
+}
@@ -19,6 +19,7 @@ package org.fusesource.meshkeeper.launcher;
 import java.util.Collection;
 import java.util.List;
 
+import org.fusesource.meshkeeper.AgentLoad;
 import org.fusesource.meshkeeper.Distributable;
 import org.fusesource.meshkeeper.HostProperties;
 import org.fusesource.meshkeeper.LaunchDescription;
@@ -49,6 +50,19 @@ public interface LaunchAgentService extends Distributable {
      */
     public static final String PROCESS_REGISTRY_PATH = Registry.MESH_KEEPER_ROOT + "/processes";
     
+    /**
+     * Specifies the registry prefix where launch agents publish their
+     * {@link HostProperties}, keyed by agent id, so that they can be 
+     * discovered without calling the agent. 
+     */
+    public static final String LAUNCH_AGENT_PROPERTIES_PATH = Registry.MESH_KEEPER_ROOT + "/launch-agent-properties";
+    
+    /**
+     * Specifies the registry prefix where launch agents periodically publish
+     * their {@link AgentLoad}, keyed by agent id, for launch scheduling. 
+     */
+    public static final String LAUNCH_AGENT_LOAD_PATH = Registry.MESH_KEEPER_ROOT + "/launch-agent-load";
+    
     public void bind(String owner) throws Exception;
 
     public void unbind(String owner) throws Exception;
@@ -61,6 +75,19 @@ public interface LaunchAgentService extends Distributable {
      * @throws Exception If the specified number of ports could not be reserved. 
      */
     public List<Integer> reserveTcpPorts(int count) throws Exception;
+
+    /**
+     * Request that the agent reserve the specified number of ports on behalf
+     * of a {@link LaunchClientService}. The reservation is released by the
+     * agent if the owner's registry path goes away.
+     * 
+     * @param owner The registry path of the launch client reserving the ports.
+     * @param count The number of ports
+     * @param contiguous Whether the ports must form a single consecutive range.
+     * @return A list of free ports on the agent, in ascending order if contiguous. 
+     * @throws Exception If the specified number of ports could not be reserved. 
+     */
+    public List<Integer> reserveTcpPorts(String owner, int count, boolean contiguous) throws Exception;
     
     /**
      * Release a list of previously reserved ports.
@@ -80,5 +107,27 @@ public interface LaunchAgentService extends Distributable {
      */
     public MeshProcess launch(LaunchDescription launchDescription, String sourceRegistryPath, MeshProcessListener listener) throws Exception;
 
+    /**
+     * Launches a batch of processes in a single call. The launches are
+     * independent, a failed launch doesn't affect the others.
+     * 
+     * @param launchDescriptions The launch descriptions
+     * @param sourceRegistryPath The launch client
+     * @param listeners The process listeners, one per launch description
+     * @return A result for each launch description, in the same order.
+     * @throws Exception If the batch couldn't be launched at all.
+     */
+    public List<LaunchResult> launch(List<LaunchDescription> launchDescriptions, String sourceRegistryPath, List<MeshProcessListener> listeners) throws Exception;
+
     public HostProperties getHostProperties() throws Exception;
+
+    /**
+     * @return A snapshot of the agent's launch queue and launch phase timings.
+     */
+    public LaunchAgentMetrics getLaunchMetrics() throws Exception;
+
+    /**
+     * @return The current load on the agent's host.
+     */
+    public AgentLoad getLoad() throws Exception;
 }
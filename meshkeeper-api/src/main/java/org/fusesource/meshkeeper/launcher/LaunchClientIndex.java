@@ -0,0 +1,125 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+
+/**
+ * LaunchClientIndex
+ * <p>
+ * Description: Tracks which launch clients are registered under a registry
+ * path from the path's watch notifications, so that a launch agent can tell
+ * whether the owner of a process or port reservation is still around without
+ * going to the registry. Owners that go away are passed to the
+ * {@link Listener}.
+ * </p>
+ * <p>
+ * Until the first notification arrives nothing is known about the clients,
+ * and owners that aren't under the watched path aren't tracked at all;
+ * {@link #isTracked(String)} tells callers when they need to look an owner up
+ * themselves.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+class LaunchClientIndex implements RegistryDeltaWatcher {
+
+    interface Listener {
+        /**
+         * Called from the registry's notification thread when a launch
+         * client leaves the registry.
+         */
+        public void onLaunchClientRemoved(String ownerRegistryPath);
+    }
+
+    private final String path;
+    private final Listener listener;
+    private final Set<String> clients = new HashSet<String>();
+    private final ConcurrentHashMap<String, Boolean> live = new ConcurrentHashMap<String, Boolean>();
+    private volatile boolean initialized;
+
+    LaunchClientIndex(String path, Listener listener) {
+        this.path = path;
+        this.listener = listener;
+    }
+
+    /**
+     * @return The watched path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return true if the owner's liveness is known from the index.
+     */
+    public boolean isTracked(String ownerRegistryPath) {
+        return initialized && ownerRegistryPath != null && ownerRegistryPath.startsWith(path + "/") && ownerRegistryPath.indexOf('/', path.length() + 1) < 0;
+    }
+
+    /**
+     * @return true if the owner is registered. Only meaningful for owners
+     *         that are {@link #isTracked(String) tracked}.
+     */
+    public boolean isLive(String ownerRegistryPath) {
+        return live.containsKey(ownerRegistryPath);
+    }
+
+    public void onChildrenChanged(String path, List<String> children) {
+        List<String> removed;
+        List<String> added = new ArrayList<String>();
+        synchronized (this) {
+            removed = new ArrayList<String>(clients);
+            removed.removeAll(children);
+            for (String child : children) {
+                if (!clients.contains(child)) {
+                    added.add(child);
+                }
+            }
+        }
+        onChildrenChanged(path, added, removed);
+    }
+
+    public void onChildrenChanged(String path, List<String> added, List<String> removed) {
+        synchronized (this) {
+            for (String child : added) {
+                clients.add(child);
+                live.put(this.path + "/" + child, Boolean.TRUE);
+            }
+            for (String child : removed) {
+                clients.remove(child);
+                live.remove(this.path + "/" + child);
+            }
+            initialized = true;
+        }
+
+        for (String child : removed) {
+            listener.onLaunchClientRemoved(this.path + "/" + child);
+        }
+    }
+
+    public String toString() {
+        return path + ": " + live.keySet();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.io.Serializable;
+
+import org.fusesource.meshkeeper.LaunchMetrics;
+import org.fusesource.meshkeeper.MeshProcess;
+
+/**
+ * LaunchResult
+ * <p>
+ * Description: The outcome of one launch in a batch sent to a
+ * {@link LaunchAgentService}, either the launched process or the error that
+ * prevented it from launching.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LaunchResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final MeshProcess process;
+    private final Exception error;
+    private final LaunchMetrics metrics;
+
+    public LaunchResult(MeshProcess process, LaunchMetrics metrics) {
+        this.process = process;
+        this.error = null;
+        this.metrics = metrics;
+    }
+
+    public LaunchResult(Exception error) {
+        this.process = null;
+        this.error = error;
+        this.metrics = null;
+    }
+
+    /**
+     * @return The launched process or null if the launch failed.
+     */
+    public MeshProcess getProcess() {
+        return process;
+    }
+
+    /**
+     * @return The reason the launch failed or null if it succeeded.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public LaunchMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -20,25 +20,65 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.fusesource.meshkeeper.Expression;
+import org.fusesource.meshkeeper.IndependentLaunchTask;
 import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.LaunchMetrics;
 import org.fusesource.meshkeeper.LaunchTask;
 import org.fusesource.meshkeeper.MeshProcess;
 import org.fusesource.meshkeeper.MeshProcessListener;
 import org.fusesource.meshkeeper.MeshKeeper.DistributionRef;
+import org.fusesource.meshkeeper.util.LineMatcher;
+import org.fusesource.meshkeeper.util.OutputFilter;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 import org.fusesource.meshkeeper.util.internal.ProcessSupport;
 
 /**
+ * A process launched by a {@link LaunchAgent}.
+ * <p>
+ * Output is streamed to the process listener in chunks of up to 64k.
+ * <code>meshkeeper.process.output.coalesce</code> (default 20) is how many
+ * milliseconds flushed output is held so that it can be sent with output
+ * that follows it, -1 sends each flush directly from the pump as before.
+ * When more than <code>meshkeeper.process.output.limit</code> (default 1MB)
+ * bytes are waiting to be sent to the listener the process' output is left
+ * in its pipe, holding up the process but not the output pump, or dropped if
+ * <code>meshkeeper.process.output.drop</code> is true.
+ * <p>
+ * Consecutive {@link IndependentLaunchTask}s run concurrently, with at most
+ * <code>meshkeeper.launcher.taskThreads</code> (default the larger of 4 and
+ * the number of processors) helper threads across all of the agent's
+ * launches.
+ * 
  * @version $Revision: 1.1 $
  */
 public class LocalProcess implements MeshProcess{
 
+    private static final long OUTPUT_COALESCE = Long.getLong("meshkeeper.process.output.coalesce", 20);
+    private static final int OUTPUT_LIMIT = Math.max(1024, Integer.getInteger("meshkeeper.process.output.limit", 1024 * 1024));
+    private static final boolean OUTPUT_DROP = Boolean.getBoolean("meshkeeper.process.output.drop");
+    //Delivery waits on the listener's remote calls:
+    private static final ExecutorService OUTPUT_EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.REMOTING);
+    //Helper threads for independent pre-launch tasks, shared by all launches:
+    private static final ExecutorService TASK_EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.REMOTING);
+    private static final Semaphore TASK_HELPERS = new Semaphore(Math.max(0, Integer.getInteger("meshkeeper.launcher.taskThreads", Math.max(4, Runtime.getRuntime().availableProcessors()))));
+
     Log log = LogFactory.getLog(this.getClass());
     int FD_STD_IN = 0;
     int FD_STD_OUT = 1;
@@ -57,6 +97,12 @@ public class LocalProcess implements MeshProcess{
     Properties processProperties;
     private String ownerRegistryPath;
     private DistributionRef<MeshProcess> distributionRef;
+    private OutputHandler outHandler;
+    private OutputHandler errHandler;
+    private final LaunchMetrics metrics = new LaunchMetrics();
+    private long outputCoalesce = OUTPUT_COALESCE;
+    private int outputLimit = OUTPUT_LIMIT;
+    private boolean outputDrop = OUTPUT_DROP;
 
     public LocalProcess(LaunchAgent processLauncher, LaunchDescription ld, MeshProcessListener listener, int pid) {
         this.processLauncher = processLauncher;
@@ -108,10 +154,10 @@ public class LocalProcess implements MeshProcess{
             throw new Exception("LaunchDescription command empty.");
         }
 
+        long begin = System.nanoTime();
+
         // Resolve resources (copy them locally:
-        for (LaunchTask task : ld.getPreLaunchTasks()) {
-            task.execute(this);
-        }
+        runPreLaunchTasks();
 
         if (log.isDebugEnabled()) {
             log.debug("Evaluating launch command with properties: " + processProperties);
@@ -145,6 +191,9 @@ public class LocalProcess implements MeshProcess{
             listener.onProcessInfo(msg);
         }
 
+        metrics.setBootstrapTime(System.nanoTime() - begin);
+        begin = System.nanoTime();
+
         //Launch:
         synchronized (mutex) {
             process = Runtime.getRuntime().exec(cmdArray, env, workingDirectory);
@@ -154,21 +203,155 @@ public class LocalProcess implements MeshProcess{
 
             running.set(true);
             os = process.getOutputStream();
-            ProcessSupport.watch("" + pid, process, new OutputHandler(FD_STD_OUT), new OutputHandler(FD_STD_ERR), new Runnable() {
+            outHandler = new OutputHandler(FD_STD_OUT);
+            errHandler = new OutputHandler(FD_STD_ERR);
+            OutputStream out = outHandler;
+            OutputStream err = errHandler;
+            if (ld.getOutputFilter() != null) {
+                AtomicLong matches = new AtomicLong();
+                out = new FilteredOutput(FD_STD_OUT, ld.getOutputFilter(), outHandler, matches);
+                err = new FilteredOutput(FD_STD_ERR, ld.getOutputFilter(), errHandler, matches);
+            }
+            ProcessSupport.watch("" + pid, process, out, err, new Runnable() {
                 public void run() {
+                    //Wait for the output to be delivered so that the exit
+                    //event follows it:
+                    outHandler.awaitDelivery();
+                    errHandler.awaitDelivery();
                     int exitValue = process.exitValue();
                     onExit(exitValue);
                 }
             });
         }
 
+        metrics.setExecTime(System.nanoTime() - begin);
+        begin = System.nanoTime();
+
         //Register the process:
         String regPath = LaunchAgentService.PROCESS_REGISTRY_PATH + "/" + processLauncher.getAgentId() + "/" + ownerRegistryPath.substring(1 + ownerRegistryPath.lastIndexOf("/"));
         distributionRef = processLauncher.getMeshKeeper().distribute(regPath + "/pid-" + pid, false, (MeshProcess) this, MeshProcess.class);
+        metrics.setRegistrationTime(System.nanoTime() - begin);
+    }
+
+    /**
+     * Runs the pre-launch tasks, running consecutive
+     * {@link IndependentLaunchTask}s concurrently.
+     */
+    void runPreLaunchTasks() throws Exception {
+        List<LaunchTask> tasks = ld.getPreLaunchTasks();
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        long begin = System.nanoTime();
+        Long[] times = new Long[tasks.size()];
+        try {
+            for (int start = 0; start < tasks.size();) {
+                int end = start + 1;
+                if (tasks.get(start) instanceof IndependentLaunchTask) {
+                    while (end < tasks.size() && tasks.get(end) instanceof IndependentLaunchTask) {
+                        end++;
+                    }
+                }
+                runConcurrently(tasks, start, end, times);
+                start = end;
+            }
+        } finally {
+            //Recorded in task order, keyed by position as tasks needn't
+            //have distinct names:
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] != null) {
+                    metrics.addTaskTime(i + ": " + tasks.get(i), times[i]);
+                }
+            }
+        }
+
+        if (listener != null) {
+            StringBuilder msg = new StringBuilder("Pre-launch tasks took " + (System.nanoTime() - begin) / 1000000 + "ms [pid = " + pid + "]:");
+            for (Map.Entry<String, Long> entry : metrics.getTaskTimes().entrySet()) {
+                msg.append(" ").append(entry.getKey()).append("=").append(entry.getValue() / 1000000).append("ms");
+            }
+            listener.onProcessInfo(msg.toString());
+        }
+    }
+
+    /**
+     * Runs tasks start to end, returning once all are done. The calling
+     * thread works through them and is joined by as many helpers on the
+     * remoting executor, since the tasks mostly wait on downloads, as
+     * {@link #TASK_HELPERS} has permits left. The permits are shared by all
+     * launches and never waited for, so launches can't deadlock on them.
+     * Once a task fails no more are started.
+     */
+    private void runConcurrently(final List<LaunchTask> tasks, int start, final int end, final Long[] times) throws Exception {
+        final AtomicInteger next = new AtomicInteger(start);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final Callable<Object> worker = new Callable<Object>() {
+            public Object call() throws Exception {
+                for (int i = next.getAndIncrement(); i < end && !failed.get(); i = next.getAndIncrement()) {
+                    long begin = System.nanoTime();
+                    try {
+                        tasks.get(i).execute(LocalProcess.this);
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        times[i] = System.nanoTime() - begin;
+                    }
+                }
+                return null;
+            }
+        };
+
+        ArrayList<Future<Object>> helpers = new ArrayList<Future<Object>>();
+        for (int i = start + 1; i < end && TASK_HELPERS.tryAcquire(); i++) {
+            helpers.add(TASK_EXECUTOR.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        return worker.call();
+                    } finally {
+                        TASK_HELPERS.release();
+                    }
+                }
+            }));
+        }
+
+        Exception error = null;
+        try {
+            worker.call();
+        } catch (Exception e) {
+            error = e;
+        }
+
+        //Wait for all of them so that none outlive a failed launch:
+        for (Future<Object> helper : helpers) {
+            try {
+                helper.get();
+            } catch (ExecutionException ee) {
+                if (error == null) {
+                    error = ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return The timings of the agent side launch phases, filled in by
+     *         {@link #start()}.
+     */
+    public LaunchMetrics getMetrics() {
+        return metrics;
     }
 
     protected void onExit(int exitValue) {
         if (running.compareAndSet(true, false)) {
+            if (log.isDebugEnabled()) {
+                log.debug(this + " output delivered: " + getDeliveredBytes(FD_STD_OUT) + "/" + getDeliveredBytes(FD_STD_ERR) + " dropped: " + getDroppedBytes(FD_STD_OUT) + "/"
+                        + getDroppedBytes(FD_STD_ERR));
+            }
             if (listener != null) {
                 listener.onProcessExit(exitValue);
             }
@@ -232,11 +415,127 @@ public class LocalProcess implements MeshProcess{
         }
     }
 
-    // handle output or error data
-    private class OutputHandler extends OutputStream {
+    /**
+     * @return The number of bytes of output delivered to the listener on the
+     *         given fd.
+     */
+    public long getDeliveredBytes(int fd) {
+        OutputHandler handler = getOutputHandler(fd);
+        return handler == null ? 0 : handler.delivered.get();
+    }
+
+    /**
+     * @return The number of bytes of output dropped on the given fd because
+     *         the listener fell too far behind.
+     */
+    public long getDroppedBytes(int fd) {
+        OutputHandler handler = getOutputHandler(fd);
+        return handler == null ? 0 : handler.dropped.get();
+    }
+
+    /**
+     * Overrides the <code>meshkeeper.process.output</code> settings for this
+     * process, must be called before it is started.
+     */
+    void setOutputHandling(long coalesce, int limit, boolean drop) {
+        this.outputCoalesce = coalesce;
+        this.outputLimit = Math.max(1024, limit);
+        this.outputDrop = drop;
+    }
+
+    private OutputHandler getOutputHandler(int fd) {
+        if (fd == FD_STD_OUT) {
+            return outHandler;
+        } else if (fd == FD_STD_ERR) {
+            return errHandler;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the launch's {@link OutputFilter} to a stream on its way to the
+     * {@link OutputHandler}, passing on only matched lines. The match limit is
+     * shared by the process' streams.
+     */
+    private class FilteredOutput extends OutputStream implements LineMatcher.Handler, ProcessSupport.FlowControl {
         private final int fd;
-        private final static int MAX_CHUNK_SIZE = 8 * 1024;
+        private final OutputFilter filter;
+        private final LineMatcher matcher;
+        private final OutputStream next;
+        private final AtomicLong matches;
+
+        FilteredOutput(int fd, OutputFilter filter, OutputStream next, AtomicLong matches) {
+            this.fd = fd;
+            this.filter = filter;
+            this.matcher = filter.createMatcher();
+            this.next = next;
+            this.matches = matches;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            matcher.write(b, off, len, this);
+        }
+
+        public void onMatch(String line, byte[] data, int offset, int length) {
+            if (filter.isCountOnly() || (filter.getMaxMatches() >= 0 && matches.incrementAndGet() > filter.getMaxMatches())) {
+                return;
+            }
+            try {
+                //Forward the bytes as output rather than re-encoding the line:
+                next.write(data, offset, length);
+                next.write('\n');
+            } catch (IOException e) {
+                if (log.isDebugEnabled())
+                    log.debug("Error writing output of " + LocalProcess.this, e);
+            }
+        }
+
+        public boolean isFull() {
+            return next instanceof ProcessSupport.FlowControl && ((ProcessSupport.FlowControl) next).isFull();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            next.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            matcher.flush(this);
+            next.close();
+            if (filter.isCountOnly() && listener != null) {
+                listener.onProcessInfo("Output filter matched " + matcher.getMatchCount() + " of " + matcher.getLineCount() + " lines from fd " + fd + " [pid = " + pid + "]");
+            }
+        }
+    }
+
+    /**
+     * Handles output or error data. Output is collected until it reaches
+     * MAX_CHUNK_SIZE or the stream is flushed and is then delivered to the
+     * listener from the remoting executor so a slow listener doesn't hold
+     * up the pump or other users of the default executor. Once flushed, output is held for up to OUTPUT_COALESCE
+     * milliseconds so that several flushes go out in one call. When more than
+     * OUTPUT_LIMIT bytes are waiting for the listener the writer is blocked
+     * or, if OUTPUT_DROP is set, the output is dropped and counted.
+     */
+    private class OutputHandler extends OutputStream implements Runnable, ProcessSupport.FlowControl {
+        private final int fd;
+        private final static int MAX_CHUNK_SIZE = 64 * 1024;
         private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_CHUNK_SIZE);
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        //Guarded by this:
+        private byte[] pending = new byte[1024];
+        private int pendingCount;
+        private boolean scheduled;
+        private boolean delivering;
+        private boolean closed;
 
         public OutputHandler(int fd) {
             this.fd = fd;
@@ -244,27 +543,150 @@ public class LocalProcess implements MeshProcess{
 
         @Override
         public void write(int b) throws IOException {
-            buffer.write(b);
-            if (buffer.size() >= MAX_CHUNK_SIZE) {
-                flush();
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (outputCoalesce < 0) {
+                buffer.write(b, off, len);
+                if (buffer.size() >= MAX_CHUNK_SIZE) {
+                    flush();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                //Writes come from the output pump and never wait, when not
+                //dropping the pump stops reading while we're full:
+                if (outputDrop) {
+                    int accepted = Math.max(0, Math.min(len, outputLimit - pendingCount));
+                    if (accepted < len) {
+                        dropped.addAndGet(len - accepted);
+                        processLauncher.onOutput(0, len - accepted);
+                        len = accepted;
+                    }
+                }
+
+                if (pendingCount + len > pending.length) {
+                    byte[] grown = new byte[Math.max(pending.length * 2, pendingCount + len)];
+                    System.arraycopy(pending, 0, grown, 0, pendingCount);
+                    pending = grown;
+                }
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+
+                if (pendingCount >= Math.min(MAX_CHUNK_SIZE, outputLimit)) {
+                    schedule(0);
+                }
             }
         }
 
         @Override
         public void flush() throws IOException {
-            if (buffer.size() > 0) {
-                if (listener != null) {
-                    listener.onProcessOutput(fd, buffer.toByteArray());
+            if (outputCoalesce < 0) {
+                if (buffer.size() > 0) {
+                    deliver(buffer.toByteArray());
+                    buffer.reset();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                if (pendingCount > 0) {
+                    schedule(outputCoalesce);
                 }
-                buffer.reset();
             }
         }
 
+        public synchronized boolean isFull() {
+            return !outputDrop && pendingCount >= outputLimit;
+        }
+
         @Override
         public void close() throws IOException {
             flush();
+            synchronized (this) {
+                closed = true;
+                if (pendingCount > 0) {
+                    schedule(0);
+                }
+            }
+            if (dropped.get() > 0) {
+                String msg = "Dropped " + dropped.get() + " bytes of output from fd " + fd + " [pid = " + pid + "]";
+                log.warn(msg);
+                if (listener != null) {
+                    listener.onProcessInfo(msg);
+                }
+            }
             super.close();
         }
+
+        /**
+         * Waits for the output written so far to be delivered. Not called
+         * from the output pump.
+         */
+        synchronized void awaitDelivery() {
+            while (pendingCount > 0 || delivering) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void schedule(long delay) {
+            if (scheduled || delivering) {
+                return;
+            }
+            scheduled = true;
+            if (delay > 0 && !closed) {
+                //The scheduler only times the delay:
+                processLauncher.getMeshKeeper().getExecutorService().schedule(new Runnable() {
+                    public void run() {
+                        OUTPUT_EXECUTOR.execute(OutputHandler.this);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                OUTPUT_EXECUTOR.execute(this);
+            }
+        }
+
+        public void run() {
+            while (true) {
+                byte[] chunk;
+                synchronized (this) {
+                    scheduled = false;
+                    if (pendingCount == 0) {
+                        delivering = false;
+                        notifyAll();
+                        return;
+                    }
+                    delivering = true;
+                    int count = Math.min(pendingCount, MAX_CHUNK_SIZE);
+                    chunk = new byte[count];
+                    System.arraycopy(pending, 0, chunk, 0, count);
+                    System.arraycopy(pending, count, pending, 0, pendingCount - count);
+                    pendingCount -= count;
+                }
+                deliver(chunk);
+            }
+        }
+
+        private void deliver(byte[] chunk) {
+            if (listener != null) {
+                try {
+                    listener.onProcessOutput(fd, chunk);
+                } catch (Throwable e) {
+                    if (log.isDebugEnabled())
+                        log.debug("Error delivering output of " + LocalProcess.this, e);
+                }
+            }
+            delivered.addAndGet(chunk.length);
+            processLauncher.onOutput(chunk.length, 0);
+        }
     }
     
     public String toString() {
@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +36,7 @@ import org.fusesource.meshkeeper.MeshContainer.Callable;
 import org.fusesource.meshkeeper.MeshContainer.Hostable;
 import org.fusesource.meshkeeper.MeshContainer.MeshContainerContext;
 import org.fusesource.meshkeeper.MeshContainer.Runnable;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
 
 /**
  * MeshContainer
@@ -44,16 +47,21 @@ import org.fusesource.meshkeeper.MeshContainer.Runnable;
  * @author cmacnaug
  * @version 1.0
  */
-public class MeshContainer implements MeshContainerService, MeshContainerContext {
+public class MeshContainer implements AsyncMeshContainerService, MeshContainerContext {
 
     private static MeshKeeper mesh;
     private static final Log LOG = LogFactory.getLog(MeshContainer.class);
     private static boolean isInMeshContainer = false;
 
+    //Runs tasks submitted to the container, by default each on its own
+    //thread so that long running tasks don't hold up others:
+    private static final ExecutorService TASK_EXECUTOR = ExecutorSupport.getExecutor(ExecutorSupport.CONTAINER);
+
     private HashMap<String, Object> hosted = new HashMap<String, Object>();
     private String name;
 
     private CountDownLatch closeLatch = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
 
     private MeshContainer(String name) {
         this.name = name;
@@ -90,7 +98,7 @@ public class MeshContainer implements MeshContainerService, MeshContainerContext
 
     public synchronized void unhost(String name) throws Exception {
 
-        Object d = hosted.get(name);
+        Object d = hosted.remove(name);
         if (d != null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug(this + " Hosting: " + name + ":" + d);
@@ -111,30 +119,101 @@ public class MeshContainer implements MeshContainerService, MeshContainerContext
      * @throws Exception
      */
     public <R extends java.lang.Runnable & Serializable> void run(final R r) throws Exception {
-        java.lang.Runnable wrapper = r;
-
         //Handle Hostables
-        if (r instanceof Hostable) {
+        final boolean hostable = r instanceof Hostable;
+        if (hostable) {
             initializeObject(r);
-            wrapper = new java.lang.Runnable() {
+        }
 
+        running.incrementAndGet();
+        try {
+            TASK_EXECUTOR.execute(new java.lang.Runnable() {
                 public void run() {
                     try {
                         r.run();
                     } finally {
+                        running.decrementAndGet();
+                        if (hostable) {
+                            try {
+                                destroyObject(r);
+                            } catch (Exception e) {
+                                LOG.warn("Runnable destroy error", e);
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            running.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public <R extends java.lang.Runnable & Serializable> void runAsync(final long invocationId, final R r, final InvocationListener listener) throws Exception {
+        submit(invocationId, new java.util.concurrent.Callable<Object>() {
+            public Object call() throws Exception {
+                initializeObject(r);
+                try {
+                    r.run();
+                } finally {
+                    destroyObject(r);
+                }
+                return null;
+            }
+        }, listener);
+    }
+
+    public <T, C extends java.util.concurrent.Callable<T> & Serializable> void callAsync(long invocationId, final C c, InvocationListener listener) throws Exception {
+        submit(invocationId, new java.util.concurrent.Callable<Object>() {
+            public Object call() throws Exception {
+                return MeshContainer.this.call(c);
+            }
+        }, listener);
+    }
+
+    private void submit(final long invocationId, final java.util.concurrent.Callable<Object> task, final InvocationListener listener) {
+        running.incrementAndGet();
+        try {
+            TASK_EXECUTOR.execute(new java.lang.Runnable() {
+                public void run() {
+                    try {
+                        Object result = task.call();
+                        listener.onInvocationResult(invocationId, result);
+                    } catch (Throwable thrown) {
                         try {
-                            destroyObject(r);
-                        } catch (Exception e) {
-                            LOG.warn("Runnable destroy error", e);
+                            listener.onInvocationError(invocationId, thrown);
+                        } catch (Throwable e) {
+                            LOG.warn("Error reporting invocation failure", e);
                         }
+                    } finally {
+                        running.decrementAndGet();
                     }
                 }
-            };
+            });
+        } catch (RuntimeException e) {
+            running.decrementAndGet();
+            throw e;
+        }
+    }
 
-            ((Hostable) r).initialize(this);
+    public boolean reset() throws Exception {
+        String[] names;
+        synchronized (this) {
+            names = hosted.keySet().toArray(new String[hosted.size()]);
         }
 
-        mesh.getExecutorService().execute(wrapper);
+        Exception first = null;
+        for (String name : names) {
+            try {
+                unhost(name);
+            } catch (Exception e) {
+                first = first == null ? e : first;
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+        return running.get() == 0;
     }
 
     /**
@@ -236,7 +315,7 @@ public class MeshContainer implements MeshContainerService, MeshContainerContext
             } else {
                 MeshContainer.mesh = MeshKeeperFactory.createMeshKeeper();
             }
-            DistributionRef<MeshContainerService> ref = MeshContainer.getMeshKeeper().distribute(path, false, (MeshContainerService) container, MeshContainerService.class);
+            DistributionRef<AsyncMeshContainerService> ref = MeshContainer.getMeshKeeper().distribute(path, false, (AsyncMeshContainerService) container, AsyncMeshContainerService.class);
             MeshContainer.LOG.debug("Started MeshContainer: " + ref.getRegistryPath() + " cl: " + container.getClass().getClassLoader());
             container.closeLatch.await();
             MeshContainer.LOG.debug("Closing MeshContainer: " + ref.getRegistryPath() + " cl: " + container.getClass().getClassLoader());
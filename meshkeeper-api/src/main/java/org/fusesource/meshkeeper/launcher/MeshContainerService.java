@@ -79,6 +79,18 @@ public interface MeshContainerService extends Distributable {
      */
     public <T, C extends java.util.concurrent.Callable<T> & Serializable> T call(C c) throws Exception;
 
+    /**
+     * Unhosts all the objects hosted in the container so that it can be
+     * reused.
+     * 
+     * @return false if {@link Runnable}s passed to
+     *         {@link #run(java.lang.Runnable)} are still running, in which
+     *         case the container shouldn't be reused.
+     * @throws Exception
+     *             If there is an error unhosting an object.
+     */
+    public boolean reset() throws Exception;
+
     /**
      * Closes the container.
      */
@@ -17,11 +17,16 @@
 package org.fusesource.meshkeeper.launcher;
 
 import java.io.IOException;
-import java.lang.reflect.Array;
 import java.net.DatagramSocket;
 import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.net.ServerSocketFactory;
 
@@ -30,81 +35,132 @@ import javax.net.ServerSocketFactory;
  * <p>
  * A utility class to assist in finding/reserving ports on a machine.
  * </p>
+ * <p>
+ * Reservations are tracked in a bitmap per protocol and claimed with a
+ * compare and set, so concurrent requests don't wait on one another. Free
+ * candidates are claimed a batch at a time and then probed by opening a
+ * socket on them; ports found bound by someone else are remembered until the
+ * next sweep of the range so they aren't probed again on every request.
+ * </p>
+ * <p>
+ * Each reservation is a lease that records its owner, leases of an owner
+ * that has gone away can be expired with
+ * {@link #expireLeases(short, String, long)}.
+ * </p>
  * 
  * @author cmacnaug
  * @version 1.0
  */
-@SuppressWarnings("unchecked")
 class PortReserver {
 
     public static final short TCP = 0;
     public static final short UDP = 1;
     private static final short NUM_PROTOCOLS = 2;
 
-    private static HashSet<Integer>[] reserved;
-    private static int[] next = new int[2];
-    private static int[] min = new int[2];
-    private static int[] max = new int[2];
-    private static boolean initialized = false;
+    private static final int PROBE_BATCH = Math.max(1, Integer.getInteger("meshkeeper.ports.probeBatch", 16));
+
+    //Each protocol's range, replaced as a whole so that readers don't lock:
+    private static final AtomicReferenceArray<Range> ranges = new AtomicReferenceArray<Range>(NUM_PROTOCOLS);
 
     static {
-        reserved = (HashSet<Integer>[]) makeArray(HashSet.class, 2);
-        for (int i = 0; i < reserved.length; i++) {
-            reserved[i] = new HashSet<Integer>();
+        for (short i = 0; i < NUM_PROTOCOLS; i++) {
+            //The following ranges are outside the ephemeral port range on most
+            //OS's (see: http://www.ncftp.com/ncftpd/doc/misc/ephemeral_ports.html)
+            //The intent here is to avoid reserving a port that might be later allocated
+            //to a client socket. 
+            setPortRange(i, 10000, 32768);
         }
     }
 
+    /**
+     * Sets the range of ports to reserve from, this discards any existing
+     * reservations for the protocol.
+     */
     public static void setPortRange(short protocol, int lower, int upper) {
-        min[protocol] = lower;
-        max[protocol] = upper;
-        next[protocol] = lower;
+        checkProtocol(protocol);
+        if (lower > upper) {
+            throw new IllegalArgumentException("Invalid port range: " + lower + "-" + upper);
+        }
+        ranges.set(protocol, new Range(protocol, lower, upper));
     }
 
-    public static synchronized Integer[] reservePorts(short protocol, int count) throws IOException {
-        initialize();
-        Integer[] ret = new Integer[count];
-        int start = next[protocol];
-        for (int i = 0; i < count; i++) {
+    /**
+     * @return The lowest and highest port of the range reserved from.
+     */
+    public static int[] getPortRange(short protocol) {
+        Range range = getRange(protocol);
+        return new int[] { range.lower, range.lower + range.size - 1 };
+    }
 
-            while (!checkPortFree(protocol, next[protocol])) {
-                incrementNext(protocol);
+    /**
+     * Reserves count free ports.
+     * 
+     * @param owner
+     *            The owner of the reservation, may be null if the
+     *            reservation should never expire.
+     * @throws IOException
+     *             If there aren't enough free ports.
+     */
+    public static List<Integer> reservePorts(short protocol, int count, String owner) throws IOException {
+        return getRange(protocol).reserve(count, owner);
+    }
 
-                if (next[protocol] == start) {
-                    throw new IOException("No free ports available");
-                }
-            }
+    /**
+     * Reserves count free consecutive ports.
+     * 
+     * @param owner
+     *            The owner of the reservation, may be null if the
+     *            reservation should never expire.
+     * @throws IOException
+     *             If there isn't a free run of count ports.
+     */
+    public static List<Integer> reserveContiguousPorts(short protocol, int count, String owner) throws IOException {
+        return getRange(protocol).reserveContiguous(count, owner);
+    }
 
-            ret[i] = next[protocol];
-            incrementNext(protocol);
+    public static void releasePorts(short protocol, Collection<Integer> ports) {
+        Range range = getRange(protocol);
+        for (Integer port : ports) {
+            range.release(port - range.lower);
         }
+    }
 
-        return ret;
+    /**
+     * @return The owners currently holding leases.
+     */
+    public static Set<String> getLeaseOwners(short protocol) {
+        return getRange(protocol).getOwners();
+    }
 
+    /**
+     * Releases the leases held by owner that were granted before the given
+     * time.
+     * 
+     * @return The number of ports released.
+     */
+    public static int expireLeases(short protocol, String owner, long grantedBefore) {
+        return getRange(protocol).expire(owner, grantedBefore);
     }
 
     /**
-     * @param tcp2
-     * @param ports
+     * @return The number of ports currently reserved.
      */
-    public static synchronized void releasePorts(short protocol, Collection<Integer> ports) {
-        for (Integer i : ports) {
-            reserved[protocol].remove(i);
-        }
+    public static int getReservedCount(short protocol) {
+        return getRange(protocol).reserved.count();
     }
 
-    private static void incrementNext(short protocol) {
-        if (next[protocol] == max[protocol]) {
-            next[protocol] = min[protocol];
-        } else {
-            next[protocol]++;
-        }
+    private static Range getRange(short protocol) {
+        checkProtocol(protocol);
+        return ranges.get(protocol);
     }
 
-    private static boolean checkPortFree(short protocol, int port) {
-        if (reserved[protocol].contains(new Integer(port))) {
-            return false;
+    private static void checkProtocol(short protocol) {
+        if (protocol < 0 || protocol >= NUM_PROTOCOLS) {
+            throw new IllegalArgumentException("Invalid protocol: " + protocol);
         }
+    }
 
+    private static boolean checkPortFree(short protocol, int port) {
         //Try opening the port to make sure that it is available:
         switch (protocol) {
         case TCP: {
@@ -137,21 +193,245 @@ class PortReserver {
 
     }
 
-    private static <T> T[] makeArray(Class<T> clazz, int size) {
-        return (T[]) Array.newInstance(clazz, size);
+    private static class Lease {
+        final String owner;
+        final long granted;
+
+        Lease(String owner) {
+            this.owner = owner;
+            this.granted = System.currentTimeMillis();
+        }
     }
 
-    private static void initialize() {
-        if (!initialized) {
-            initialized = true;
-            for (short i = 0; i < NUM_PROTOCOLS; i++) {
-                //The following ranges are outside the ephemeral port range on most
-                //OS's (see: http://www.ncftp.com/ncftpd/doc/misc/ephemeral_ports.html)
-                //The intent here is to avoid reserving a port that might be later allocated
-                //to a client socket. 
-                setPortRange(i, 10000, 32768);
+    private static class Range {
+        final short protocol;
+        final int lower;
+        final int size;
+
+        //Ports reserved through us:
+        final Bitmap reserved;
+        //Ports found in use by someone else since the last sweep:
+        final Bitmap busy;
+        final AtomicReferenceArray<Lease> leases;
+        final AtomicInteger next = new AtomicInteger();
+
+        Range(short protocol, int lower, int upper) {
+            this.protocol = protocol;
+            this.lower = lower;
+            this.size = upper - lower + 1;
+            this.reserved = new Bitmap(size);
+            this.busy = new Bitmap(size);
+            this.leases = new AtomicReferenceArray<Lease>(size);
+        }
+
+        List<Integer> reserve(int count, String owner) throws IOException {
+            ArrayList<Integer> rc = new ArrayList<Integer>(count);
+            int[] batch = new int[Math.min(PROBE_BATCH, Math.max(1, count))];
+            int scanned = 0;
+            boolean swept = false;
+            while (rc.size() < count) {
+                //Claim a batch of candidates:
+                int claimed = 0;
+                while (claimed < Math.min(batch.length, count - rc.size()) && scanned < size) {
+                    int index = advance();
+                    scanned++;
+                    if (!busy.get(index) && reserved.set(index)) {
+                        batch[claimed++] = index;
+                    }
+                }
+
+                if (claimed == 0) {
+                    //Give ports found busy earlier another chance before giving up:
+                    if (!swept) {
+                        swept = true;
+                        busy.clearAll();
+                        scanned = 0;
+                        continue;
+                    }
+                    for (Integer port : rc) {
+                        release(port - lower);
+                    }
+                    throw new IOException("No free ports available");
+                }
+
+                //And probe them:
+                for (int i = 0; i < claimed; i++) {
+                    if (probe(batch[i])) {
+                        leases.set(batch[i], new Lease(owner));
+                        rc.add(lower + batch[i]);
+                    }
+                }
+            }
+            return rc;
+        }
+
+        List<Integer> reserveContiguous(int count, String owner) throws IOException {
+            if (count > size) {
+                throw new IOException("Range of " + count + " ports is larger than the port range");
+            }
+
+            int start = (next.get() & Integer.MAX_VALUE) % size;
+            int scanned = 0;
+            boolean swept = false;
+            while (true) {
+                if (scanned >= size) {
+                    if (swept) {
+                        throw new IOException("No free range of " + count + " ports available");
+                    }
+                    swept = true;
+                    busy.clearAll();
+                    scanned = 0;
+                }
+
+                if (start + count > size) {
+                    scanned += size - start;
+                    start = 0;
+                    continue;
+                }
+
+                //Claim the run, stopping at the first conflict:
+                int claimed = 0;
+                while (claimed < count && !busy.get(start + claimed) && reserved.set(start + claimed)) {
+                    claimed++;
+                }
+
+                //Then probe it:
+                int probed = claimed;
+                if (claimed == count) {
+                    for (probed = 0; probed < count; probed++) {
+                        if (!checkPortFree(protocol, lower + start + probed)) {
+                            busy.set(start + probed);
+                            break;
+                        }
+                    }
+                }
+
+                if (probed == count) {
+                    ArrayList<Integer> rc = new ArrayList<Integer>(count);
+                    for (int i = 0; i < count; i++) {
+                        leases.set(start + i, new Lease(owner));
+                        rc.add(lower + start + i);
+                    }
+                    next.set(start + count);
+                    return rc;
+                }
+
+                for (int i = 0; i < claimed; i++) {
+                    reserved.clear(start + i);
+                }
+                //Resume after the port that was in the way:
+                scanned += probed + 1;
+                start += probed + 1;
+            }
+        }
+
+        /**
+         * Probes a claimed port, giving it up if it's bound.
+         */
+        private boolean probe(int index) {
+            if (checkPortFree(protocol, lower + index)) {
+                return true;
+            }
+            busy.set(index);
+            reserved.clear(index);
+            return false;
+        }
+
+        /**
+         * @return The next index to try, starting a new sweep when the end of
+         *         the range is reached.
+         */
+        private int advance() {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+            if (index == size - 1) {
+                busy.clearAll();
+            }
+            return index;
+        }
+
+        void release(int index) {
+            if (index < 0 || index >= size) {
+                return;
+            }
+            leases.set(index, null);
+            reserved.clear(index);
+        }
+
+        Set<String> getOwners() {
+            HashSet<String> rc = new HashSet<String>();
+            for (int i = 0; i < size; i++) {
+                Lease lease = leases.get(i);
+                if (lease != null && lease.owner != null) {
+                    rc.add(lease.owner);
+                }
             }
+            return rc;
+        }
+
+        int expire(String owner, long grantedBefore) {
+            int rc = 0;
+            for (int i = 0; i < size; i++) {
+                Lease lease = leases.get(i);
+                if (lease != null && owner.equals(lease.owner) && lease.granted < grantedBefore && leases.compareAndSet(i, lease, null)) {
+                    reserved.clear(i);
+                    rc++;
+                }
+            }
+            return rc;
         }
     }
 
+    private static class Bitmap {
+        private final AtomicLongArray words;
+
+        Bitmap(int size) {
+            words = new AtomicLongArray((size + 63) >>> 6);
+        }
+
+        boolean get(int index) {
+            return (words.get(index >>> 6) & (1L << index)) != 0;
+        }
+
+        /**
+         * @return true if the bit was clear and was set by this call.
+         */
+        boolean set(int index) {
+            int word = index >>> 6;
+            long bit = 1L << index;
+            while (true) {
+                long current = words.get(word);
+                if ((current & bit) != 0) {
+                    return false;
+                }
+                if (words.compareAndSet(word, current, current | bit)) {
+                    return true;
+                }
+            }
+        }
+
+        void clear(int index) {
+            int word = index >>> 6;
+            long bit = 1L << index;
+            while (true) {
+                long current = words.get(word);
+                if ((current & bit) == 0 || words.compareAndSet(word, current, current & ~bit)) {
+                    return;
+                }
+            }
+        }
+
+        int count() {
+            int rc = 0;
+            for (int i = 0; i < words.length(); i++) {
+                rc += Long.bitCount(words.get(i));
+            }
+            return rc;
+        }
+
+        void clearAll() {
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, 0);
+            }
+        }
+    }
 }
@@ -0,0 +1,421 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LineMatcher
+ * <p>
+ * Description: Matches a stream of process output line by line against a set
+ * of trigger and filter patterns. Output is fed in chunks as it arrives and
+ * partial lines are carried over to the next chunk, so a match spanning a
+ * chunk boundary isn't missed.
+ * </p>
+ * <p>
+ * Output is scanned in a single pass: the same loop that looks for line ends
+ * runs an Aho-Corasick automaton over a literal that each trigger pattern
+ * requires, so that the vast majority of lines, which contain none of them,
+ * are dismissed without being decoded or handed to the regex engine. The
+ * remaining lines are matched against the triggers compiled into one
+ * alternation, and against the filters if they match. Patterns that refer to
+ * groups by number or name are compiled on their own, as combining them
+ * would renumber their groups. When a trigger has no literal that can be
+ * extracted from it every line is matched.
+ * </p>
+ * <p>
+ * Lines longer than {@link #MAX_LINE_LENGTH} are matched in pieces of that
+ * length. A LineMatcher is not thread safe, use one per stream.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LineMatcher {
+
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Receives matched lines.
+     */
+    public interface Handler {
+        /**
+         * @param line
+         *            The matched line without its line terminator.
+         * @param data
+         *            Holds the line as it was output, only valid for the
+         *            duration of the call.
+         * @param offset
+         *            The offset of the line in data.
+         * @param length
+         *            The length of the line in data, without its line
+         *            terminator.
+         */
+        public void onMatch(String line, byte[] data, int offset, int length);
+    }
+
+    //null if there are no patterns:
+    private final Matcher[] triggers;
+    private final Matcher[] filters;
+    //The literal automaton, null if every line must be matched. Transitions
+    //are indexed by state * 256 + byte:
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    //The partial line carried over from the last chunk:
+    private byte[] line = new byte[256];
+    private int length;
+    private int state;
+    private boolean candidate;
+    private long lineCount;
+    private long matchCount;
+
+    /**
+     * @param triggers
+     *            The regular expressions a line must match.
+     * @param filters
+     *            The regular expressions excluding a line that matched a
+     *            trigger.
+     */
+    public LineMatcher(List<String> triggers, List<String> filters) {
+        this.triggers = compile(triggers);
+        this.filters = compile(filters);
+
+        ArrayList<byte[]> literals = new ArrayList<byte[]>(triggers.size());
+        for (String regex : triggers) {
+            String literal = requiredLiteral(regex);
+            if (literal == null) {
+                literals = null;
+                break;
+            }
+            literals.add(literal.getBytes());
+        }
+
+        if (literals != null && !literals.isEmpty()) {
+            Automaton automaton = new Automaton(literals);
+            transitions = automaton.transitions;
+            accepting = automaton.accepting;
+        } else {
+            transitions = null;
+            accepting = null;
+        }
+    }
+
+    /**
+     * Compiles the expressions into as few matchers as possible: one for
+     * those that can be combined, and one each for those that
+     * {@link #refersToGroups(String) refer to groups}.
+     * 
+     * @return The matchers or null if there are no expressions.
+     */
+    static Matcher[] compile(List<String> regexes) {
+        if (regexes.isEmpty()) {
+            return null;
+        }
+        ArrayList<String> combinable = new ArrayList<String>(regexes.size());
+        ArrayList<Matcher> rc = new ArrayList<Matcher>(1);
+        for (String regex : regexes) {
+            if (refersToGroups(regex)) {
+                rc.add(Pattern.compile(regex).matcher(""));
+            } else {
+                combinable.add(regex);
+            }
+        }
+        if (!combinable.isEmpty()) {
+            rc.add(0, combine(combinable).matcher(""));
+        }
+        return rc.toArray(new Matcher[rc.size()]);
+    }
+
+    /**
+     * Checks for backreferences and named groups, which would refer to the
+     * wrong group or clash with another expression's once combined.
+     */
+    static boolean refersToGroups(String regex) {
+        for (int i = 0; i + 1 < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char next = regex.charAt(i + 1);
+            if (c == '\\') {
+                if ((next >= '1' && next <= '9') || next == 'k') {
+                    return true;
+                }
+                //Skip the escaped character:
+                i++;
+            } else if (c == '(' && next == '?' && regex.startsWith("(?<", i) && i + 3 < regex.length() && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the expressions into a single pattern matching any of them.
+     */
+    static Pattern combine(List<String> regexes) {
+        if (regexes.size() == 1) {
+            return Pattern.compile(regexes.get(0));
+        }
+        StringBuilder combined = new StringBuilder();
+        for (String regex : regexes) {
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+            combined.append("(?:").append(regex).append(')');
+        }
+        return Pattern.compile(combined.toString());
+    }
+
+    /**
+     * Finds the longest run of plain characters that any match of the regex
+     * must contain. Only runs outside of groups and classes, and not followed
+     * by a quantifier, are considered, a regex with a top level alternation
+     * or embedded flags has none.
+     * 
+     * @return The literal or null if none was found.
+     */
+    static String requiredLiteral(String regex) {
+        String best = null;
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            boolean plain = depth == 0 && !inClass && c < 128 && (Character.isLetterOrDigit(c) || " _-,:;=<>!@#%&'\"/~`".indexOf(c) >= 0);
+            if (plain) {
+                char following = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                if (following == '?' || following == '*' || following == '{') {
+                    //The last character is optional, the run ends before it:
+                    plain = false;
+                } else {
+                    run.append(c);
+                    continue;
+                }
+            }
+
+            if (best == null || run.length() > best.length()) {
+                best = run.length() > 0 ? run.toString() : best;
+            }
+            run.setLength(0);
+
+            if (c == '\\') {
+                //Skip the escaped character:
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '?' && i + 2 < regex.length() && regex.charAt(i + 2) != ':') {
+                    //Flags or lookaround:
+                    return null;
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return null;
+            }
+        }
+        if (best == null || run.length() > best.length()) {
+            best = run.length() > 0 ? run.toString() : best;
+        }
+        return best;
+    }
+
+    /**
+     * Matches the complete lines in the given output, holding on to a
+     * trailing partial line.
+     */
+    public void write(byte[] b, int off, int len, Handler handler) {
+        int end = off + len;
+        int start = off;
+        int s = state;
+        boolean c = candidate;
+        for (int i = off; i < end; i++) {
+            byte ch = b[i];
+            if (ch == '\n') {
+                candidate = c;
+                endLine(b, start, i, handler);
+                start = i + 1;
+                s = 0;
+                c = false;
+            } else {
+                if (length + i - start == MAX_LINE_LENGTH) {
+                    candidate = c;
+                    endLine(b, start, i, handler);
+                    start = i;
+                    s = 0;
+                    c = false;
+                }
+                if (transitions != null) {
+                    s = transitions[(s << 8) | (ch & 0xff)];
+                    c |= accepting[s];
+                }
+            }
+        }
+
+        state = s;
+        candidate = c;
+        append(b, start, end - start);
+    }
+
+    /**
+     * Matches any partial line left at the end of the stream.
+     */
+    public void flush(Handler handler) {
+        if (length > 0) {
+            endLine(null, 0, 0, handler);
+        }
+        state = 0;
+        candidate = false;
+    }
+
+    private void append(byte[] b, int off, int len) {
+        if (len == 0) {
+            return;
+        }
+        if (length + len > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, length + len)];
+            System.arraycopy(line, 0, grown, 0, length);
+            line = grown;
+        }
+        System.arraycopy(b, off, line, length, len);
+        length += len;
+    }
+
+    /**
+     * Ends the line made up of the carried over partial line followed by the
+     * given bytes.
+     */
+    private void endLine(byte[] b, int off, int end, Handler handler) {
+        lineCount++;
+        boolean match = triggers != null && (transitions == null || candidate);
+        if (!match) {
+            length = 0;
+            return;
+        }
+
+        byte[] data = b;
+        if (length > 0) {
+            append(b, off, end - off);
+            data = line;
+            off = 0;
+            end = length;
+        }
+        length = 0;
+        if (end > off && data[end - 1] == '\r') {
+            end--;
+        }
+
+        String text = new String(data, off, end - off);
+        if (!find(triggers, text)) {
+            return;
+        }
+        if (filters != null && find(filters, text)) {
+            return;
+        }
+        matchCount++;
+        handler.onMatch(text, data, off, end - off);
+    }
+
+    private static boolean find(Matcher[] matchers, String text) {
+        for (Matcher matcher : matchers) {
+            if (matcher.reset(text).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of lines seen.
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return The number of lines matched.
+     */
+    public long getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * A deterministic Aho-Corasick automaton over bytes, every state has a
+     * transition for every byte.
+     */
+    private static class Automaton {
+        int[] transitions;
+        boolean[] accepting;
+        int states = 1;
+
+        Automaton(List<byte[]> literals) {
+            int max = 1;
+            for (byte[] literal : literals) {
+                max += literal.length;
+            }
+            transitions = new int[max << 8];
+            accepting = new boolean[max];
+            int[] fail = new int[max];
+
+            //Build the trie, -1 marking missing transitions:
+            Arrays.fill(transitions, -1);
+            for (byte[] literal : literals) {
+                int s = 0;
+                for (byte b : literal) {
+                    int t = (s << 8) | (b & 0xff);
+                    if (transitions[t] < 0) {
+                        transitions[t] = states++;
+                    }
+                    s = transitions[t];
+                }
+                accepting[s] = true;
+            }
+
+            //Fill in the missing transitions breadth first from the failure
+            //links:
+            LinkedList<Integer> queue = new LinkedList<Integer>();
+            for (int b = 0; b < 256; b++) {
+                if (transitions[b] < 0) {
+                    transitions[b] = 0;
+                } else {
+                    fail[transitions[b]] = 0;
+                    queue.add(transitions[b]);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int s = queue.removeFirst();
+                accepting[s] |= accepting[fail[s]];
+                for (int b = 0; b < 256; b++) {
+                    int t = (s << 8) | b;
+                    if (transitions[t] < 0) {
+                        transitions[t] = transitions[(fail[s] << 8) | b];
+                    } else {
+                        fail[transitions[t]] = transitions[(fail[s] << 8) | b];
+                        queue.add(transitions[t]);
+                    }
+                }
+            }
+        }
+    }
+}
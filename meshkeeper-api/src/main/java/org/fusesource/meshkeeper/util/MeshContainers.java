@@ -0,0 +1,200 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.fusesource.meshkeeper.MeshContainer;
+import org.fusesource.meshkeeper.util.internal.SettableFuture;
+
+/**
+ * MeshContainers
+ * <p>
+ * Helpers for driving a number of {@link MeshContainer}s at once. A task is
+ * submitted to each container with the asynchronous invocation methods, and
+ * the results are gathered as they complete, so driving any number of
+ * containers needs no threads of the caller's own.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class MeshContainers {
+
+    /**
+     * Invokes the {@link Callable} in each of the containers.
+     * 
+     * @param containers The containers.
+     * @param c The {@link Callable}
+     * @return The pending results, one for each container. A container to
+     *         which the {@link Callable} couldn't be submitted has its future
+     *         failed with the error.
+     */
+    public static <T, C extends Callable<T> & Serializable> FanOut<T> callAll(Collection<? extends MeshContainer> containers, C c) {
+        FanOut<T> rc = new FanOut<T>(containers.size());
+        for (MeshContainer container : containers) {
+            Future<T> future;
+            try {
+                future = container.callAsync(c);
+            } catch (Exception e) {
+                future = failed(e);
+            }
+            rc.add(future);
+        }
+        return rc;
+    }
+
+    /**
+     * Runs the {@link Runnable} in each of the containers.
+     * 
+     * @param containers The containers.
+     * @param r The {@link Runnable}
+     * @return The pending completions, one for each container. A container to
+     *         which the {@link Runnable} couldn't be submitted has its future
+     *         failed with the error.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R extends Runnable & Serializable> FanOut<Object> runAll(Collection<? extends MeshContainer> containers, R r) {
+        FanOut<Object> rc = new FanOut<Object>(containers.size());
+        for (MeshContainer container : containers) {
+            Future<Object> future;
+            try {
+                future = (Future<Object>) container.runAsync(r);
+            } catch (Exception e) {
+                future = failed(e);
+            }
+            rc.add(future);
+        }
+        return rc;
+    }
+
+    private static <T> Future<T> failed(Exception e) {
+        SettableFuture<T> rc = new SettableFuture<T>();
+        rc.setException(e);
+        return rc;
+    }
+
+    /**
+     * The pending results of a task submitted to a number of containers.
+     * 
+     * @param <T> The result type.
+     */
+    public static class FanOut<T> {
+        private final ArrayList<Future<T>> futures;
+        private final LinkedBlockingQueue<Future<T>> completed = new LinkedBlockingQueue<Future<T>>();
+        private int taken;
+
+        FanOut(int size) {
+            futures = new ArrayList<Future<T>>(size);
+        }
+
+        private void add(final Future<T> future) {
+            futures.add(future);
+            if (future instanceof SettableFuture) {
+                ((SettableFuture<T>) future).addListener(new Runnable() {
+                    public void run() {
+                        completed.add(future);
+                    }
+                });
+            } else {
+                //Can't tell when it completes, hand it out in order:
+                completed.add(future);
+            }
+        }
+
+        /**
+         * @return The futures, in the order of the containers they were
+         *         submitted to.
+         */
+        public List<Future<T>> getFutures() {
+            return Collections.unmodifiableList(futures);
+        }
+
+        /**
+         * @return The number of futures that haven't yet been taken.
+         */
+        public synchronized int getRemaining() {
+            return futures.size() - taken;
+        }
+
+        /**
+         * Waits for the next future to complete.
+         * 
+         * @return The completed future, or null if all of them have already
+         *         been taken.
+         */
+        public Future<T> take() throws InterruptedException {
+            synchronized (this) {
+                if (taken == futures.size()) {
+                    return null;
+                }
+                taken++;
+            }
+            return completed.take();
+        }
+
+        /**
+         * Waits up to the given timeout for the next future to complete.
+         * 
+         * @return The completed future, or null if all of them have already
+         *         been taken or none completed in time.
+         */
+        public Future<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            synchronized (this) {
+                if (taken == futures.size()) {
+                    return null;
+                }
+            }
+            Future<T> rc = completed.poll(timeout, unit);
+            if (rc != null) {
+                synchronized (this) {
+                    taken++;
+                }
+            }
+            return rc;
+        }
+
+        /**
+         * Waits for all of the results.
+         * 
+         * @return The results, in the order of the containers they were
+         *         submitted to.
+         * @throws ExecutionException
+         *             For the first of the invocations that failed.
+         * @throws TimeoutException
+         *             If the results weren't all in within the timeout.
+         */
+        public List<T> getAll(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            ArrayList<T> rc = new ArrayList<T>(futures.size());
+            for (Future<T> future : futures) {
+                rc.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return rc;
+        }
+    }
+}
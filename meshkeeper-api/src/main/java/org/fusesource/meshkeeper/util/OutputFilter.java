@@ -0,0 +1,119 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * OutputFilter
+ * <p>
+ * Description: Describes which lines of a process' output the launch agent
+ * should send to the launching client, see
+ * {@link org.fusesource.meshkeeper.LaunchDescription#setOutputFilter(OutputFilter)}.
+ * Only lines matching one of the trigger patterns and none of the filter
+ * patterns are sent, the rest of the output never leaves the agent. The
+ * agent can also be asked to send only the number of matching lines once the
+ * process exits, or to stop sending after a given number of matches, say
+ * after the line announcing that a server started.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class OutputFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<String> triggers = new ArrayList<String>();
+    private final ArrayList<String> filters = new ArrayList<String>();
+    private boolean countOnly;
+    private int maxMatches = -1;
+
+    /**
+     * Adds a pattern that output lines are sent for.
+     * 
+     * @param regex
+     *            A regular expression to find in an output line.
+     */
+    public OutputFilter addTriggerPattern(String regex) {
+        Pattern.compile(regex);
+        triggers.add(regex);
+        return this;
+    }
+
+    /**
+     * Adds a pattern excluding lines that matched a trigger.
+     * 
+     * @param regex
+     *            A regular expression to find in an output line.
+     */
+    public OutputFilter addFilterPattern(String regex) {
+        Pattern.compile(regex);
+        filters.add(regex);
+        return this;
+    }
+
+    public List<String> getTriggerPatterns() {
+        return triggers;
+    }
+
+    public List<String> getFilterPatterns() {
+        return filters;
+    }
+
+    /**
+     * @param countOnly
+     *            If true the matched lines aren't sent, the number of them is
+     *            sent as process info once the process exits.
+     */
+    public OutputFilter setCountOnly(boolean countOnly) {
+        this.countOnly = countOnly;
+        return this;
+    }
+
+    public boolean isCountOnly() {
+        return countOnly;
+    }
+
+    /**
+     * @param maxMatches
+     *            The number of matched lines after which no more are sent, a
+     *            negative value for no limit.
+     */
+    public OutputFilter setMaxMatches(int maxMatches) {
+        this.maxMatches = maxMatches;
+        return this;
+    }
+
+    public int getMaxMatches() {
+        return maxMatches;
+    }
+
+    /**
+     * @return A matcher for one of the process' output streams.
+     */
+    public LineMatcher createMatcher() {
+        return new LineMatcher(triggers, filters);
+    }
+
+    public String toString() {
+        return "triggers=" + triggers + " filters=" + filters + (countOnly ? " countOnly" : "") + (maxMatches >= 0 ? " maxMatches=" + maxMatches : "");
+    }
+}
@@ -16,9 +16,10 @@
  */
 package org.fusesource.meshkeeper.util;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.regex.Pattern;
 
+import org.fusesource.meshkeeper.LaunchDescription;
 import org.fusesource.meshkeeper.MeshProcess;
 import org.fusesource.meshkeeper.MeshProcessListener;
 
@@ -30,8 +31,23 @@ import org.fusesource.meshkeeper.MeshProcessListener;
  * output streams. This is useful, for example, in searching for Exceptions or Errors
  * printed in a process' output. 
  * </p>
- * When a match is found the {@link #onMatch(String)} method is called with the output that
- * triggered the match.
+ * When a match is found the {@link #onMatch(String)} method is called with the output line that
+ * triggered the match. Output is matched a line at a time, lines split across output chunks 
+ * are put back together before matching, and any unterminated last line is matched when the
+ * process exits. 
+ * </p>
+ * <p>
+ * Earlier versions matched each chunk of output as it arrived, with the patterns compiled
+ * {@link Pattern#MULTILINE}, and passed the whole chunk to {@link #onMatch(String)}. Patterns
+ * spanning several lines no longer match a line at a time; subclasses relying on them can
+ * pass false for <code>matchLines</code> to {@link #ProcessOutputMatcher(String, boolean)} to
+ * keep matching chunks.
+ * </p>
+ * <p>
+ * To avoid shipping all of a process' output to the client only to match a few lines of it, 
+ * set the filter returned by {@link #toOutputFilter()} on the process' {@link LaunchDescription} 
+ * so that the launch agent only sends the lines this matcher is looking for.
+ * </p>
  * 
  * @author cmacnaug
  * @version 1.0
@@ -39,20 +55,103 @@ import org.fusesource.meshkeeper.MeshProcessListener;
 public abstract class ProcessOutputMatcher extends NoOpProcessListener {
 
     private final String name;
-    private LinkedList<Pattern> triggers = new LinkedList<Pattern>();
-    private LinkedList<Pattern> filters = new LinkedList<Pattern>();
+    private final boolean matchLines;
+    private final ArrayList<String> triggers = new ArrayList<String>();
+    private final ArrayList<String> filters = new ArrayList<String>();
+    //Used when matching whole chunks:
+    private final ArrayList<Pattern> chunkTriggers = new ArrayList<Pattern>();
+    private final ArrayList<Pattern> chunkFilters = new ArrayList<Pattern>();
+    //One per fd, recreated when patterns are added:
+    private LineMatcher[] matchers = new LineMatcher[3];
+    private final LineMatcher.Handler handler = new LineMatcher.Handler() {
+        public void onMatch(String line, byte[] data, int offset, int length) {
+            ProcessOutputMatcher.this.onMatch(line);
+        }
+    };
 
     public ProcessOutputMatcher(String name) {
+        this(name, true);
+    }
+
+    /**
+     * @param name
+     *            The matcher's name.
+     * @param matchLines
+     *            If false each chunk of output is matched as it arrives, as
+     *            earlier versions did, rather than a line at a time.
+     */
+    public ProcessOutputMatcher(String name, boolean matchLines) {
         this.name = name;
+        this.matchLines = matchLines;
     }
 
     @Override
     public final void onProcessOutput(int fd, byte[] output) {
-        String line = new String(output);
-        if (matches(line)) {
-            onMatch(line);
+        if (matchLines) {
+            getMatcher(fd).write(output, 0, output.length, handler);
+        } else {
+            String chunk = new String(output);
+            if (matchesChunk(chunk)) {
+                onMatch(chunk);
+            }
+        }
+    }
+
+    /**
+     * Matches any unterminated last lines and then calls
+     * {@link #onExit(int)}. This is final so that the last lines are matched
+     * whether or not subclasses call through, override {@link #onExit(int)}
+     * instead.
+     */
+    @Override
+    public final void onProcessExit(int exitCode) {
+        LineMatcher[] current;
+        synchronized (this) {
+            current = matchers.clone();
+        }
+        for (LineMatcher matcher : current) {
+            if (matcher != null) {
+                matcher.flush(handler);
+            }
+        }
+        onExit(exitCode);
+    }
+
+    /**
+     * Called when the process exits, after all of its output has been
+     * matched. Subclasses may override this to handle the exit.
+     * 
+     * @param exitCode
+     *            The process' exit code.
+     */
+    protected void onExit(int exitCode) {
+        // NOOP!
+    }
+
+    private synchronized boolean matchesChunk(String chunk) {
+        for (Pattern trigger : chunkTriggers) {
+            if (trigger.matcher(chunk).find()) {
+                for (Pattern filter : chunkFilters) {
+                    if (filter.matcher(chunk).find()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
         }
+        return false;
+    }
 
+    private synchronized LineMatcher getMatcher(int fd) {
+        if (fd >= matchers.length) {
+            LineMatcher[] grown = new LineMatcher[fd + 1];
+            System.arraycopy(matchers, 0, grown, 0, matchers.length);
+            matchers = grown;
+        }
+        if (matchers[fd] == null) {
+            matchers[fd] = new LineMatcher(triggers, filters);
+        }
+        return matchers[fd];
     }
 
     /**
@@ -73,32 +172,37 @@ public abstract class ProcessOutputMatcher extends NoOpProcessListener {
      * @param regex an expression to match against in a {@link MeshProcess}' output.
      * 
      */
-    public final void addTriggerPattern(String regex) {
-        triggers.add(Pattern.compile(regex, Pattern.MULTILINE));
+    public final synchronized void addTriggerPattern(String regex) {
+        chunkTriggers.add(Pattern.compile(regex, Pattern.MULTILINE));
+        triggers.add(regex);
+        matchers = new LineMatcher[matchers.length];
     }
 
     /**
      * Adds a {@link Pattern} against which to filter matches.
      * @param regex If output matches this pattern, then {@link #onMatch(String)} will not be triggered.
      */
-    public final void addFilterPattern(String regex) {
-        filters.add(Pattern.compile(regex, Pattern.MULTILINE));
+    public final synchronized void addFilterPattern(String regex) {
+        chunkFilters.add(Pattern.compile(regex, Pattern.MULTILINE));
+        filters.add(regex);
+        matchers = new LineMatcher[matchers.length];
     }
 
-    private boolean matches(String line) {
-
-        for (Pattern p : triggers) {
-            if (p.matcher(line).find()) {
-                //Check if filtered:
-                for (Pattern f : filters) {
-                    if (f.matcher(line).find()) {
-                        return false;
-                    }
-                }
-                return true;
-            }
+    /**
+     * @return An {@link OutputFilter} with this matcher's patterns, for the
+     *         launch agent to apply to the process' output. The filter
+     *         passes on matching lines only, so it doesn't suit a matcher
+     *         that matches whole chunks with patterns spanning lines.
+     */
+    public synchronized OutputFilter toOutputFilter() {
+        OutputFilter rc = new OutputFilter();
+        for (String regex : triggers) {
+            rc.addTriggerPattern(regex);
         }
-        return false;
+        for (String regex : filters) {
+            rc.addFilterPattern(regex);
+        }
+        return rc;
     }
 
 }
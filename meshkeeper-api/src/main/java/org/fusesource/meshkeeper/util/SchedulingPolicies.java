@@ -0,0 +1,137 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.fusesource.meshkeeper.AgentLoad;
+import org.fusesource.meshkeeper.SchedulingPolicy;
+
+/**
+ * SchedulingPolicies
+ * <p>
+ * Common {@link SchedulingPolicy}s: spreading launches over the least loaded
+ * agents, packing them onto as few agents as possible, and restricting either
+ * to agents with enough free memory or preferring given agents.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class SchedulingPolicies {
+
+    /**
+     * @return A policy choosing the agent with the lowest
+     *         {@link AgentLoad#getLoadScore() load score}, the default.
+     */
+    public static SchedulingPolicy spread() {
+        return new SchedulingPolicy() {
+            public AgentLoad select(List<AgentLoad> candidates) {
+                AgentLoad rc = null;
+                for (AgentLoad load : candidates) {
+                    if (rc == null || load.getLoadScore() < rc.getLoadScore()) {
+                        rc = load;
+                    }
+                }
+                return rc;
+            }
+
+            public String toString() {
+                return "spread";
+            }
+        };
+    }
+
+    /**
+     * @param maxProcesses
+     *            The number of processes an agent is filled to.
+     * @return A policy choosing the busiest agent that has fewer than
+     *         maxProcesses processes scheduled, leaving other agents free.
+     */
+    public static SchedulingPolicy pack(final int maxProcesses) {
+        return new SchedulingPolicy() {
+            public AgentLoad select(List<AgentLoad> candidates) {
+                AgentLoad rc = null;
+                for (AgentLoad load : candidates) {
+                    if (load.getScheduledProcesses() < maxProcesses && (rc == null || load.getScheduledProcesses() > rc.getScheduledProcesses())) {
+                        rc = load;
+                    }
+                }
+                return rc;
+            }
+
+            public String toString() {
+                return "pack(" + maxProcesses + ")";
+            }
+        };
+    }
+
+    /**
+     * @return A policy choosing from the given agents with the given policy,
+     *         falling back to the other agents if none of the given ones fits.
+     */
+    public static SchedulingPolicy affinity(final SchedulingPolicy policy, String... agentIds) {
+        final HashSet<String> preferred = new HashSet<String>();
+        for (String agentId : agentIds) {
+            preferred.add(agentId.toUpperCase());
+        }
+        return new SchedulingPolicy() {
+            public AgentLoad select(List<AgentLoad> candidates) {
+                ArrayList<AgentLoad> others = new ArrayList<AgentLoad>(candidates.size());
+                for (Iterator<AgentLoad> i = candidates.iterator(); i.hasNext();) {
+                    AgentLoad load = i.next();
+                    if (!preferred.contains(load.getAgentId().toUpperCase())) {
+                        others.add(load);
+                        i.remove();
+                    }
+                }
+                AgentLoad rc = candidates.isEmpty() ? null : policy.select(candidates);
+                return rc != null ? rc : policy.select(others);
+            }
+
+            public String toString() {
+                return "affinity(" + policy + ", " + preferred + ")";
+            }
+        };
+    }
+
+    /**
+     * @return A policy choosing with the given policy among the agents with
+     *         at least the given amount of free memory. Agents that don't
+     *         report their free memory are assumed to have enough.
+     */
+    public static SchedulingPolicy requireFreeMemory(final SchedulingPolicy policy, final long bytes) {
+        return new SchedulingPolicy() {
+            public AgentLoad select(List<AgentLoad> candidates) {
+                for (Iterator<AgentLoad> i = candidates.iterator(); i.hasNext();) {
+                    long free = i.next().getFreeMemory();
+                    if (free >= 0 && free < bytes) {
+                        i.remove();
+                    }
+                }
+                return policy.select(candidates);
+            }
+
+            public String toString() {
+                return "requireFreeMemory(" + policy + ", " + bytes + ")";
+            }
+        };
+    }
+}
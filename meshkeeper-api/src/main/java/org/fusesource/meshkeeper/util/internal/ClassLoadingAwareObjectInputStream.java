@@ -23,17 +23,55 @@ import java.io.ObjectStreamClass;
 import java.util.HashMap;
 import java.lang.reflect.Proxy;
 
+/**
+ * ClassLoadingAwareObjectInputStream
+ * <p>
+ * Description: An ObjectInputStream that resolves classes against the thread
+ * context class loader, or a given set of class loaders. Lookups go through a
+ * shared {@link ClassResolutionCache}.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
 public class ClassLoadingAwareObjectInputStream extends ObjectInputStream {
 
     private static final ClassLoader FALLBACK_CLASS_LOADER = ClassLoadingAwareObjectInputStream.class.getClassLoader();
 
+    static final ClassResolutionCache RESOLUTION_CACHE = new ClassResolutionCache(Long.getLong("meshkeeper.classloader.missTimeout", 30000));
+
     /**
      * <p>Maps primitive type names to corresponding class objects.</p>
      */
     private static final HashMap<String, Class<?>> primClasses = new HashMap<String, Class<?>>(8, 1.0F);
 
+    private final ClassLoader[] loaders;
+    private final ClassResolutionCache cache;
+
     public ClassLoadingAwareObjectInputStream(InputStream in) throws IOException {
+        this(in, null);
+    }
+
+    /**
+     * @param loaders
+     *            The class loaders to resolve classes against in order, if
+     *            null the thread context class loader is used.
+     */
+    public ClassLoadingAwareObjectInputStream(InputStream in, ClassLoader[] loaders) throws IOException {
+        this(in, loaders, RESOLUTION_CACHE);
+    }
+
+    ClassLoadingAwareObjectInputStream(InputStream in, ClassLoader[] loaders, ClassResolutionCache cache) throws IOException {
         super(in);
+        this.loaders = loaders;
+        this.cache = cache;
+    }
+
+    /**
+     * @return The cache used to resolve classes.
+     */
+    public static ClassResolutionCache getResolutionCache() {
+        return RESOLUTION_CACHE;
     }
 
     protected Class<?> resolveClass(ObjectStreamClass classDesc) throws IOException, ClassNotFoundException {
@@ -54,22 +92,38 @@ public class ClassLoadingAwareObjectInputStream extends ObjectInputStream {
     }
 
     protected ClassLoader[] getClassLoaders() {
+        if (loaders != null) {
+            return loaders;
+        }
         return new ClassLoader[]{Thread.currentThread().getContextClassLoader()};
     }
 
     private Class<?> load(String s) throws ClassNotFoundException {
         ClassLoader[] cls = getClassLoaders();
         for (ClassLoader cl : cls) {
-            try {
-                return Class.forName(s, false, cl);
-            } catch (ClassNotFoundException e) {
+            Class<?> clazz = resolve(s, cl);
+            if (clazz != null) {
+                return clazz;
             }
         }
-        final Class<?> clazz = (Class<?>) primClasses.get(s);
-        if (clazz != null) {
-            return clazz;
-        } else {
-            return Class.forName(s, false, FALLBACK_CLASS_LOADER);
+        Class<?> clazz = (Class<?>) primClasses.get(s);
+        if (clazz == null) {
+            clazz = resolve(s, FALLBACK_CLASS_LOADER);
+        }
+        if (clazz == null) {
+            throw new ClassNotFoundException(s);
+        }
+        return clazz;
+    }
+
+    private Class<?> resolve(String s, ClassLoader cl) {
+        if (cache != null) {
+            return cache.resolve(s, cl);
+        }
+        try {
+            return Class.forName(s, false, cl);
+        } catch (ClassNotFoundException e) {
+            return null;
         }
     }
 
@@ -0,0 +1,138 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ClassResolutionCache
+ * <p>
+ * Description: Remembers the result of looking up a class name in a class
+ * loader, both classes found and names that weren't, so that deserializing
+ * the same classes over and over doesn't repeat the lookup or the
+ * ClassNotFoundException thrown by each miss. Class loaders are weakly held,
+ * as are the classes found in them, so the cache doesn't keep a discarded
+ * class loader alive.
+ * </p>
+ * <p>
+ * A class loader may be able to load a class later that it couldn't earlier,
+ * a remote class loader for example, so misses are only remembered for
+ * missTimeout milliseconds.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ClassResolutionCache {
+
+    private final long missTimeout;
+    private final WeakHashMap<ClassLoader, Map<String, Object>> loaders = new WeakHashMap<ClassLoader, Map<String, Object>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    public ClassResolutionCache(long missTimeout) {
+        this.missTimeout = missTimeout;
+    }
+
+    /**
+     * Loads a class from the given class loader without initializing it.
+     * 
+     * @return The class or null if the class loader can't load it.
+     */
+    @SuppressWarnings("unchecked")
+    public Class<?> resolve(String name, ClassLoader loader) {
+        Map<String, Object> entries = getEntries(loader);
+        Object entry = entries.get(name);
+        if (entry instanceof WeakReference) {
+            Class<?> clazz = ((WeakReference<Class<?>>) entry).get();
+            if (clazz != null) {
+                hits.incrementAndGet();
+                return clazz;
+            }
+        } else if (entry != null) {
+            if (((Miss) entry).expires > System.currentTimeMillis()) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        lookups.incrementAndGet();
+        try {
+            Class<?> clazz = Class.forName(name, false, loader);
+            entries.put(name, new WeakReference<Class<?>>(clazz));
+            return clazz;
+        } catch (ClassNotFoundException e) {
+            entries.put(name, new Miss(System.currentTimeMillis() + missTimeout));
+            return null;
+        }
+    }
+
+    private synchronized Map<String, Object> getEntries(ClassLoader loader) {
+        Map<String, Object> entries = loaders.get(loader);
+        if (entries == null) {
+            entries = new ConcurrentHashMap<String, Object>();
+            loaders.put(loader, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Forgets everything cached for the given class loader.
+     */
+    public synchronized void clear(ClassLoader loader) {
+        loaders.remove(loader);
+    }
+
+    /**
+     * @return The number of classes found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups avoided by a remembered miss.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of lookups made through the class loaders.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public String toString() {
+        return "hits=" + hits.get() + " misses=" + misses.get() + " lookups=" + lookups.get();
+    }
+
+    private static class Miss {
+        final long expires;
+
+        Miss(long expires) {
+            this.expires = expires;
+        }
+    }
+}
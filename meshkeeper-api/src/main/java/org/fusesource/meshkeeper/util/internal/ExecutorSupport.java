@@ -0,0 +1,344 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.ExecutorMetrics;
+
+/**
+ * ExecutorSupport
+ * <p>
+ * Description: The executors MeshKeeper runs its work on, one per subsystem
+ * so that a slow event listener, say, can't hold up container tasks or
+ * registry watchers. Each executor is sized by the
+ * <code>meshkeeper.executor.&lt;name&gt;.threads</code> system property, a
+ * value of 0 or less giving a thread per task. Setting
+ * <code>meshkeeper.executor.virtual</code>, or
+ * <code>meshkeeper.executor.&lt;name&gt;.virtual</code> for a single executor,
+ * runs each task on its own virtual thread when the jvm supports them.
+ * </p>
+ * <p>
+ * The default executor is the one returned by
+ * {@link org.fusesource.meshkeeper.MeshKeeper#getExecutorService()} and is
+ * always a fixed size pool of platform threads since it supports scheduling.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ExecutorSupport {
+
+    private static final Log LOG = LogFactory.getLog(ExecutorSupport.class);
+
+    /**
+     * General and user work, and anything scheduled.
+     */
+    public static final String DEFAULT = "default";
+    /**
+     * Event dispatch to {@link org.fusesource.meshkeeper.MeshEventListener}s.
+     */
+    public static final String EVENTS = "events";
+    /**
+     * Registry watcher notifications.
+     */
+    public static final String WATCHERS = "watchers";
+    /**
+     * Work that waits on remote calls, like agent discovery and launches.
+     */
+    public static final String REMOTING = "remoting";
+    /**
+     * Tasks run in a {@link org.fusesource.meshkeeper.MeshContainer}.
+     */
+    public static final String CONTAINER = "container";
+    /**
+     * Process launches on a launch agent. The pool size bounds the number of
+     * launches an agent runs at once, further launches queue.
+     */
+    public static final String LAUNCH = "launch";
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    private static final LinkedHashMap<String, ExecutorService> EXECUTORS = new LinkedHashMap<String, ExecutorService>();
+
+    /**
+     * @return The default executor.
+     */
+    public static ScheduledExecutorService getDefaultExecutor() {
+        return (ScheduledExecutorService) getExecutor(DEFAULT);
+    }
+
+    /**
+     * Gets the named executor, creating it if need be.
+     */
+    public static synchronized ExecutorService getExecutor(String name) {
+        ExecutorService executor = EXECUTORS.get(name);
+        if (executor == null) {
+            if (DEFAULT.equals(name)) {
+                int threads = Math.max(1, Integer.getInteger("meshkeeper.executor." + name + ".threads", PROCESSORS));
+                executor = new InstrumentedScheduledExecutor(name, threads, createThreadFactory("MeshKeeperExecutor", false, false));
+            } else {
+                int threads = Integer.getInteger("meshkeeper.executor." + name + ".threads", getDefaultThreads(name));
+                boolean virtual = Boolean.getBoolean("meshkeeper.executor.virtual") || Boolean.getBoolean("meshkeeper.executor." + name + ".virtual");
+                ThreadFactory factory = createThreadFactory("MeshKeeper " + name, true, virtual);
+                if (virtual && factory != null) {
+                    executor = new InstrumentedExecutor(name, 0, 0, factory);
+                } else {
+                    executor = new InstrumentedExecutor(name, threads, 60, createThreadFactory("MeshKeeper " + name, true, false));
+                }
+            }
+            EXECUTORS.put(name, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * @return The metrics for each executor created so far.
+     */
+    public static synchronized Collection<ExecutorMetrics> getExecutorMetrics() {
+        ArrayList<ExecutorMetrics> rc = new ArrayList<ExecutorMetrics>(EXECUTORS.size());
+        for (ExecutorService executor : EXECUTORS.values()) {
+            rc.add((ExecutorMetrics) executor);
+        }
+        return rc;
+    }
+
+    private static int getDefaultThreads(String name) {
+        if (REMOTING.equals(name) || CONTAINER.equals(name)) {
+            //Tasks block for long periods:
+            return 0;
+        }
+        if (LAUNCH.equals(name)) {
+            //Launches mostly wait on downloads and exec:
+            return Math.max(4, PROCESSORS);
+        }
+        return PROCESSORS;
+    }
+
+    /**
+     * Creates a thread factory naming threads with the given prefix.
+     * 
+     * @param virtual
+     *            Whether to create virtual threads, in which case null is
+     *            returned if the jvm doesn't support them.
+     */
+    static ThreadFactory createThreadFactory(final String prefix, final boolean daemon, boolean virtual) {
+        if (virtual) {
+            try {
+                //Thread.ofVirtual().name(prefix + "-", 1).factory():
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+                builder = nameMethod.invoke(builder, prefix + "-", 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (Throwable thrown) {
+                LOG.warn("Virtual threads aren't supported, using platform threads for " + prefix);
+                return null;
+            }
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(daemon);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Collects the queue latency and execution time of tasks.
+     */
+    private static class Stats {
+        private final ThreadLocal<Long> started = new ThreadLocal<Long>();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLong totalExecution = new AtomicLong();
+        private final AtomicLong maxExecution = new AtomicLong();
+
+        void beforeExecute(long latency) {
+            totalLatency.addAndGet(latency);
+            updateMax(maxLatency, latency);
+            started.set(System.nanoTime());
+        }
+
+        void afterExecute() {
+            Long start = started.get();
+            if (start != null) {
+                long time = System.nanoTime() - start;
+                started.remove();
+                count.incrementAndGet();
+                totalExecution.addAndGet(time);
+                updateMax(maxExecution, time);
+            }
+        }
+
+        private static void updateMax(AtomicLong max, long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        long averageLatency() {
+            long c = count.get();
+            return c == 0 ? 0 : totalLatency.get() / c;
+        }
+
+        long averageExecution() {
+            long c = count.get();
+            return c == 0 ? 0 : totalExecution.get() / c;
+        }
+    }
+
+    /**
+     * Records when a task was submitted.
+     */
+    private static class Timed implements Runnable {
+        final Runnable task;
+        final long submitted = System.nanoTime();
+
+        Timed(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static class InstrumentedExecutor extends ThreadPoolExecutor implements ExecutorMetrics {
+        private final String name;
+        private final Stats stats = new Stats();
+
+        InstrumentedExecutor(String name, int threads, long keepAlive, ThreadFactory factory) {
+            super(threads > 0 ? threads : 0, threads > 0 ? threads : Integer.MAX_VALUE, keepAlive, TimeUnit.SECONDS, threads > 0 ? new LinkedBlockingQueue<Runnable>()
+                    : new SynchronousQueue<Runnable>(), factory);
+            this.name = name;
+        }
+
+        public void execute(Runnable command) {
+            super.execute(new Timed(command));
+        }
+
+        protected void beforeExecute(Thread t, Runnable r) {
+            stats.beforeExecute(r instanceof Timed ? System.nanoTime() - ((Timed) r).submitted : 0);
+        }
+
+        protected void afterExecute(Runnable r, Throwable t) {
+            stats.afterExecute();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQueueDepth() {
+            return getQueue().size();
+        }
+
+        public long getAverageQueueLatency() {
+            return stats.averageLatency();
+        }
+
+        public long getMaxQueueLatency() {
+            return stats.maxLatency.get();
+        }
+
+        public long getAverageExecutionTime() {
+            return stats.averageExecution();
+        }
+
+        public long getMaxExecutionTime() {
+            return stats.maxExecution.get();
+        }
+
+        public String toString() {
+            return ExecutorSupport.toString(this);
+        }
+    }
+
+    private static class InstrumentedScheduledExecutor extends ScheduledThreadPoolExecutor implements ExecutorMetrics {
+        private final String name;
+        private final Stats stats = new Stats();
+
+        InstrumentedScheduledExecutor(String name, int threads, ThreadFactory factory) {
+            super(threads, factory);
+            this.name = name;
+        }
+
+        protected void beforeExecute(Thread t, Runnable r) {
+            //Scheduled tasks know how long ago they were due:
+            stats.beforeExecute(r instanceof Delayed ? Math.max(0, -((Delayed) r).getDelay(TimeUnit.NANOSECONDS)) : 0);
+        }
+
+        protected void afterExecute(Runnable r, Throwable t) {
+            stats.afterExecute();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQueueDepth() {
+            return getQueue().size();
+        }
+
+        public long getAverageQueueLatency() {
+            return stats.averageLatency();
+        }
+
+        public long getMaxQueueLatency() {
+            return stats.maxLatency.get();
+        }
+
+        public long getAverageExecutionTime() {
+            return stats.averageExecution();
+        }
+
+        public long getMaxExecutionTime() {
+            return stats.maxExecution.get();
+        }
+
+        public String toString() {
+            return ExecutorSupport.toString(this);
+        }
+    }
+
+    private static String toString(ExecutorMetrics m) {
+        return m.getName() + ": threads=" + m.getPoolSize() + " active=" + m.getActiveCount() + " queued=" + m.getQueueDepth() + " completed=" + m.getCompletedTaskCount()
+                + " latency(avg/max)=" + m.getAverageQueueLatency() / 1000 + "/" + m.getMaxQueueLatency() / 1000 + "us execution(avg/max)=" + m.getAverageExecutionTime() / 1000 + "/"
+                + m.getMaxExecutionTime() / 1000 + "us";
+    }
+}
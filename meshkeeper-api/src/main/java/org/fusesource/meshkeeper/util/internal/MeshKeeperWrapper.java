@@ -16,8 +16,10 @@
  */
 package org.fusesource.meshkeeper.util.internal;
 
+import java.util.Collection;
 import java.util.concurrent.ScheduledExecutorService;
 
+import org.fusesource.meshkeeper.ExecutorMetrics;
 import org.fusesource.meshkeeper.MeshKeeper;
 
 /**
@@ -78,6 +80,10 @@ public class MeshKeeperWrapper implements MeshKeeper {
         return next.getExecutorService();
     }
 
+    public Collection<ExecutorMetrics> getExecutorMetrics() {
+        return next.getExecutorMetrics();
+    }
+
     public void setUserClassLoader(ClassLoader classLoader) {
         next.setUserClassLoader(classLoader);
     }
@@ -0,0 +1,285 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * ProcessPump
+ * <p>
+ * Description: Pumps the output of many processes with a small fixed number
+ * of threads. Process streams can't be selected on, so each pump thread polls
+ * the processes assigned to it, reading only what is available so that it
+ * never blocks on a quiet process. Output is flushed once a stream has gone a
+ * poll round without new data or has held unflushed data for longer than the
+ * flush latency. A stream whose output is a full
+ * {@link ProcessSupport.FlowControl} isn't read until it has room, the pump
+ * threads never wait on a stream's consumer.
+ * </p>
+ * <p>
+ * Once a process exits its streams are drained of whatever remains in the
+ * pipe and closed, output written afterwards by any child process that
+ * inherited the pipes is not pumped. A stream whose output throws is closed
+ * on its own, the pump threads carry on with the other streams.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+class ProcessPump {
+
+    private static final Log LOG = LogFactory.getLog(ProcessPump.class);
+
+    private final Worker[] workers;
+    private final int bufferSize;
+    private final long latency;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ExecutorService exitExecutor;
+
+    /**
+     * @param name
+     *            Prefix for the pump thread names.
+     * @param threads
+     *            The number of pump threads.
+     * @param bufferSize
+     *            The read buffer size for each thread.
+     * @param latency
+     *            The maximum time in milliseconds that output is held before
+     *            being flushed, also the poll interval when idle.
+     */
+    ProcessPump(final String name, int threads, int bufferSize, long latency) {
+        this.bufferSize = bufferSize;
+        this.latency = Math.max(1, latency);
+        this.workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(name + " " + (i + 1));
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        exitExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + " Exit Handler-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts pumping the process' output and error streams. onExit is run,
+     * from a thread other than the pump threads, once the process has exited
+     * and its output has been pumped.
+     */
+    public void watch(String id, Process process, OutputStream out, OutputStream err, Runnable onExit) {
+        Watched watched = new Watched(id, process, out, err, onExit);
+        workers[(next.getAndIncrement() & Integer.MAX_VALUE) % workers.length].add(watched);
+    }
+
+    private final class Worker implements Runnable {
+        private final String name;
+        private final ConcurrentLinkedQueue<Watched> processes = new ConcurrentLinkedQueue<Watched>();
+        private Thread thread;
+
+        Worker(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(Watched watched) {
+            processes.add(watched);
+            if (thread == null) {
+                thread = new Thread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notify();
+        }
+
+        public void run() {
+            byte buffer[] = new byte[bufferSize];
+            while (true) {
+                boolean busy = false;
+                long now = System.currentTimeMillis();
+                for (Watched watched : processes) {
+                    busy |= watched.pump(buffer, now);
+                    if (watched.isDone()) {
+                        processes.remove(watched);
+                        if (watched.onExit != null) {
+                            onExit(watched);
+                        }
+                    }
+                }
+
+                if (!busy) {
+                    try {
+                        synchronized (this) {
+                            if (processes.isEmpty()) {
+                                wait();
+                            } else {
+                                wait(latency);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void onExit(Watched watched) {
+        try {
+            exitExecutor.execute(watched.onExit);
+        } catch (RejectedExecutionException e) {
+            //Still let the owner know, just not from the pump thread:
+            LOG.warn("Exit handler rejected for " + watched + ", running it on its own thread", e);
+            Thread t = new Thread(watched.onExit, "Exit Handler for " + watched);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private final class Watched {
+        final String id;
+        final Process process;
+        final Stream out;
+        final Stream err;
+        final Runnable onExit;
+        boolean exited;
+
+        Watched(String id, Process process, OutputStream out, OutputStream err, Runnable onExit) {
+            this.id = id;
+            this.process = process;
+            this.out = new Stream(process.getInputStream(), out);
+            this.err = new Stream(process.getErrorStream(), err);
+            this.onExit = onExit;
+        }
+
+        /**
+         * @return true if any data was pumped.
+         */
+        boolean pump(byte[] buffer, long now) {
+            //Check for exit before reading so that a stream found empty
+            //afterwards is known to be drained:
+            if (!exited) {
+                try {
+                    process.exitValue();
+                    exited = true;
+                } catch (IllegalThreadStateException stillRunning) {
+                }
+            }
+
+            boolean busy = out.pump(buffer, now, exited);
+            busy |= err.pump(buffer, now, exited);
+            return busy;
+        }
+
+        boolean isDone() {
+            return out.closed && err.closed;
+        }
+
+        public String toString() {
+            return "Process: " + id;
+        }
+    }
+
+    private final class Stream {
+        final InputStream in;
+        final OutputStream out;
+        long dirtySince;
+        boolean closed;
+
+        Stream(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        boolean pump(byte[] buffer, long now, boolean exited) {
+            if (closed) {
+                return false;
+            }
+
+            boolean busy = false;
+            try {
+                if (out instanceof ProcessSupport.FlowControl && ((ProcessSupport.FlowControl) out).isFull()) {
+                    //Leave the output in the pipe until there is room for
+                    //it, even after exit so that it isn't lost:
+                    return false;
+                }
+
+                int available = in.available();
+                if (available > 0) {
+                    int count = in.read(buffer, 0, Math.min(available, buffer.length));
+                    if (count < 0) {
+                        close();
+                        return false;
+                    }
+                    if (out != null) {
+                        out.write(buffer, 0, count);
+                        if (dirtySince == 0) {
+                            dirtySince = now;
+                        }
+                    }
+                    busy = true;
+                } else if (exited) {
+                    close();
+                    return false;
+                }
+
+                if (dirtySince != 0 && (!busy || now - dirtySince >= latency)) {
+                    dirtySince = 0;
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Error pumping process stream", e);
+                }
+                close();
+            } catch (Throwable thrown) {
+                //Only this stream is given up on:
+                LOG.warn("Error writing process output, no longer pumping the stream", thrown);
+                close();
+            }
+            return busy;
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                in.close();
+            } catch (Throwable e) {
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+}
@@ -25,12 +25,36 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A helper class for handling Process objects.
+ * <p>
+ * Process output is pumped by a shared pool of
+ * <code>meshkeeper.process.pump.threads</code> (default 2) threads, each
+ * reading with a <code>meshkeeper.process.pump.buffer</code> (default 64k)
+ * buffer. Output is flushed within
+ * <code>meshkeeper.process.pump.latency</code> (default 10) milliseconds.
+ * Setting the thread count to 0 pumps each process with its own threads.
  * 
  * @version $Revision: 1.1 $
  */
 public class ProcessSupport {
 
-    
+    /**
+     * Implemented by output streams passed to
+     * {@link ProcessSupport#watch(String, Process, OutputStream, OutputStream, Runnable)}
+     * that hold output for slower consumers. While the stream is full it is
+     * not read, leaving the output in the pipe so that the process rather
+     * than the pump is held up.
+     */
+    public interface FlowControl {
+        /**
+         * @return true if no more output should be written for now.
+         */
+        public boolean isFull();
+    }
+
+    static final private int PUMP_THREADS = Integer.getInteger("meshkeeper.process.pump.threads", 2);
+    static final private int PUMP_BUFFER = Math.max(1024, Integer.getInteger("meshkeeper.process.pump.buffer", 64 * 1024));
+    static final private long PUMP_LATENCY = Math.max(1, Long.getLong("meshkeeper.process.pump.latency", 10));
+    static private ProcessPump PUMP;
     
     static final private AtomicLong ID_GENERATOR = new AtomicLong(0);
 
@@ -87,6 +111,10 @@ public class ProcessSupport {
     }
 
     static public void watch(String id, final Process process, OutputStream out, OutputStream err, final Runnable onExit) {
+        if (PUMP_THREADS > 0) {
+            getPump().watch(id, process, out, err, onExit);
+            return;
+        }
 
         final StreamPump errorHandler = new StreamPump("Error Pump for Process: " + id, process.getErrorStream(), err);
         errorHandler.start();
@@ -112,6 +140,13 @@ public class ProcessSupport {
         }
     }
 
+    static synchronized private ProcessPump getPump() {
+        if (PUMP == null) {
+            PUMP = new ProcessPump("Process Pump", PUMP_THREADS, PUMP_BUFFER, PUMP_LATENCY);
+        }
+        return PUMP;
+    }
+
     static private class StreamPump extends Thread {
         private final InputStream in;
         private OutputStream out;
@@ -125,13 +160,19 @@ public class ProcessSupport {
         public void run() {
             try {
                 int count;
-                byte buffer[] = new byte[1204];
-                while ((count = in.read(buffer, 0, buffer.length)) >= 0) {
+                byte buffer[] = new byte[PUMP_BUFFER];
+                while (true) {
+                    while (out instanceof FlowControl && ((FlowControl) out).isFull()) {
+                        Thread.sleep(PUMP_LATENCY);
+                    }
+                    if ((count = in.read(buffer, 0, buffer.length)) < 0) {
+                        break;
+                    }
                     if (out != null) {
                         out.write(buffer, 0, count);
                         if (count < buffer.length && in.available() == 0) {
                             try {
-                                Thread.sleep(50);
+                                Thread.sleep(PUMP_LATENCY);
                                 if (in.available() > 0) {
                                     continue;
                                 }
@@ -143,6 +184,8 @@ public class ProcessSupport {
                     }
                 }
             } catch (IOException expected) {
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
                 try {
                     in.close();
@@ -0,0 +1,163 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SettableFuture
+ * <p>
+ * Description: A {@link Future} that is completed by whoever produces its
+ * result rather than by running a task, for results that arrive from a
+ * remote call or a callback. Cancelling it only marks it cancelled, the
+ * producer finds out when its result is refused. Listeners added with
+ * {@link #addListener(Runnable)} are run by the thread that completes it.
+ * </p>
+ * 
+ * @author cmacnaug
+ * @version 1.0
+ * @param <T> The result type.
+ */
+public class SettableFuture<T> implements Future<T> {
+
+    private T result;
+    private Throwable error;
+    private boolean done;
+    private boolean cancelled;
+    private ArrayList<Runnable> listeners;
+
+    /**
+     * Completes the future with the given result.
+     * 
+     * @return false if the future was already completed or cancelled.
+     */
+    public boolean set(T result) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.result = result;
+            done = true;
+            notifyAll();
+        }
+        fireDone();
+        return true;
+    }
+
+    /**
+     * Completes the future with the given error.
+     * 
+     * @return false if the future was already completed or cancelled.
+     */
+    public boolean setException(Throwable error) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+        fireDone();
+        return true;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            notifyAll();
+        }
+        fireDone();
+        return true;
+    }
+
+    /**
+     * Adds a listener to be run once the future completes, or right away if
+     * it already has.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Runnable>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void fireDone() {
+        ArrayList<Runnable> toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+        }
+        if (toRun != null) {
+            for (Runnable listener : toRun) {
+                listener.run();
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            wait(remaining);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.classloader.basic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.util.internal.ConcurrentTestSupport;
+import org.fusesource.meshkeeper.util.internal.FileSupport;
+
+/**
+ * ExportedFileReaderTest
+ * <p>
+ * Description: Checks the chunks served by {@link ExportedFileReader} and
+ * measures server CPU and GC while a number of simulated clients pull the
+ * same class path, comparing the mapped and positional read paths with
+ * opening the file for each chunk.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ExportedFileReaderTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(ExportedFileReaderTest.class);
+
+    private static final int CHUNK_SIZE = 1024 * 64;
+    private static final int[] CLIENT_COUNTS = new int[] { 1, 8, 32 };
+    private static final int[] FILE_SIZES = new int[] { 20 * 1024, 300 * 1024, 2 * 1024 * 1024, 5 * 1024 * 1024 + 17 };
+
+    private File dir;
+    private List<File> classPath = new ArrayList<File>();
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("exported", "test");
+        dir.delete();
+        dir.mkdirs();
+        Random random = new Random(0);
+        for (int i = 0; i < FILE_SIZES.length; i++) {
+            File file = new File(dir, "lib" + i + ".jar");
+            byte[] data = new byte[FILE_SIZES[i]];
+            random.nextBytes(data);
+            FileOutputStream os = new FileOutputStream(file);
+            os.write(data);
+            os.close();
+            classPath.add(file);
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        FileSupport.recursiveDelete(dir);
+    }
+
+    public void testRead() throws Exception {
+        for (File file : classPath) {
+            byte[] expected = FileSupport.read(file, 0, (int) file.length());
+            for (boolean mmap : new boolean[] { true, false }) {
+                ExportedFileReader reader = new ExportedFileReader(file, mmap);
+                assertTrue(Arrays.equals(expected, pull(reader, file.length())));
+                assertEquals(0, reader.read(file.length(), CHUNK_SIZE).length);
+                reader.close();
+                try {
+                    reader.read(0, CHUNK_SIZE);
+                    fail("Read from a closed reader");
+                } catch (IOException expectedException) {
+                }
+            }
+        }
+    }
+
+    public void testFileRebuiltInPlace() throws Exception {
+        File file = new File(dir, "rebuilt.jar");
+        byte[] original = new byte[CHUNK_SIZE * 3];
+        Arrays.fill(original, (byte) 1);
+        writeFile(file, original);
+
+        for (boolean mmap : new boolean[] { true, false }) {
+            ExportedFileReader reader = new ExportedFileReader(file, mmap);
+            assertTrue(Arrays.equals(original, pull(reader, original.length)));
+            assertFalse(reader.isStale());
+
+            //Truncate and rewrite through the same inode, as a build does:
+            byte[] rebuilt = new byte[CHUNK_SIZE + 5];
+            Arrays.fill(rebuilt, (byte) 2);
+            writeFile(file, rebuilt);
+            file.setLastModified(file.lastModified() + 2000);
+
+            assertTrue(reader.isStale());
+            assertTrue(Arrays.equals(rebuilt, pull(reader, rebuilt.length)));
+            assertEquals(0, reader.read(CHUNK_SIZE * 2, CHUNK_SIZE).length);
+            reader.close();
+            assertTrue(reader.isClosed());
+            writeFile(file, original);
+        }
+    }
+
+    public void testJaredDirectoryReused() throws Exception {
+        File classes = new File(dir, "classes");
+        new File(classes, "org/test").mkdirs();
+        writeFile(new File(classes, "org/test/A.class"));
+
+        File first = BasicClassLoaderServer.jarDirectory(classes);
+        assertEquals(first, BasicClassLoaderServer.jarDirectory(classes));
+
+        writeFile(new File(classes, "org/test/B.class"));
+        File second = BasicClassLoaderServer.jarDirectory(classes);
+        assertFalse(first.equals(second));
+        assertEquals(second, BasicClassLoaderServer.jarDirectory(classes));
+    }
+
+    public void testServingThroughput() throws Exception {
+        for (int clients : CLIENT_COUNTS) {
+            LOG.info(measure("open per chunk", clients, null));
+            LOG.info(measure("positional read", clients, Boolean.FALSE));
+            LOG.info(measure("memory mapped", clients, Boolean.TRUE));
+        }
+    }
+
+    /**
+     * Has each client pull the whole class path in chunks and reports the CPU
+     * time used by the serving threads along with collector activity.
+     *
+     * @param mmap
+     *            null to open the file for every chunk as the server used to.
+     */
+    private String measure(String name, int clients, Boolean mmap) throws Exception {
+        final List<ExportedFileReader> readers = new ArrayList<ExportedFileReader>();
+        for (File file : classPath) {
+            readers.add(mmap == null ? null : new ExportedFileReader(file, mmap.booleanValue()));
+        }
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final AtomicLong cpu = new AtomicLong();
+        long gcCount = -gcCount();
+        long gcTime = -gcTime();
+
+        long elapsed;
+        try {
+            elapsed = ConcurrentTestSupport.run("Classpath Client " + name, clients, new ConcurrentTestSupport.Task() {
+                public void run(int thread) throws Exception {
+                    long begin = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+                    for (int f = 0; f < classPath.size(); f++) {
+                        File file = classPath.get(f);
+                        ExportedFileReader reader = readers.get(f);
+                        for (long pos = 0; pos < file.length(); pos += CHUNK_SIZE) {
+                            byte[] chunk = reader == null ? FileSupport.read(file, pos, CHUNK_SIZE) : reader.read(pos, CHUNK_SIZE);
+                            if (chunk.length != Math.min(CHUNK_SIZE, file.length() - pos)) {
+                                throw new AssertionError("Bad chunk from " + file + " at " + pos);
+                            }
+                        }
+                    }
+                    if (threads.isCurrentThreadCpuTimeSupported()) {
+                        cpu.addAndGet(threads.getCurrentThreadCpuTime() - begin);
+                    }
+                }
+            });
+        } finally {
+            for (ExportedFileReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+        gcCount += gcCount();
+        gcTime += gcTime();
+
+        return name + " with " + clients + " clients: elapsed=" + elapsed / 1000000 + "ms cpu=" + cpu.get() / 1000000 + "ms gc.count=" + gcCount + " gc.time=" + gcTime + "ms";
+    }
+
+    private static byte[] pull(ExportedFileReader reader, long length) throws IOException {
+        byte[] rc = new byte[(int) length];
+        for (int pos = 0; pos < length; pos += CHUNK_SIZE) {
+            byte[] chunk = reader.read(pos, CHUNK_SIZE);
+            System.arraycopy(chunk, 0, rc, pos, chunk.length);
+        }
+        return rc;
+    }
+
+    private static long gcCount() {
+        long rc = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            rc += Math.max(0, gc.getCollectionCount());
+        }
+        return rc;
+    }
+
+    private static long gcTime() {
+        long rc = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            rc += Math.max(0, gc.getCollectionTime());
+        }
+        return rc;
+    }
+
+    private static void writeFile(File file) throws IOException {
+        writeFile(file, file.getName().getBytes());
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(data);
+        os.close();
+    }
+}
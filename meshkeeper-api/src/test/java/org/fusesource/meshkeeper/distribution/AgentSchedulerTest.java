@@ -0,0 +1,213 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.fusesource.meshkeeper.AgentLoad;
+import org.fusesource.meshkeeper.HostProperties;
+import org.fusesource.meshkeeper.MeshKeeper.Registry;
+import org.fusesource.meshkeeper.launcher.LaunchAgentService;
+import org.fusesource.meshkeeper.util.SchedulingPolicies;
+
+/**
+ * AgentSchedulerTest
+ * <p>
+ * Description: Checks that the {@link AgentScheduler} spreads a batch of
+ * launches over agents in proportion to their size and existing load, counting
+ * its own placements between load publications, that a slow load read doesn't
+ * block scheduling, and that the pack, affinity and free memory policies
+ * choose the expected agents.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class AgentSchedulerTest extends TestCase {
+
+    private final HashMap<String, AgentLoad> published = new HashMap<String, AgentLoad>();
+    private volatile CountDownLatch readBlocker;
+    private volatile CountDownLatch reading;
+    private long timestamp;
+    private AgentScheduler scheduler;
+    private HostProperties[] agents;
+
+    protected void setUp() throws Exception {
+        Registry registry = (Registry) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Registry.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getRegistryObjects") && args[0].equals(LaunchAgentService.LAUNCH_AGENT_LOAD_PATH)) {
+                    HashMap<String, AgentLoad> rc = new HashMap<String, AgentLoad>(published);
+                    CountDownLatch blocker = readBlocker;
+                    if (blocker != null) {
+                        reading.countDown();
+                        blocker.await();
+                    }
+                    return rc;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        scheduler = new AgentScheduler(registry);
+        agents = new HostProperties[] { host("a", 2), host("b", 4), host("c", 2) };
+    }
+
+    public void testSpread() throws Exception {
+        publish("a", 2, 4, 0.5, 8L << 30);
+        publish("b", 4, 0, 0, 8L << 30);
+        //c hasn't published its load yet and counts as idle.
+
+        HashMap<String, Integer> counts = schedule(20);
+        //a starts with 2 processes per processor plus half its cpu, so takes
+        //few until the others have caught up at about 3 per processor:
+        assertEquals(Integer.valueOf(2), counts.get("A"));
+        assertEquals(Integer.valueOf(12), counts.get("B"));
+        assertEquals(Integer.valueOf(6), counts.get("C"));
+
+        List<AgentLoad> loads = scheduler.getLoads(agents);
+        assertEquals("A", loads.get(0).getAgentId());
+        assertEquals(6, loads.get(0).getScheduledProcesses());
+        assertEquals(12, loads.get(1).getPendingLaunches());
+    }
+
+    public void testPlacementsClearedByNewerLoad() throws Exception {
+        publish("a", 2, 0, 0, -1);
+        publish("b", 2, 0, 0, -1);
+        publish("c", 2, 0, 0, -1);
+
+        schedule(6);
+        assertEquals(2, scheduler.getLoads(agents).get(1).getPendingLaunches());
+
+        //b publishes a load that may predate the placements, so they are
+        //still counted:
+        publish("b", 2, 2, 0, -1);
+        scheduler.refresh();
+        assertEquals(4, scheduler.getLoads(agents).get(1).getScheduledProcesses());
+
+        //The next publication covers them:
+        publish("b", 2, 2, 0, -1);
+        scheduler.refresh();
+        List<AgentLoad> loads = scheduler.getLoads(agents);
+        assertEquals(0, loads.get(1).getPendingLaunches());
+        assertEquals(2, loads.get(1).getScheduledProcesses());
+        //The others haven't published again:
+        assertEquals(2, loads.get(0).getPendingLaunches());
+        assertEquals(2, loads.get(2).getPendingLaunches());
+    }
+
+    public void testSlowReadDoesntBlockScheduling() throws Exception {
+        publish("a", 2, 0, 0, -1);
+        publish("b", 2, 4, 0, -1);
+        publish("c", 2, 4, 0, -1);
+        scheduler.getLoads(agents);
+
+        readBlocker = new CountDownLatch(1);
+        reading = new CountDownLatch(1);
+        Thread reader = new Thread("Reader") {
+            public void run() {
+                scheduler.refresh();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            assertTrue(reading.await(10, TimeUnit.SECONDS));
+            //Scheduled from the last snapshot while the read is stuck:
+            assertEquals("A", scheduler.schedule(agents));
+            assertTrue(reader.isAlive());
+        } finally {
+            readBlocker.countDown();
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+    }
+
+    public void testPack() throws Exception {
+        publish("a", 2, 3, -1, -1);
+        publish("b", 4, 1, -1, -1);
+        publish("c", 2, 0, -1, -1);
+        scheduler.setPolicy(SchedulingPolicies.pack(4));
+
+        HashMap<String, Integer> counts = schedule(8);
+        assertEquals(Integer.valueOf(1), counts.get("A"));
+        assertEquals(Integer.valueOf(3), counts.get("B"));
+        assertEquals(Integer.valueOf(4), counts.get("C"));
+
+        try {
+            scheduler.schedule(agents);
+            fail("Scheduled on a full agent");
+        } catch (Exception expected) {
+        }
+    }
+
+    public void testAffinityAndFreeMemory() throws Exception {
+        publish("a", 2, 0, 0, 1L << 30);
+        publish("b", 4, 0, 0, 1L << 30);
+        publish("c", 2, 6, 0.9, 16L << 30);
+
+        scheduler.setPolicy(SchedulingPolicies.requireFreeMemory(SchedulingPolicies.spread(), 4L << 30));
+        assertEquals("C", scheduler.schedule(agents));
+
+        scheduler.setPolicy(SchedulingPolicies.affinity(SchedulingPolicies.pack(2), "a"));
+        assertEquals("A", scheduler.schedule(agents));
+        assertEquals("A", scheduler.schedule(agents));
+        //a is full, falls back to the others:
+        assertEquals("B", scheduler.schedule(agents));
+    }
+
+    private HashMap<String, Integer> schedule(int launches) throws Exception {
+        HashMap<String, Integer> rc = new HashMap<String, Integer>();
+        for (int i = 0; i < launches; i++) {
+            String agentId = scheduler.schedule(agents);
+            Integer count = rc.get(agentId);
+            rc.put(agentId, count == null ? 1 : count + 1);
+        }
+        return rc;
+    }
+
+    private void publish(String agentId, int processors, int processes, double cpu, long freeMemory) {
+        AgentLoad load = new AgentLoad();
+        load.setAgentId(agentId.toUpperCase());
+        load.setTimestamp(++timestamp);
+        load.setInterval(60000);
+        load.setNumProcessors(processors);
+        load.setProcessCount(processes);
+        load.setCpuLoad(cpu);
+        load.setFreeMemory(freeMemory);
+        published.put(LaunchAgentService.LAUNCH_AGENT_LOAD_PATH + "/" + load.getAgentId(), load);
+    }
+
+    private static HostProperties host(final String agentId, final int processors) {
+        return (HostProperties) Proxy.newProxyInstance(AgentSchedulerTest.class.getClassLoader(), new Class[] { HostProperties.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getAgentId")) {
+                    return agentId.toUpperCase();
+                } else if (method.getName().equals("getNumProcessors")) {
+                    return processors;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
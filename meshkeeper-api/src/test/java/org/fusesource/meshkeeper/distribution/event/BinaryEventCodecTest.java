@@ -0,0 +1,136 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.MeshEvent;
+import org.fusesource.meshkeeper.util.internal.ClassLoadingAwareObjectInputStream;
+import org.fusesource.meshkeeper.util.internal.ConcurrentTestSupport;
+
+/**
+ * BinaryEventCodecTest
+ * <p>
+ * Description: Checks that the {@link BinaryEventCodec} round trips events
+ * and encodes them smaller than the java serialization used by object
+ * messages. With <code>meshkeeper.benchmark</code> set it also compares
+ * their encode and decode cost.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class BinaryEventCodecTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(BinaryEventCodecTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = Integer.getInteger("meshkeeper.benchmark.iterations", 100000);
+
+    private static final Object[] ATTACHMENTS = new Object[] { null, "heartbeat", new byte[128], new Integer(42), new Long(System.currentTimeMillis()), new Double(0.5), Boolean.TRUE,
+            new Character('c'), new ArrayList<String>(Arrays.asList("a", "b")) };
+
+    public void testRoundTrip() throws Exception {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        for (Object attachment : ATTACHMENTS) {
+            MeshEvent event = new MeshEvent(7, "container-1", attachment);
+            MeshEvent decoded = codec.decode(codec.encode(event));
+            assertEquals(7, decoded.getType());
+            assertEquals("container-1", decoded.getSource());
+            if (attachment instanceof byte[]) {
+                assertTrue(Arrays.equals((byte[]) attachment, (byte[]) decoded.getAttachment()));
+            } else {
+                assertEquals(attachment, decoded.getAttachment());
+            }
+        }
+
+        MeshEvent empty = codec.decode(codec.encode(new MeshEvent()));
+        assertNull(empty.getSource());
+        assertNull(empty.getAttachment());
+    }
+
+    public void testEncodedSize() throws Exception {
+        BinaryEventCodec codec = new BinaryEventCodec();
+        for (Object attachment : ATTACHMENTS) {
+            MeshEvent event = new MeshEvent(3, "container-1", attachment);
+            int serialized = encode(event, null).length;
+            int binary = encode(event, codec).length;
+            assertTrue("Binary encoding of " + attachment + " is " + binary + " bytes, serialized is " + serialized, binary < serialized);
+        }
+    }
+
+    public void testEncodingCost() throws Exception {
+        if (!ConcurrentTestSupport.BENCHMARK) {
+            return;
+        }
+        BinaryEventCodec codec = new BinaryEventCodec();
+        for (Object attachment : new Object[] { null, new Long(123456789L), "heartbeat from container-1", new byte[1024] }) {
+            MeshEvent event = new MeshEvent(3, "container-1", attachment);
+            String name = attachment == null ? "null" : attachment.getClass().getSimpleName();
+            LOG.info(measure("serialized " + name, event, null));
+            LOG.info(measure("binary " + name, event, codec));
+        }
+    }
+
+    private String measure(String name, MeshEvent event, EventCodec codec) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            decode(encode(event, codec), codec);
+        }
+
+        byte[] data = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            data = encode(event, codec);
+        }
+        long encode = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decode(data, codec);
+        }
+        long decode = System.nanoTime() - begin;
+
+        return name + ": bytes=" + data.length + " encode=" + encode / ITERATIONS + "ns decode=" + decode / ITERATIONS + "ns";
+    }
+
+    private static byte[] encode(MeshEvent event, EventCodec codec) throws IOException {
+        if (codec != null) {
+            return codec.encode(event);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(event);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    private static MeshEvent decode(byte[] data, EventCodec codec) throws Exception {
+        if (codec != null) {
+            return codec.decode(data);
+        }
+        return (MeshEvent) new ClassLoadingAwareObjectInputStream(new ByteArrayInputStream(data)).readObject();
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.event.vm;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.fusesource.meshkeeper.MeshEvent;
+import org.fusesource.meshkeeper.MeshEventListener;
+import org.fusesource.meshkeeper.util.internal.ConcurrentTestSupport;
+
+/**
+ * VMEventServerTest
+ * <p>
+ * Description: Checks that the {@link VMEventServer} delivers each topic's
+ * events in the order they were sent, across batches and with several topics
+ * dispatching at once, and that listeners being added and removed while a
+ * topic dispatches neither lose events for the other listeners nor receive
+ * events after their removal.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class VMEventServerTest extends TestCase {
+
+    private static final int TOPICS = 4;
+    private static final int SENDERS = 4;
+    //Several batches worth per sender:
+    private static final int EVENTS = VMEventServer.MAX_BATCH_SIZE * 4 + 17;
+    private static final long TIMEOUT = 30000;
+
+    private VMEventServer server;
+
+    protected void setUp() throws Exception {
+        server = new VMEventServer();
+        server.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.destroy();
+    }
+
+    public void testOrdering() throws Exception {
+        final CountDownLatch received = new CountDownLatch(TOPICS * SENDERS * EVENTS);
+        final OrderingListener[] listeners = new OrderingListener[TOPICS];
+        for (int t = 0; t < TOPICS; t++) {
+            listeners[t] = new OrderingListener(received);
+            server.openEventListener(listeners[t], "topic" + t);
+        }
+
+        ConcurrentTestSupport.run("Event Sender", SENDERS, new ConcurrentTestSupport.Task() {
+            public void run(int thread) throws Exception {
+                for (int i = 0; i < EVENTS; i++) {
+                    for (int t = 0; t < TOPICS; t++) {
+                        server.sendEvent(new MeshEvent(i, "sender" + thread, null), "topic" + t);
+                    }
+                }
+            }
+        });
+
+        assertTrue("Timed out waiting for events", received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int t = 0; t < TOPICS; t++) {
+            assertNull(listeners[t].error.get(), listeners[t].error.get());
+            for (int s = 0; s < SENDERS; s++) {
+                assertEquals(Integer.valueOf(EVENTS - 1), listeners[t].last.get("sender" + s));
+            }
+            server.closeEventListener(listeners[t], "topic" + t);
+        }
+    }
+
+    public void testConcurrentListenerChanges() throws Exception {
+        final CountDownLatch received = new CountDownLatch(EVENTS);
+        final OrderingListener stable = new OrderingListener(received);
+        server.openEventListener(stable, "churn");
+
+        final int churners = 4;
+        final CountingListener[] transients = new CountingListener[churners];
+        for (int i = 0; i < churners; i++) {
+            transients[i] = new CountingListener();
+        }
+
+        //One sender and several threads adding and removing listeners:
+        ConcurrentTestSupport.run("Listener Churn", churners + 1, new ConcurrentTestSupport.Task() {
+            public void run(int thread) throws Exception {
+                if (thread == churners) {
+                    for (int i = 0; i < EVENTS; i++) {
+                        server.sendEvent(new MeshEvent(i, "sender", null), "churn");
+                    }
+                } else {
+                    for (int i = 0; i < EVENTS / 8; i++) {
+                        server.openEventListener(transients[thread], "churn");
+                        Thread.yield();
+                        server.closeEventListener(transients[thread], "churn");
+                    }
+                }
+            }
+        });
+
+        assertTrue("Timed out waiting for events", received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNull(stable.error.get(), stable.error.get());
+        assertEquals(Integer.valueOf(EVENTS - 1), stable.last.get("sender"));
+
+        //A batch being dispatched when a listener is closed may still reach
+        //it, so wait for a barrier event to be dispatched before counting.
+        //Events sent after that only reach the open listeners:
+        final AtomicReference<CountDownLatch> barrier = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+        server.openEventListener(new MeshEventListener() {
+            public void onEvent(MeshEvent event) {
+                barrier.get().countDown();
+            }
+        }, "churn");
+        server.sendEvent(new MeshEvent(EVENTS, "sender", null), "churn");
+        assertTrue(barrier.get().await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        int[] counts = new int[churners];
+        for (int i = 0; i < churners; i++) {
+            counts[i] = transients[i].count.get();
+        }
+        barrier.set(new CountDownLatch(1));
+        server.sendEvent(new MeshEvent(EVENTS + 1, "sender", null), "churn");
+        assertTrue(barrier.get().await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(EVENTS + 1), stable.last.get("sender"));
+        for (int i = 0; i < churners; i++) {
+            assertEquals(counts[i], transients[i].count.get());
+        }
+    }
+
+    /**
+     * Checks that the events from each sender arrive numbered in sequence.
+     */
+    private static class OrderingListener implements MeshEventListener {
+        //Only touched by the topic's dispatcher:
+        final HashMap<String, Integer> last = new HashMap<String, Integer>();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final CountDownLatch received;
+
+        OrderingListener(CountDownLatch received) {
+            this.received = received;
+        }
+
+        public void onEvent(MeshEvent event) {
+            Integer previous = last.get(event.getSource());
+            int expected = previous == null ? 0 : previous + 1;
+            if (event.getType() != expected) {
+                error.compareAndSet(null, "Expected " + expected + " from " + event.getSource() + " but got " + event.getType());
+            }
+            last.put(event.getSource(), event.getType());
+            received.countDown();
+        }
+    }
+
+    private static class CountingListener implements MeshEventListener {
+        final AtomicInteger count = new AtomicInteger();
+
+        public void onEvent(MeshEvent event) {
+            count.incrementAndGet();
+        }
+    }
+}
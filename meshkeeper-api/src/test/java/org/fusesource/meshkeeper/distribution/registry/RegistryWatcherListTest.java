@@ -0,0 +1,119 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+import org.fusesource.meshkeeper.RegistryWatcher;
+
+/**
+ * RegistryWatcherListTest
+ * <p>
+ * Description: Checks the added and removed children computed by
+ * {@link RegistryWatcherList}, that a delta watcher is first given the full
+ * children and that adding it again doesn't repeat that.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class RegistryWatcherListTest extends TestCase {
+
+    private static final String PATH = "/test";
+
+    private RegistryWatcherList list;
+    private RecordingWatcher delta;
+    private List<List<String>> full;
+
+    protected void setUp() throws Exception {
+        list = new RegistryWatcherList(PATH);
+        delta = new RecordingWatcher();
+        full = new ArrayList<List<String>>();
+    }
+
+    public void testFirstUpdateIsFullSnapshot() throws Exception {
+        assertTrue(list.add(delta));
+        list.update(Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("+[a, b] -[]"), delta.calls);
+
+        //A watcher added later starts from the current children too:
+        RecordingWatcher late = new RecordingWatcher();
+        list.add(late);
+        list.update(Arrays.asList("a", "b", "c"));
+        assertEquals(Arrays.asList("+[a, b] -[]", "+[c] -[]"), delta.calls);
+        assertEquals(Arrays.asList("+[a, b, c] -[]"), late.calls);
+    }
+
+    public void testDeltas() throws Exception {
+        list.add(delta);
+        list.add(new RegistryWatcher() {
+            public void onChildrenChanged(String path, List<String> children) {
+                full.add(children);
+            }
+        });
+        list.update(Arrays.asList("a", "b", "c"));
+        list.update(Arrays.asList("a", "c", "d", "e"));
+        list.update(Collections.<String> emptyList());
+
+        assertEquals(Arrays.asList("+[a, b, c] -[]", "+[d, e] -[b]", "+[] -[a, c, d, e]"), delta.calls);
+        assertEquals(3, full.size());
+        assertEquals(Arrays.asList("a", "c", "d", "e"), full.get(1));
+    }
+
+    public void testUnchangedChildrenNotNotified() throws Exception {
+        list.add(delta);
+        list.update(Arrays.asList("a"));
+        list.update(Arrays.asList("a"));
+        list.update((List<String>) null);
+        list.update((List<String>) null);
+        assertEquals(Arrays.asList("+[a] -[]", "+[] -[a]"), delta.calls);
+    }
+
+    public void testReaddDoesntReinitialize() throws Exception {
+        list.add(delta);
+        list.update(Arrays.asList("a"));
+        assertFalse(list.add(delta));
+        list.update(Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("+[a] -[]", "+[b] -[]"), delta.calls);
+
+        assertTrue(list.remove(delta));
+        assertTrue(list.add(delta));
+        list.update(Arrays.asList("a", "b"));
+        assertEquals("+[a, b] -[]", delta.calls.get(2));
+    }
+
+    private static class RecordingWatcher implements RegistryDeltaWatcher {
+        final List<String> calls = new ArrayList<String>();
+
+        public void onChildrenChanged(String path, List<String> added, List<String> removed) {
+            assertEquals(PATH, path);
+            List<String> sortedRemoved = new ArrayList<String>(removed);
+            Collections.sort(sortedRemoved);
+            calls.add("+" + added + " -" + sortedRemoved);
+        }
+
+        public void onChildrenChanged(String path, List<String> children) {
+            fail("Delta watcher given full children");
+        }
+    }
+}
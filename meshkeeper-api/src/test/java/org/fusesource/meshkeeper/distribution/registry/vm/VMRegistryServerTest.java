@@ -0,0 +1,282 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry.vm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.util.internal.ConcurrentTestSupport;
+
+/**
+ * VMRegistryServerTest
+ * <p>
+ * Description: Checks that both in VM registry engines honor the registry
+ * semantics, including under concurrent use, and compares their throughput
+ * as the number of threads grows when benchmarks are enabled.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class VMRegistryServerTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(VMRegistryServerTest.class);
+
+    private static final int[] THREAD_COUNTS = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+    private static final int OPS_PER_THREAD = 2000;
+    private static final int CONCURRENT_THREADS = 8;
+    private static final int CONCURRENT_NODES = 100;
+
+    AbstractVMRegistryServer locking;
+    AbstractVMRegistryServer concurrent;
+
+    protected void setUp() throws Exception {
+        locking = new VMRegistryServer();
+        locking.start();
+        concurrent = new ConcurrentVMRegistryServer();
+        concurrent.start();
+    }
+
+    protected void tearDown() throws Exception {
+        locking.destroy();
+        concurrent.destroy();
+    }
+
+    public void testSequentialNodes() throws Exception {
+        doTestSequentialNodes(locking);
+        doTestSequentialNodes(concurrent);
+    }
+
+    public void testRecursiveList() throws Exception {
+        doTestRecursiveList(locking);
+        doTestRecursiveList(concurrent);
+    }
+
+    public void testRecursiveDelete() throws Exception {
+        doTestRecursiveDelete(locking);
+        doTestRecursiveDelete(concurrent);
+    }
+
+    public void testUpdate() throws Exception {
+        doTestUpdate(locking);
+        doTestUpdate(concurrent);
+    }
+
+    public void testRegistryWatcher() throws Exception {
+        doTestRegistryWatcher(locking);
+        doTestRegistryWatcher(concurrent);
+    }
+
+    public void testDeltaWatcher() throws Exception {
+        doTestDeltaWatcher(locking);
+        doTestDeltaWatcher(concurrent);
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        doTestConcurrentAccess(locking);
+        doTestConcurrentAccess(concurrent);
+    }
+
+    public void testThroughput() throws Exception {
+        if (!ConcurrentTestSupport.BENCHMARK) {
+            return;
+        }
+        for (int threads : THREAD_COUNTS) {
+            long lockingRate = measure(new VMRegistryServer(), threads);
+            long concurrentRate = measure(new ConcurrentVMRegistryServer(), threads);
+            LOG.info("Registry ops/sec with " + threads + " threads: " + locking.getName() + "=" + lockingRate + " " + concurrent.getName() + "=" + concurrentRate);
+        }
+    }
+
+    private void doTestSequentialNodes(AbstractVMRegistryServer server) throws Exception {
+        String first = server.addData("/seq/node", true, new byte[1]);
+        String second = server.addData("/seq/node", true, new byte[1]);
+        assertEquals("/seq/node0000000001", first);
+        assertEquals("/seq/node0000000002", second);
+        assertNotNull(server.getData(second));
+
+        server.addData("/seq/fixed", false, new byte[1]);
+        try {
+            server.addData("/seq/fixed", false, new byte[1]);
+            fail("Expected duplicate node to be rejected by " + server.getName());
+        } catch (Exception expected) {
+        }
+    }
+
+    private void doTestRecursiveList(AbstractVMRegistryServer server) throws Exception {
+        server.addData("/list/a/b", false, new byte[1]);
+        server.addData("/list/a/c", false, new byte[1]);
+        server.addData("/list/d/e", false, new byte[1]);
+
+        Collection<String> all = server.list("/list", true);
+        assertEquals(3, all.size());
+        assertTrue(all.contains("/list/a/b"));
+        assertTrue(all.contains("/list/d/e"));
+
+        Collection<String> filtered = server.list("/list", true, "/list/a");
+        assertEquals(1, filtered.size());
+        assertTrue(filtered.contains("/list/d/e"));
+    }
+
+    private void doTestRecursiveDelete(AbstractVMRegistryServer server) throws Exception {
+        server.addData("/delete/a/b", true, new byte[100]);
+        server.addData("/delete/d/e", false, new byte[100]);
+        server.addData("/delete/f", false, new byte[100]);
+
+        server.remove("/delete/f", false);
+        assertNull(server.getData("/delete/f"));
+        assertNotNull(server.getData("/delete/d/e"));
+
+        try {
+            server.remove("/delete/d", false);
+            fail("Expected non recursive remove of a parent to be rejected by " + server.getName());
+        } catch (Exception expected) {
+        }
+        assertNotNull(server.getData("/delete/d/e"));
+
+        server.remove("/delete", true);
+        assertNull(server.getData("/delete/d/e"));
+        assertTrue(server.list("/", true).isEmpty());
+    }
+
+    private void doTestUpdate(AbstractVMRegistryServer server) throws Exception {
+        //Creates a missing node:
+        server.updateObject("/update/node", "first");
+        assertEquals("first", server.getObject("/update/node"));
+
+        server.updateObject("/update/node", "second");
+        assertEquals("second", server.getObject("/update/node"));
+        assertEquals(1, server.list("/update", true).size());
+    }
+
+    private void doTestRegistryWatcher(AbstractVMRegistryServer server) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<List<String>> last = new AtomicReference<List<String>>();
+        RegistryWatcher watcher = new RegistryWatcher() {
+            public void onChildrenChanged(String path, List<String> children) {
+                if (children.contains("node")) {
+                    last.set(children);
+                    latch.countDown();
+                }
+            }
+        };
+
+        server.addRegistryWatcher("/watch", watcher);
+        server.addData("/watch/node", false, new byte[1]);
+        assertTrue("No watch event from " + server.getName(), latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, last.get().size());
+        server.removeRegistryWatcher("/watch", watcher);
+    }
+
+    private void doTestDeltaWatcher(AbstractVMRegistryServer server) throws Exception {
+        final LinkedBlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        RegistryDeltaWatcher watcher = new RegistryDeltaWatcher() {
+            public void onChildrenChanged(String path, List<String> children) {
+                events.add("full " + children);
+            }
+
+            public void onChildrenChanged(String path, List<String> added, List<String> removed) {
+                events.add("+" + added + " -" + removed);
+            }
+        };
+
+        server.addData("/delta/a", false, new byte[1]);
+        server.addRegistryWatcher("/delta", watcher);
+        assertEquals("+[a] -[]", events.poll(10, TimeUnit.SECONDS));
+
+        server.addData("/delta/b", false, new byte[1]);
+        assertEquals("+[b] -[]", events.poll(10, TimeUnit.SECONDS));
+
+        server.remove("/delta/a", false);
+        assertEquals("+[] -[a]", events.poll(10, TimeUnit.SECONDS));
+        server.removeRegistryWatcher("/delta", watcher);
+        server.remove("/delta", true);
+    }
+
+    /**
+     * Has a number of threads add sequential nodes under shared parents,
+     * reading them back and removing every other one as they go, then checks
+     * that no node was lost, duplicated or left behind.
+     */
+    private void doTestConcurrentAccess(final AbstractVMRegistryServer server) throws Exception {
+        final Set<String> kept = Collections.synchronizedSet(new HashSet<String>());
+        ConcurrentTestSupport.run("Registry Access " + server.getName(), CONCURRENT_THREADS, new ConcurrentTestSupport.Task() {
+            public void run(int thread) throws Exception {
+                for (int i = 0; i < CONCURRENT_NODES; i++) {
+                    //Threads share parents so that they race on the sequence:
+                    String path = server.addData("/conc/p" + (i / 2 % 4) + "/n", true, new byte[] { (byte) thread });
+                    if (server.getData(path)[0] != (byte) thread) {
+                        throw new AssertionError("Wrong data at " + path);
+                    }
+                    if (i % 2 == 0) {
+                        server.remove(path, false);
+                    } else if (!kept.add(path)) {
+                        throw new AssertionError("Duplicate node " + path);
+                    }
+                }
+            }
+        });
+
+        assertEquals(CONCURRENT_THREADS * CONCURRENT_NODES / 2, kept.size());
+        assertEquals(kept, new HashSet<String>(server.list("/conc", true)));
+        server.remove("/conc", true);
+    }
+
+    private long measure(final AbstractVMRegistryServer server, int threads) throws Exception {
+        server.start();
+        long elapsed;
+        try {
+            elapsed = ConcurrentTestSupport.run("Registry Bench " + server.getName(), threads, new ConcurrentTestSupport.Task() {
+                public void run(int thread) throws Exception {
+                    String base = "/bench/t" + thread + "/n";
+                    String last = server.addData(base, true, new byte[64]);
+                    for (int op = 1; op < OPS_PER_THREAD; op++) {
+                        //1 write, 8 reads, 1 list:
+                        switch (op % 10) {
+                        case 0:
+                            last = server.addData(base, true, new byte[64]);
+                            break;
+                        case 9:
+                            server.list(base.substring(0, base.lastIndexOf("/")), true);
+                            break;
+                        default:
+                            if (server.getData(last) == null) {
+                                throw new AssertionError("Missing " + last);
+                            }
+                        }
+                    }
+                }
+            });
+        } finally {
+            server.destroy();
+        }
+        return (long) threads * OPS_PER_THREAD * 1000000000L / Math.max(elapsed, 1);
+    }
+}
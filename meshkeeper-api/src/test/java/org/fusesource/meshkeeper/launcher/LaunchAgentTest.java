@@ -0,0 +1,411 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.IndependentLaunchTask;
+import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.LaunchTask;
+import org.fusesource.meshkeeper.MeshKeeper;
+import org.fusesource.meshkeeper.MeshProcessListener;
+import org.fusesource.meshkeeper.RegistryDeltaWatcher;
+import org.fusesource.meshkeeper.util.DefaultProcessListener;
+import org.fusesource.meshkeeper.util.OutputFilter;
+import org.fusesource.meshkeeper.util.internal.ExecutorSupport;
+import org.fusesource.meshkeeper.util.internal.FileSupport;
+import org.fusesource.meshkeeper.util.internal.ProcessSupport;
+
+/**
+ * LaunchAgentTest
+ * <p>
+ * Description: Checks that launches on a {@link LaunchAgent} run
+ * concurrently, that a slow launch doesn't hold up others and that the launch
+ * metrics add up, that independent pre-launch tasks run concurrently while
+ * others keep their order, that output filters are applied on the agent,
+ * that output is coalesced, or dropped, for a slow listener rather than
+ * holding up the pump, and that processes are killed when their launch client
+ * leaves the registry. Launches are simulated by processes whose start up sleeps,
+ * standing in for a classpath download, and the agent runs against a stub
+ * {@link MeshKeeper}.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LaunchAgentTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(LaunchAgentTest.class);
+
+    private static final long LAUNCH_TIME = 250;
+
+    private static final String CLIENTS = MeshKeeper.Launcher.LAUNCHER_REGISTRY_PATH;
+
+    private File dir;
+    private LaunchAgent agent;
+    private RegistryDeltaWatcher clientWatcher;
+    private final AtomicInteger registryLookups = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Boolean> killed = new ConcurrentHashMap<Integer, Boolean>();
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("agent", "test");
+        dir.delete();
+        dir.mkdirs();
+
+        agent = new LaunchAgent() {
+            protected LocalProcess createLocalProcess(LaunchDescription launchDescription, MeshProcessListener handler, final int pid) throws Exception {
+                final long launchTime = Long.parseLong(launchDescription.getCommand().get(0).evaluate());
+                return new LocalProcess(this, launchDescription, handler, pid) {
+                    public void start() throws Exception {
+                        Thread.sleep(launchTime);
+                        getMetrics().setBootstrapTime(launchTime * 1000000);
+                    }
+
+                    public void kill() throws Exception {
+                        killed.put(pid, Boolean.TRUE);
+                        getProcessLauncher().onProcessExit(this, -1);
+                    }
+                };
+            }
+        };
+        agent.setDirectory(dir);
+        agent.setAgentId("test-agent");
+        agent.setMeshKeeper((MeshKeeper) stub(MeshKeeper.class));
+        agent.start();
+    }
+
+    protected void tearDown() throws Exception {
+        agent.stop();
+        FileSupport.recursiveDelete(dir);
+    }
+
+    public void testBatchLaunchesConcurrently() throws Exception {
+        int count = 8;
+        ArrayList<LaunchDescription> lds = new ArrayList<LaunchDescription>();
+        ArrayList<MeshProcessListener> listeners = new ArrayList<MeshProcessListener>();
+        for (int i = 0; i < count; i++) {
+            lds.add(launch(LAUNCH_TIME));
+            listeners.add(null);
+        }
+
+        long begin = System.currentTimeMillis();
+        List<LaunchResult> results = agent.launch(lds, "/launchers/test", listeners);
+        long elapsed = System.currentTimeMillis() - begin;
+
+        assertEquals(count, results.size());
+        for (LaunchResult result : results) {
+            assertNull(result.getError());
+        }
+        assertTrue("Launches were serialized: " + elapsed + "ms", elapsed < count * LAUNCH_TIME);
+
+        LaunchAgentMetrics metrics = agent.getLaunchMetrics();
+        LOG.info("Batch of " + count + " launches in " + elapsed + "ms: " + metrics);
+        assertEquals(count, metrics.getCompletedLaunches());
+        assertEquals(0, metrics.getFailedLaunches());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(LAUNCH_TIME * 1000000, metrics.getMaxTime(LaunchAgentMetrics.BOOTSTRAP));
+    }
+
+    public void testSlowLaunchDoesntBlock() throws Exception {
+        Thread slow = new Thread("Slow Launch") {
+            public void run() {
+                try {
+                    agent.launch(launch(LAUNCH_TIME * 8), "/launchers/slow", null);
+                } catch (Exception e) {
+                    LOG.error("Slow launch failed", e);
+                }
+            }
+        };
+        slow.start();
+        Thread.sleep(50);
+
+        long begin = System.currentTimeMillis();
+        agent.launch(launch(10), "/launchers/fast", null);
+        long elapsed = System.currentTimeMillis() - begin;
+        assertTrue("Fast launch waited on slow launch: " + elapsed + "ms", elapsed < LAUNCH_TIME * 4);
+        slow.join();
+    }
+
+    public void testRogueProcessesKilledOnClientRemoval() throws Exception {
+        clientWatcher.onChildrenChanged(CLIENTS, Arrays.asList("a", "b"), Collections.<String> emptyList());
+        agent.launch(launch(0), CLIENTS + "/a", null);
+        agent.launch(launch(0), CLIENTS + "/b", null);
+        agent.launch(launch(0), CLIENTS + "/a", null);
+
+        //Live clients are known from the watch:
+        agent.checkForRogueProcesses();
+        assertEquals(0, registryLookups.get());
+        assertTrue(killed.isEmpty());
+
+        clientWatcher.onChildrenChanged(CLIENTS, Collections.<String> emptyList(), Arrays.asList("a"));
+        for (int i = 0; i < 50 && killed.size() < 2; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 2)), killed.keySet());
+
+        //A client the watch hasn't reported yet is looked up:
+        agent.launch(launch(0), CLIENTS + "/c", null);
+        agent.checkForRogueProcesses();
+        assertEquals(1, registryLookups.get());
+        assertTrue(killed.containsKey(3));
+        assertFalse(killed.containsKey(1));
+    }
+
+    public void testPreLaunchTasks() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        LaunchDescription ld = launch(0);
+        for (int i = 0; i < 4; i++) {
+            ld.getPreLaunchTasks().add(new SleepTask("resource" + i, LAUNCH_TIME, order));
+        }
+        ld.getPreLaunchTasks().add(new LaunchTask() {
+            public void execute(LocalProcess process) throws Exception {
+                order.add("setup");
+            }
+
+            public String toString() {
+                return "setup";
+            }
+        });
+        ld.getPreLaunchTasks().add(new SleepTask("resource4", 0, order));
+
+        LocalProcess process = new LocalProcess(agent, ld, null, 99);
+        long begin = System.currentTimeMillis();
+        process.runPreLaunchTasks();
+        long elapsed = System.currentTimeMillis() - begin;
+
+        LOG.info("Pre-launch tasks in " + elapsed + "ms: " + process.getMetrics().getTaskTimes());
+        assertTrue("Independent tasks were serialized: " + elapsed + "ms", elapsed < 4 * LAUNCH_TIME);
+        assertEquals(6, order.size());
+        assertEquals("setup", order.get(4));
+        assertEquals("resource4", order.get(5));
+        assertEquals(6, process.getMetrics().getTaskTimes().size());
+        assertTrue(process.getMetrics().getTaskTimes().get("0: resource0") >= LAUNCH_TIME * 1000000);
+    }
+
+    public void testPreLaunchTaskTimesKeyedByPosition() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        LaunchDescription ld = launch(0);
+        for (int i = 0; i < 3; i++) {
+            ld.getPreLaunchTasks().add(new SleepTask("fetch", 10 * (3 - i), order));
+        }
+
+        LocalProcess process = new LocalProcess(agent, ld, null, 99);
+        process.runPreLaunchTasks();
+        //Same named tasks are all kept, in task order rather than finish order:
+        assertEquals(Arrays.asList("0: fetch", "1: fetch", "2: fetch"), new ArrayList<String>(process.getMetrics().getTaskTimes().keySet()));
+    }
+
+    public void testOutputFilter() throws Exception {
+        if (ProcessSupport.isWindows()) {
+            return;
+        }
+
+        LaunchDescription ld = new LaunchDescription();
+        ld.add("sh", "-c", "i=0; while [ $i -lt 2000 ]; do echo \"INFO request $i\"; i=$((i+1)); done; echo 'Server started'; echo 'Server started again'");
+        ld.setOutputFilter(new OutputFilter().addTriggerPattern("Server started").setMaxMatches(1));
+
+        final StringBuffer output = new StringBuffer();
+        final CountDownLatch exited = new CountDownLatch(1);
+        LocalProcess process = new LocalProcess(agent, ld, new DefaultProcessListener("filtered") {
+            public void onProcessOutput(int fd, byte[] data) {
+                output.append(new String(data));
+            }
+
+            public void onProcessExit(int exitCode) {
+                exited.countDown();
+            }
+        }, 100);
+        process.setOwnerRegistryPath(CLIENTS + "/filter");
+        process.start();
+        assertTrue(exited.await(30, TimeUnit.SECONDS));
+        assertEquals("Server started\n", output.toString());
+    }
+
+    public void testOutputCoalesced() throws Exception {
+        if (ProcessSupport.isWindows()) {
+            return;
+        }
+
+        StringBuffer expected = new StringBuffer();
+        for (int i = 0; i < 500; i++) {
+            expected.append("line ").append(i).append("\n");
+        }
+        SlowListener listener = new SlowListener(20);
+        LocalProcess process = new LocalProcess(agent, print("i=0; while [ $i -lt 500 ]; do echo \"line $i\"; i=$((i+1)); done"), listener, 101);
+        process.setOutputHandling(20, 1024 * 1024, false);
+        process.setOwnerRegistryPath(CLIENTS + "/coalesce");
+        process.start();
+        assertTrue(listener.exited.await(30, TimeUnit.SECONDS));
+
+        //Nothing is lost, and the lines written while the listener was busy
+        //went out together:
+        assertEquals(expected.toString(), listener.output.toString());
+        assertTrue("Output wasn't coalesced: " + listener.calls + " calls", listener.calls.get() < 500);
+        for (String thread : listener.threads) {
+            assertTrue("Output delivered from " + thread, thread.startsWith("MeshKeeper remoting"));
+        }
+        assertEquals(expected.length(), process.getDeliveredBytes(1));
+        assertEquals(expected.length(), agent.getLaunchMetrics().getOutputDelivered());
+        assertEquals(0, agent.getLaunchMetrics().getOutputDropped());
+    }
+
+    public void testOutputDroppedForSlowListener() throws Exception {
+        if (ProcessSupport.isWindows()) {
+            return;
+        }
+
+        int total = 200 * 1024;
+        SlowListener listener = new SlowListener(100);
+        LocalProcess process = new LocalProcess(agent, print("head -c " + total + " /dev/zero | tr '\\0' x"), listener, 102);
+        process.setOutputHandling(20, 1024, true);
+        process.setOwnerRegistryPath(CLIENTS + "/drop");
+        long begin = System.currentTimeMillis();
+        process.start();
+        assertTrue(listener.exited.await(30, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - begin;
+
+        //The pump didn't wait on the listener, which only got what fit:
+        long delivered = process.getDeliveredBytes(1);
+        long dropped = process.getDroppedBytes(1);
+        LOG.info("Delivered " + delivered + " dropped " + dropped + " in " + listener.calls + " calls and " + elapsed + "ms");
+        assertEquals(total, delivered + dropped);
+        assertEquals(delivered, listener.output.length());
+        assertTrue("Nothing was dropped", dropped > 0);
+        assertTrue("Output wasn't coalesced: " + listener.calls + " calls", listener.calls.get() < total / 1024);
+        assertEquals(delivered, agent.getLaunchMetrics().getOutputDelivered());
+        assertEquals(dropped, agent.getLaunchMetrics().getOutputDropped());
+    }
+
+    /**
+     * A listener that takes its time over each chunk of output.
+     */
+    private static class SlowListener extends DefaultProcessListener {
+        final StringBuffer output = new StringBuffer();
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch exited = new CountDownLatch(1);
+        private final long delay;
+
+        SlowListener(long delay) {
+            super("slow");
+            this.delay = delay;
+        }
+
+        public void onProcessOutput(int fd, byte[] data) {
+            calls.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            output.append(new String(data));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void onProcessInfo(String message) {
+        }
+
+        public void onProcessExit(int exitCode) {
+            exited.countDown();
+        }
+    }
+
+    private static LaunchDescription print(String script) {
+        LaunchDescription ld = new LaunchDescription();
+        ld.add("sh", "-c", script);
+        return ld;
+    }
+
+    private static class SleepTask implements IndependentLaunchTask {
+        private final String name;
+        private final long time;
+        private final List<String> order;
+
+        SleepTask(String name, long time, List<String> order) {
+            this.name = name;
+            this.time = time;
+            this.order = order;
+        }
+
+        public void execute(LocalProcess process) throws Exception {
+            Thread.sleep(time);
+            order.add(name);
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static LaunchDescription launch(long time) {
+        LaunchDescription ld = new LaunchDescription();
+        ld.add("" + time);
+        return ld;
+    }
+
+    /**
+     * Creates a stub implementation of an interface whose methods return
+     * stubs, 0, false or null.
+     */
+    private Object stub(Class<?> type) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Class<?> rc = method.getReturnType();
+                if (method.getName().equals("addRegistryWatcher") && args[0].equals(CLIENTS)) {
+                    clientWatcher = (RegistryDeltaWatcher) args[1];
+                } else if (method.getName().equals("getRegistryObject")) {
+                    registryLookups.incrementAndGet();
+                } else if (method.getName().equals("getExecutorService")) {
+                    return ExecutorSupport.getDefaultExecutor();
+                }
+
+                if (method.getDeclaringClass() == Object.class) {
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return method.getName().equals("hashCode") ? System.identityHashCode(proxy) : "stub";
+                } else if (rc == File.class) {
+                    return dir;
+                } else if (rc == boolean.class) {
+                    return false;
+                } else if (rc == int.class || rc == long.class) {
+                    return rc == int.class ? (Object) 0 : (Object) 0L;
+                } else if (rc.isInterface()) {
+                    return stub(rc);
+                }
+                return null;
+            }
+        });
+    }
+}
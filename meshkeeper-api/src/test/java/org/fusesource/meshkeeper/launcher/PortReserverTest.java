@@ -0,0 +1,135 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.launcher;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * PortReserverTest
+ * <p>
+ * Description: Checks that {@link PortReserver} hands out each free port
+ * once, skips bound ports and expires the leases of a given owner.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class PortReserverTest extends TestCase {
+
+    private static final int SIZE = 40;
+
+    private int[] original;
+    private int base;
+
+    protected void setUp() throws Exception {
+        original = PortReserver.getPortRange(PortReserver.TCP);
+        base = findFreeRange();
+        PortReserver.setPortRange(PortReserver.TCP, base, base + SIZE - 1);
+    }
+
+    protected void tearDown() throws Exception {
+        PortReserver.setPortRange(PortReserver.TCP, original[0], original[1]);
+    }
+
+    public void testReserve() throws Exception {
+        ServerSocket bound = new ServerSocket(base + 5);
+        try {
+            List<Integer> first = PortReserver.reservePorts(PortReserver.TCP, 10, null);
+            List<Integer> second = PortReserver.reservePorts(PortReserver.TCP, 10, null);
+
+            HashSet<Integer> all = new HashSet<Integer>(first);
+            all.addAll(second);
+            assertEquals(20, all.size());
+            assertFalse(all.contains(base + 5));
+            assertEquals(20, PortReserver.getReservedCount(PortReserver.TCP));
+
+            PortReserver.releasePorts(PortReserver.TCP, first);
+            //All but the bound port:
+            assertEquals(SIZE - 11, PortReserver.reservePorts(PortReserver.TCP, SIZE - 11, null).size());
+
+            try {
+                PortReserver.reservePorts(PortReserver.TCP, 1, null);
+                fail("Reserved more ports than are free");
+            } catch (IOException expected) {
+            }
+        } finally {
+            bound.close();
+        }
+    }
+
+    public void testReserveContiguous() throws Exception {
+        int busy = base + 10;
+        ServerSocket bound = new ServerSocket(busy);
+        try {
+            List<Integer> range = PortReserver.reserveContiguousPorts(PortReserver.TCP, 8, null);
+            assertEquals(8, range.size());
+            for (int i = 1; i < range.size(); i++) {
+                assertEquals(range.get(i - 1) + 1, (int) range.get(i));
+            }
+            assertTrue(range.get(0) > busy || range.get(7) < busy);
+
+            List<Integer> other = PortReserver.reserveContiguousPorts(PortReserver.TCP, 8, null);
+            assertTrue(other.get(0) > range.get(7) || other.get(7) < range.get(0));
+        } finally {
+            bound.close();
+        }
+    }
+
+    public void testExpireLeases() throws Exception {
+        List<Integer> live = PortReserver.reservePorts(PortReserver.TCP, 5, "live");
+        PortReserver.reservePorts(PortReserver.TCP, 5, "dead");
+        assertEquals(2, PortReserver.getLeaseOwners(PortReserver.TCP).size());
+
+        assertEquals(0, PortReserver.expireLeases(PortReserver.TCP, "dead", 0));
+        assertEquals(5, PortReserver.expireLeases(PortReserver.TCP, "dead", System.currentTimeMillis() + 1));
+        assertEquals(1, PortReserver.getLeaseOwners(PortReserver.TCP).size());
+
+        PortReserver.releasePorts(PortReserver.TCP, live);
+        assertTrue(PortReserver.getLeaseOwners(PortReserver.TCP).isEmpty());
+        assertEquals(SIZE, PortReserver.reservePorts(PortReserver.TCP, SIZE, null).size());
+    }
+
+    /**
+     * Finds a run of free ports starting from one the OS hands out, so that
+     * the test doesn't depend on a fixed range being free.
+     */
+    private static int findFreeRange() throws IOException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            ServerSocket ss = new ServerSocket(0);
+            int port = ss.getLocalPort();
+            ss.close();
+            int lower = port + SIZE <= 65535 ? port : port - SIZE;
+            boolean free = true;
+            for (int p = lower; free && p < lower + SIZE; p++) {
+                try {
+                    new ServerSocket(p).close();
+                } catch (IOException e) {
+                    free = false;
+                }
+            }
+            if (free) {
+                return lower;
+            }
+        }
+        throw new IOException("No free range of " + SIZE + " ports");
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * LineMatcherTest
+ * <p>
+ * Description: Checks that {@link LineMatcher} finds lines split across
+ * output chunks and honors filters, that patterns referring to groups keep
+ * working alongside others, that matched lines are handed on as they were
+ * output, and compares its cost on verbose output
+ * with matching each chunk against every pattern as
+ * {@link ProcessOutputMatcher} used to.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class LineMatcherTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(LineMatcherTest.class);
+
+    private final ArrayList<String> matched = new ArrayList<String>();
+    private final ArrayList<byte[]> matchedData = new ArrayList<byte[]>();
+    private final LineMatcher.Handler handler = new LineMatcher.Handler() {
+        public void onMatch(String line, byte[] data, int offset, int length) {
+            matched.add(line);
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            matchedData.add(copy);
+        }
+    };
+
+    public void testChunkBoundaries() throws Exception {
+        LineMatcher matcher = new LineMatcher(Arrays.asList("Server started", "Exception"), Arrays.asList("Ignored"));
+        byte[] output = "booting\r\nServer started in 10ms\r\nIgnoredException\nReal Exception\npartial Exception".getBytes();
+        for (int i = 0; i < output.length; i += 3) {
+            matcher.write(output, i, Math.min(3, output.length - i), handler);
+        }
+        assertEquals(Arrays.asList("Server started in 10ms", "Real Exception"), matched);
+
+        matcher.flush(handler);
+        assertEquals("partial Exception", matched.get(2));
+        assertEquals(5, matcher.getLineCount());
+        assertEquals(3, matcher.getMatchCount());
+    }
+
+    public void testRequiredLiteral() throws Exception {
+        assertEquals("Server started", LineMatcher.requiredLiteral("Server started"));
+        assertEquals("Exception: ", LineMatcher.requiredLiteral("[a-z.]+Exception: .*"));
+        assertEquals(" started in ", LineMatcher.requiredLiteral("^(Jetty|Tomcat) started in \\d+ms"));
+        assertEquals("ERROR", LineMatcher.requiredLiteral("ERRORS?"));
+        assertNull(LineMatcher.requiredLiteral("ERROR|FATAL"));
+        assertNull(LineMatcher.requiredLiteral("(?i)error"));
+        assertNull(LineMatcher.requiredLiteral("^\\d+$"));
+
+        //Patterns without a literal still match:
+        LineMatcher matcher = new LineMatcher(Arrays.asList("Server", "^\\d+$"), Collections.<String> emptyList());
+        byte[] output = "abc\n42\nServer up\n".getBytes();
+        matcher.write(output, 0, output.length, handler);
+        assertEquals(Arrays.asList("42", "Server up"), matched);
+    }
+
+    public void testNonAscii() throws Exception {
+        LineMatcher matcher = new LineMatcher(Arrays.asList("d.marr.$"), Collections.<String> emptyList());
+        byte[] line = "Serveur d\u00e9marr\u00e9".getBytes();
+        matcher.write(line, 0, line.length, handler);
+        matcher.write(new byte[] { '\n' }, 0, 1, handler);
+        assertEquals(Arrays.asList(new String(line)), matched);
+        assertTrue(Arrays.equals(line, matchedData.get(0)));
+
+        //Output in another charset than the platform's is passed on as is:
+        byte[] latin = "Serveur d\u00e9marr\u00e9\r\n".getBytes("ISO-8859-1");
+        matcher.write(latin, 0, latin.length, handler);
+        assertEquals(2, matched.size());
+        assertEquals("Serveur d\u00e9marr\u00e9", new String(matchedData.get(1), "ISO-8859-1"));
+    }
+
+    public void testGroupReferences() throws Exception {
+        assertTrue(LineMatcher.refersToGroups("(\\w+) \\1"));
+        assertTrue(LineMatcher.refersToGroups("(?<word>\\w+) \\k<word>"));
+        assertFalse(LineMatcher.refersToGroups("(ERROR|FATAL) \\d+"));
+        assertFalse(LineMatcher.refersToGroups("\\\\1 (?<=x)y"));
+
+        //Combined, the backreference would refer to the first pattern's group:
+        LineMatcher matcher = new LineMatcher(Arrays.asList("(ERROR|FATAL):", "(\\w+) \\1", "^(?<w>x+)-\\k<w>$"), Collections.<String> emptyList());
+        byte[] output = "ERROR: x\nagain again\nERROR ERROR\nnothing here\nxx-xx\nxx-x\n".getBytes();
+        matcher.write(output, 0, output.length, handler);
+        assertEquals(Arrays.asList("ERROR: x", "again again", "ERROR ERROR", "xx-xx"), matched);
+    }
+
+    public void testLongLines() throws Exception {
+        LineMatcher matcher = new LineMatcher(Arrays.asList("x"), Collections.<String> emptyList());
+        byte[] output = new byte[LineMatcher.MAX_LINE_LENGTH * 2 + 10];
+        Arrays.fill(output, (byte) 'x');
+        matcher.write(output, 0, output.length, handler);
+        matcher.flush(handler);
+        assertEquals(3, matched.size());
+        assertEquals(LineMatcher.MAX_LINE_LENGTH, matched.get(0).length());
+    }
+
+    public void testThroughput() throws Exception {
+        List<String> triggers = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            triggers.add("ERROR-" + i + " ");
+        }
+        triggers.add("Server started");
+
+        //Verbose log output delivered in 4k chunks:
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; log.length() < 8 * 1024 * 1024; i++) {
+            log.append("2010-01-01 12:00:00,000 INFO  [org.example.Component] Processed request ").append(i).append(" in 3ms\n");
+        }
+        log.append("Server started\n");
+        byte[] output = log.toString().getBytes();
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        for (int i = 0; i < output.length; i += 4096) {
+            byte[] chunk = new byte[Math.min(4096, output.length - i)];
+            System.arraycopy(output, i, chunk, 0, chunk.length);
+            chunks.add(chunk);
+        }
+
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : triggers) {
+            patterns.add(Pattern.compile(regex, Pattern.MULTILINE));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long begin = System.nanoTime();
+            int found = 0;
+            for (byte[] chunk : chunks) {
+                String s = new String(chunk);
+                for (Pattern p : patterns) {
+                    if (p.matcher(s).find()) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            long perChunk = System.nanoTime() - begin;
+
+            matched.clear();
+            begin = System.nanoTime();
+            LineMatcher matcher = new LineMatcher(triggers, Collections.<String> emptyList());
+            for (byte[] chunk : chunks) {
+                matcher.write(chunk, 0, chunk.length, handler);
+            }
+            matcher.flush(handler);
+            long streaming = System.nanoTime() - begin;
+
+            assertEquals(Arrays.asList("Server started"), matched);
+            LOG.info("Matching " + output.length / 1024 + "k against " + triggers.size() + " patterns: per chunk=" + perChunk / 1000000 + "ms (" + found + " found), streaming="
+                    + streaming / 1000000 + "ms");
+        }
+    }
+}
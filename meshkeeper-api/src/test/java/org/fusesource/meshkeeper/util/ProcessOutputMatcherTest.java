@@ -0,0 +1,75 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * ProcessOutputMatcherTest
+ * <p>
+ * Description: Checks that a {@link ProcessOutputMatcher} matches the last
+ * unterminated line on exit even when its subclass handles the exit, and
+ * that it can still match whole chunks with patterns spanning lines.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ProcessOutputMatcherTest extends TestCase {
+
+    private final ArrayList<String> matched = new ArrayList<String>();
+
+    public void testLastLineMatchedBeforeExit() throws Exception {
+        ProcessOutputMatcher matcher = new RecordingMatcher(true) {
+            protected void onExit(int exitCode) {
+                matched.add("exit " + exitCode);
+            }
+        };
+        matcher.addTriggerPattern("Exception");
+        matcher.onProcessOutput(1, "Exception in main\nlast Excep".getBytes());
+        matcher.onProcessOutput(1, "tion".getBytes());
+        assertEquals(Arrays.asList("Exception in main"), matched);
+
+        matcher.onProcessExit(1);
+        assertEquals(Arrays.asList("Exception in main", "last Exception", "exit 1"), matched);
+    }
+
+    public void testChunkMatching() throws Exception {
+        ProcessOutputMatcher matcher = new RecordingMatcher(false);
+        matcher.addTriggerPattern("^Caused by: .*\\n\\s+at ");
+        matcher.addFilterPattern("Ignored");
+
+        String chunk = "Exception\nCaused by: java.io.IOException\n  at Foo.bar\n";
+        matcher.onProcessOutput(1, chunk.getBytes());
+        matcher.onProcessOutput(1, "Caused by: Ignored\n  at Foo.bar\n".getBytes());
+        matcher.onProcessExit(0);
+        assertEquals(Arrays.asList(chunk), matched);
+    }
+
+    private class RecordingMatcher extends ProcessOutputMatcher {
+        RecordingMatcher(boolean matchLines) {
+            super("test", matchLines);
+        }
+
+        protected void onMatch(String output) {
+            matched.add(output);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.Distributable;
+import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.MeshEvent;
+
+/**
+ * ClassResolutionCacheTest
+ * <p>
+ * Description: Checks that the {@link ClassResolutionCache} remembers hits and
+ * misses, and that deserializing a registry object or a remoting stub again
+ * through {@link ClassLoadingAwareObjectInputStream} doesn't go back to the
+ * class loaders. With <code>meshkeeper.benchmark</code> set it also measures
+ * deserializing them with and without the cache. The first class loader
+ * can't see the classes, as is the case for Marshalled objects loaded ahead
+ * of the plugin class loader, so every class is a miss there first.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ClassResolutionCacheTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(ClassResolutionCacheTest.class);
+
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = Integer.getInteger("meshkeeper.benchmark.iterations", 20000);
+
+    public static interface IService extends Distributable {
+        public void ping();
+    }
+
+    public static class StubHandler implements InvocationHandler, Serializable {
+        private static final long serialVersionUID = 1L;
+        String destination = "rmiviajms.system-1";
+        long objectId = 42;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            return null;
+        }
+    }
+
+    private ClassLoader[] loaders;
+
+    protected void setUp() throws Exception {
+        loaders = new ClassLoader[] { new URLClassLoader(new URL[0], null), getClass().getClassLoader() };
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        ClassResolutionCache cache = new ClassResolutionCache(60000);
+        assertNull(cache.resolve(MeshEvent.class.getName(), loaders[0]));
+        assertNull(cache.resolve(MeshEvent.class.getName(), loaders[0]));
+        assertEquals(1, cache.getMisses());
+
+        assertSame(MeshEvent.class, cache.resolve(MeshEvent.class.getName(), loaders[1]));
+        assertSame(MeshEvent.class, cache.resolve(MeshEvent.class.getName(), loaders[1]));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getLookups());
+
+        //Expired misses are looked up again:
+        cache = new ClassResolutionCache(0);
+        assertNull(cache.resolve(MeshEvent.class.getName(), loaders[0]));
+        Thread.sleep(2);
+        assertNull(cache.resolve(MeshEvent.class.getName(), loaders[0]));
+        assertEquals(0, cache.getMisses());
+        assertEquals(2, cache.getLookups());
+
+        cache.clear(loaders[0]);
+    }
+
+    public void testDeserialize() throws Exception {
+        byte[] stub = serialize(createStub());
+        byte[] registryObject = serialize(createLaunchDescription());
+
+        IService service = (IService) read(stub, ClassLoadingAwareObjectInputStream.getResolutionCache());
+        assertTrue(Proxy.isProxyClass(service.getClass()));
+        assertNotNull(read(registryObject, ClassLoadingAwareObjectInputStream.getResolutionCache()));
+    }
+
+    public void testRepeatedReadsAreCached() throws Exception {
+        for (byte[] data : new byte[][] { serialize(createLaunchDescription()), serialize(createStub()) }) {
+            ClassResolutionCache cache = new ClassResolutionCache(60000);
+            read(data, cache);
+            long lookups = cache.getLookups();
+            assertTrue(lookups > 0);
+
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(read(data, cache));
+            }
+            assertEquals("Repeated reads went back to the class loaders: " + cache, lookups, cache.getLookups());
+            assertTrue("First loader misses weren't remembered: " + cache, cache.getMisses() > 0);
+            assertTrue(cache.getHits() > 0);
+        }
+    }
+
+    public void testResolutionCost() throws Exception {
+        if (!ConcurrentTestSupport.BENCHMARK) {
+            return;
+        }
+        byte[][] objects = new byte[][] { serialize(createLaunchDescription()), serialize(createStub()) };
+        String[] names = new String[] { "registry object", "remoting stub" };
+        for (int i = 0; i < objects.length; i++) {
+            LOG.info(measure(names[i] + " uncached", objects[i], null));
+            ClassResolutionCache cache = new ClassResolutionCache(60000);
+            LOG.info(measure(names[i] + " cached", objects[i], cache) + " " + cache);
+        }
+    }
+
+    private String measure(String name, byte[] data, ClassResolutionCache cache) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            read(data, cache);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            read(data, cache);
+        }
+        long elapsed = System.nanoTime() - begin;
+        return name + ": bytes=" + data.length + " read=" + elapsed / ITERATIONS + "ns";
+    }
+
+    private Object read(byte[] data, ClassResolutionCache cache) throws IOException, ClassNotFoundException {
+        return new ClassLoadingAwareObjectInputStream(new ByteArrayInputStream(data), loaders, cache).readObject();
+    }
+
+    private static Object createStub() {
+        return Proxy.newProxyInstance(IService.class.getClassLoader(), new Class[] { IService.class }, new StubHandler());
+    }
+
+    private static LaunchDescription createLaunchDescription() {
+        LaunchDescription ld = new LaunchDescription();
+        ld.add("java", "-cp", "lib/a.jar", "org.example.Main");
+        ld.setEnv("HOME", "/home/test");
+        ld.setWorkingDirectory("/tmp");
+        return ld;
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(baos);
+        os.writeObject(o);
+        os.close();
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ConcurrentTestSupport
+ * <p>
+ * Description: Runs a task on a number of threads that are released at the
+ * same time, for concurrency checks and throughput measurements.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ConcurrentTestSupport {
+
+    public static final long DEFAULT_TIMEOUT = 1000 * 60 * 5;
+
+    /**
+     * Throughput measurements only run when
+     * <code>meshkeeper.benchmark</code> is set, they assert nothing and
+     * would just slow down the build.
+     */
+    public static final boolean BENCHMARK = Boolean.getBoolean("meshkeeper.benchmark");
+
+    public interface Task {
+        /**
+         * @param thread
+         *            The index of the thread running the task.
+         */
+        public void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the task on the given number of threads and waits for all of
+     * them to finish.
+     *
+     * @return The elapsed time in nanoseconds, from the threads' release to
+     *         the last one finishing.
+     * @throws Exception
+     *             The first error thrown by a task, or a timeout.
+     */
+    public static long run(String name, int threads, Task task) throws Exception {
+        return run(name, threads, task, DEFAULT_TIMEOUT);
+    }
+
+    public static long run(final String name, int threads, final Task task, long timeout) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            Thread thread = new Thread(name + " " + i) {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(index);
+                    } catch (Throwable thrown) {
+                        error.compareAndSet(null, thrown);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+            throw new Exception("Timed out waiting for " + name);
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        if (error.get() != null) {
+            throw new Exception("Error in " + name, error.get());
+        }
+        return elapsed;
+    }
+}
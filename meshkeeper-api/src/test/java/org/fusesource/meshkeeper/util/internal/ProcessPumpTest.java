@@ -0,0 +1,83 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.util.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * ProcessPumpTest
+ * <p>
+ * Description: Checks that a {@link ProcessPump} worker keeps pumping the
+ * other processes assigned to it, and still reports every exit, when the
+ * output stream of one of them throws.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ProcessPumpTest extends TestCase {
+
+    private static final long TIMEOUT = 30000;
+
+    public void testThrowingSinkDoesntStallWorker() throws Exception {
+        if (ProcessSupport.isWindows()) {
+            return;
+        }
+
+        //A single worker so that all the processes share it:
+        ProcessPump pump = new ProcessPump("Test Pump", 1, 1024, 10);
+        final CountDownLatch exited = new CountDownLatch(3);
+        Runnable onExit = new Runnable() {
+            public void run() {
+                exited.countDown();
+            }
+        };
+
+        OutputStream throwing = new OutputStream() {
+            public void write(int b) {
+                throw new IllegalStateException("Broken sink");
+            }
+
+            public void write(byte[] b, int off, int len) {
+                throw new IllegalStateException("Broken sink");
+            }
+        };
+        ByteArrayOutputStream brokenErr = new ByteArrayOutputStream();
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+
+        pump.watch("broken", exec("echo broken; echo still here 1>&2"), throwing, brokenErr, onExit);
+        pump.watch("p1", exec("i=0; while [ $i -lt 200 ]; do echo line $i; i=$((i+1)); done"), out1, null, onExit);
+        pump.watch("p2", exec("sleep 1; echo done"), out2, null, onExit);
+
+        assertTrue("Exits weren't all reported", exited.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(out1.toString().startsWith("line 0\n"));
+        assertTrue(out1.toString().endsWith("line 199\n"));
+        assertEquals("done\n", out2.toString());
+        //The broken process' other stream is still pumped:
+        assertEquals("still here\n", brokenErr.toString());
+    }
+
+    private static Process exec(String script) throws Exception {
+        return Runtime.getRuntime().exec(new String[] { "sh", "-c", script });
+    }
+}
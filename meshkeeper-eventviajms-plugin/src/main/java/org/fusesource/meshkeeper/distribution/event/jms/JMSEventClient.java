@@ -17,11 +17,17 @@
 package org.fusesource.meshkeeper.distribution.event.jms;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Semaphore;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
@@ -30,15 +36,44 @@ import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.fusesource.meshkeeper.MeshEvent;
 import org.fusesource.meshkeeper.MeshEventListener;
 import org.fusesource.meshkeeper.distribution.event.AbstractEventClient;
+import org.fusesource.meshkeeper.distribution.event.BinaryEventCodec;
+import org.fusesource.meshkeeper.distribution.event.EventCodec;
 import org.fusesource.meshkeeper.distribution.jms.JMSProvider;
 
 /**
  * JMSEventClient
  * <p>
- * Description:
+ * Description: Sends and receives events over JMS topics. Senders share a
+ * pool of sessions and producers, created as needed up to
+ * <code>meshkeeper.eventing.jms.producers</code>, so that concurrent senders
+ * don't wait on one another. Topics are received on a set of consumer
+ * sessions, <code>meshkeeper.eventing.jms.consumers</code> of them, with each
+ * topic assigned to one session by its name; events for a topic are
+ * delivered in order while different topics are delivered in parallel. A
+ * value of 0 gives each topic its own session. Consumers are created and
+ * closed under their session's lock, always taken after the client's, while
+ * events are delivered without holding either so that listeners may open and
+ * close listeners themselves.
+ * </p>
+ * <p>
+ * <code>meshkeeper.eventing.jms.delivery</code> selects how events are sent:
+ * <code>nonpersistent</code> (the default), <code>persistent</code> or
+ * <code>async</code>, which sends non persistent events without waiting for
+ * the broker where the provider supports it.
+ * </p>
+ * <p>
+ * <code>meshkeeper.eventing.codec</code> selects how events are encoded:
+ * <code>object</code> (the default) sends object messages, which every
+ * client can read, while <code>binary</code> for the {@link BinaryEventCodec}
+ * or the class name of another {@link EventCodec} sends bytes messages that
+ * older clients can't read, so only set it once all clients on the topic
+ * accept them. Both kinds of message are always accepted, and a message is
+ * decoded once no matter how many listeners receive it.
  * </p>
  * 
  * @author cmacnaug
@@ -46,31 +81,57 @@ import org.fusesource.meshkeeper.distribution.jms.JMSProvider;
  */
 public class JMSEventClient extends AbstractEventClient {
 
+    private static final Log LOG = LogFactory.getLog(JMSEventClient.class);
+
     private static final String topicPrefix = "clevent.";
 
+    public static final String DELIVERY_PERSISTENT = "persistent";
+    public static final String DELIVERY_NON_PERSISTENT = "nonpersistent";
+    public static final String DELIVERY_ASYNC = "async";
+
+    private static final int MAX_PRODUCERS = Math.max(1, Integer.getInteger("meshkeeper.eventing.jms.producers", 4));
+    private static final int CONSUMER_SESSIONS = Math.max(0, Integer.getInteger("meshkeeper.eventing.jms.consumers", 4));
+    private static final String DELIVERY = System.getProperty("meshkeeper.eventing.jms.delivery", DELIVERY_NON_PERSISTENT);
+    private static final EventCodec CODEC = createCodec(System.getProperty("meshkeeper.eventing.codec", "object"));
+
     private final JMSProvider provider;
     private final Connection connection;
-    private final Session sendSession;
-    private final MessageProducer sender;
-    private final Session listenerSession;
+    private final int deliveryMode;
 
+    //A permit for each producer that may be in use:
+    private final Semaphore producerPermits = new Semaphore(MAX_PRODUCERS);
+    private final ConcurrentLinkedQueue<Producer> idleProducers = new ConcurrentLinkedQueue<Producer>();
+    private final ArrayList<Producer> producers = new ArrayList<Producer>(MAX_PRODUCERS);
+    private final ConcurrentHashMap<String, Destination> topics = new ConcurrentHashMap<String, Destination>();
+
+    //Shared consumer sessions, created as topics are assigned to them:
+    private final ConsumerSession[] consumerSessions = new ConsumerSession[CONSUMER_SESSIONS];
     private final HashMap<String, TopicHandler> listeners = new HashMap<String, TopicHandler>();
+    private boolean destroyed;
 
     JMSEventClient(JMSProvider provider, URI uri) throws JMSException {
         this.provider = provider;
         this.connection = provider.getConnection(this, uri);
-        this.sendSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-        this.sender = sendSession.createProducer(null);
-        sender.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
-        sender.setTimeToLive(120000);
-        this.listenerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+        if (DELIVERY_PERSISTENT.equals(DELIVERY)) {
+            deliveryMode = DeliveryMode.PERSISTENT;
+        } else if (DELIVERY_NON_PERSISTENT.equals(DELIVERY)) {
+            deliveryMode = DeliveryMode.NON_PERSISTENT;
+        } else if (DELIVERY_ASYNC.equals(DELIVERY)) {
+            deliveryMode = DeliveryMode.NON_PERSISTENT;
+            if (!provider.setAsyncSend(connection, true)) {
+                LOG.warn("Async event delivery isn't supported by " + provider + ", events will be sent synchronously");
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown event delivery mode: " + DELIVERY);
+        }
     }
 
     public synchronized void closeEventListener(MeshEventListener listener, String topic) throws Exception {
         TopicHandler th = listeners.get(topic);
         if (th != null) {
-            th.listeners.remove(listener);
-            if (th.listeners.isEmpty()) {
+            if (th.removeListener(listener)) {
+                listeners.remove(topic);
                 th.close();
             }
         }
@@ -85,9 +146,122 @@ public class JMSEventClient extends AbstractEventClient {
         th.addListener(listener);
     }
 
-    public synchronized void sendEvent(MeshEvent event, String topic) throws Exception {
+    public void sendEvent(MeshEvent event, String topic) throws Exception {
+        Producer producer = acquireProducer();
+        try {
+            producer.send(getTopic(topic), event);
+        } catch (JMSException e) {
+            //Don't reuse a producer that may be broken:
+            discardProducer(producer);
+            producer = null;
+            throw e;
+        } finally {
+            releaseProducer(producer);
+        }
+    }
+
+    /**
+     * @return The codec or null if events should be sent as object messages.
+     */
+    private static EventCodec createCodec(String name) {
+        if ("object".equals(name)) {
+            return null;
+        } else if ("binary".equals(name)) {
+            return new BinaryEventCodec();
+        }
+
+        try {
+            return (EventCodec) Class.forName(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid event codec: " + name, e);
+        }
+    }
+
+    private static MeshEvent decode(Message msg) throws Exception {
+        if (msg instanceof BytesMessage) {
+            BytesMessage bytesMessage = (BytesMessage) msg;
+            byte[] data = new byte[(int) bytesMessage.getBodyLength()];
+            bytesMessage.readBytes(data);
+            return (CODEC != null ? CODEC : new BinaryEventCodec()).decode(data);
+        }
+        return (MeshEvent) ((ObjectMessage) msg).getObject();
+    }
+
+    private Destination getTopic(String topic) {
+        Destination destination = topics.get(topic);
+        if (destination == null) {
+            destination = provider.createTopic(topicPrefix + topic);
+            topics.put(topic, destination);
+        }
+        return destination;
+    }
+
+    /**
+     * Takes an idle producer, or creates one if fewer than the maximum
+     * exist, waiting for a permit when all are in use. Every successful call
+     * must be matched by a {@link #releaseProducer(Producer)}.
+     */
+    private Producer acquireProducer() throws Exception {
+        producerPermits.acquire();
+        try {
+            synchronized (this) {
+                if (destroyed) {
+                    throw new IllegalStateException("Event client destroyed");
+                }
+            }
+
+            Producer producer = idleProducers.poll();
+            if (producer != null) {
+                return producer;
+            }
+
+            producer = new Producer();
+            synchronized (this) {
+                if (destroyed) {
+                    producer.close();
+                    throw new IllegalStateException("Event client destroyed");
+                }
+                producers.add(producer);
+            }
+            return producer;
+        } catch (Exception e) {
+            //Pass the permit on, waking the next waiter to fail or retry:
+            producerPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a producer to the pool, or just its permit if the producer
+     * was discarded.
+     */
+    private void releaseProducer(Producer producer) {
+        if (producer != null) {
+            idleProducers.offer(producer);
+        }
+        producerPermits.release();
+    }
+
+    private void discardProducer(Producer producer) {
+        synchronized (this) {
+            producers.remove(producer);
+        }
+        producer.close();
+    }
 
-        sender.send(sendSession.createTopic(topicPrefix + topic), sendSession.createObjectMessage(event));
+    private synchronized ConsumerSession getConsumerSession(String topic) throws JMSException {
+        if (destroyed) {
+            throw new IllegalStateException("Event client destroyed");
+        }
+        if (consumerSessions.length == 0) {
+            return new ConsumerSession();
+        }
+
+        int index = (topic.hashCode() & Integer.MAX_VALUE) % consumerSessions.length;
+        if (consumerSessions[index] == null) {
+            consumerSessions[index] = new ConsumerSession();
+        }
+        return consumerSessions[index];
     }
 
     public void start() {
@@ -95,28 +269,105 @@ public class JMSEventClient extends AbstractEventClient {
     }
 
     public synchronized void destroy() throws Exception {
-        sendSession.close();
-        listenerSession.close();
+        destroyed = true;
+        for (Producer producer : producers) {
+            producer.close();
+        }
+        producers.clear();
+        idleProducers.clear();
+        //Wake a sender waiting for a producer, each woken sender fails and
+        //passes the permit on to the next:
+        producerPermits.release();
+
+        for (TopicHandler th : listeners.values()) {
+            th.close();
+        }
         listeners.clear();
+        for (int i = 0; i < consumerSessions.length; i++) {
+            if (consumerSessions[i] != null) {
+                consumerSessions[i].session.close();
+                consumerSessions[i] = null;
+            }
+        }
         provider.releaseConnnection(connection, this);
     }
 
+    private class Producer {
+        private final Session session;
+        private final MessageProducer producer;
+
+        Producer() throws JMSException {
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            producer = session.createProducer(null);
+            producer.setDeliveryMode(deliveryMode);
+            producer.setTimeToLive(120000);
+        }
+
+        void send(Destination destination, MeshEvent event) throws Exception {
+            if (CODEC == null) {
+                producer.send(destination, session.createObjectMessage(event));
+            } else {
+                BytesMessage msg = session.createBytesMessage();
+                msg.writeBytes(CODEC.encode(event));
+                producer.send(destination, msg);
+            }
+        }
+
+        void close() {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                LOG.debug("Error closing event session", e);
+            }
+        }
+    }
+
+    /**
+     * A consumer session, whose consumers are only created and closed while
+     * holding its lock.
+     */
+    private class ConsumerSession {
+        final Session session;
+
+        ConsumerSession() throws JMSException {
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+    }
+
     private class TopicHandler implements MessageListener {
 
-        private HashSet<MeshEventListener> listeners = new HashSet<MeshEventListener>(1);
+        //Copied on write so that events are delivered without holding a lock:
+        private final CopyOnWriteArraySet<MeshEventListener> listeners = new CopyOnWriteArraySet<MeshEventListener>();
+        private final ConsumerSession consumerSession;
         private final MessageConsumer consumer;
 
         TopicHandler(String topic) throws JMSException {
-            consumer = listenerSession.createConsumer(listenerSession.createTopic(topicPrefix + topic));
-            consumer.setMessageListener(this);
+            consumerSession = getConsumerSession(topic);
+            synchronized (consumerSession) {
+                consumer = consumerSession.session.createConsumer(getTopic(topic));
+                consumer.setMessageListener(this);
+            }
         }
 
-        public synchronized void addListener(MeshEventListener listener) {
+        public void addListener(MeshEventListener listener) {
             listeners.add(listener);
         }
 
-        public synchronized void close() throws JMSException {
-            consumer.close();
+        /**
+         * @return true if there are no listeners left.
+         */
+        public boolean removeListener(MeshEventListener listener) {
+            listeners.remove(listener);
+            return listeners.isEmpty();
+        }
+
+        public void close() throws JMSException {
+            synchronized (consumerSession) {
+                consumer.close();
+            }
+            if (consumerSessions.length == 0) {
+                consumerSession.session.close();
+            }
         }
 
         /*
@@ -124,16 +375,17 @@ public class JMSEventClient extends AbstractEventClient {
          * 
          * @see javax.jms.MessageListener#onMessage(javax.jms.Message)
          */
-        public synchronized void onMessage(Message msg) {
+        public void onMessage(Message msg) {
+            MeshEvent event;
+            try {
+                event = decode(msg);
+            } catch (Exception e) {
+                LOG.warn("Error decoding event", e);
+                return;
+            }
+
             for (MeshEventListener l : listeners) {
-                MeshEvent event;
-                try {
-                    event = (MeshEvent) ((ObjectMessage) msg).getObject();
-                    l.onEvent(event);
-                } catch (JMSException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+                l.onEvent(event);
             }
         }
     }
@@ -0,0 +1,233 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.event.jms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import junit.framework.TestCase;
+
+import org.fusesource.meshkeeper.MeshEvent;
+import org.fusesource.meshkeeper.MeshEventListener;
+import org.fusesource.meshkeeper.distribution.jms.JMSProvider;
+
+/**
+ * JMSEventClientTest
+ * <p>
+ * Description: Checks that listeners can open and close listeners from
+ * within onEvent while another thread opens a topic on the same consumer
+ * session, using an in memory stand in for the JMS provider.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class JMSEventClientTest extends TestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    //"Aa" and "BB" share a hash code, so these share a consumer session:
+    private static final String TOPIC = "topicAa";
+    private static final String OTHER_TOPIC = "topicBB";
+
+    private final Map<String, StubConsumer> consumers = new ConcurrentHashMap<String, StubConsumer>();
+    private JMSEventClient client;
+
+    protected void setUp() throws Exception {
+        client = new JMSEventClient(new StubProvider(), new URI("tcp://localhost:0"));
+    }
+
+    protected void tearDown() throws Exception {
+        client.destroy();
+    }
+
+    public void testReentrantSubscribe() throws Exception {
+        final CopyOnWriteArrayList<MeshEvent> received = new CopyOnWriteArrayList<MeshEvent>();
+        final MeshEventListener second = new MeshEventListener() {
+            public void onEvent(MeshEvent event) {
+                received.add(event);
+            }
+        };
+        final Thread opener = new Thread("Opener") {
+            public void run() {
+                try {
+                    client.openEventListener(second, OTHER_TOPIC);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        opener.setDaemon(true);
+
+        MeshEventListener first = new MeshEventListener() {
+            public void onEvent(MeshEvent event) {
+                try {
+                    //Let the other thread get as far as it can while this
+                    //one is delivering:
+                    opener.start();
+                    long end = System.currentTimeMillis() + TIMEOUT;
+                    while (opener.isAlive() && opener.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < end) {
+                        Thread.sleep(10);
+                    }
+
+                    client.openEventListener(second, TOPIC);
+                    client.closeEventListener(this, TOPIC);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        client.openEventListener(first, TOPIC);
+
+        Thread delivery = deliver(TOPIC, new MeshEvent(1, "test", null));
+        delivery.join(TIMEOUT);
+        assertFalse("Delivery deadlocked", delivery.isAlive());
+        opener.join(TIMEOUT);
+        assertFalse("Opener deadlocked", opener.isAlive());
+        assertTrue(received.isEmpty());
+
+        //Only the listener opened during delivery is left:
+        delivery = deliver(TOPIC, new MeshEvent(2, "test", null));
+        delivery.join(TIMEOUT);
+        assertEquals(1, received.size());
+        assertEquals(2, received.get(0).getType());
+
+        //And it also receives on the other topic:
+        delivery = deliver(OTHER_TOPIC, new MeshEvent(3, "test", null));
+        delivery.join(TIMEOUT);
+        assertEquals(2, received.size());
+        assertEquals(3, received.get(1).getType());
+    }
+
+    /**
+     * Delivers an event to the topic's consumer on a new thread, as a
+     * provider's session thread would.
+     */
+    private Thread deliver(String topic, MeshEvent event) {
+        final MessageListener listener = consumers.get(topic).listener;
+        final Message msg = (Message) stub(ObjectMessage.class, new Object[] { "getObject", event });
+        Thread thread = new Thread("Delivery") {
+            public void run() {
+                listener.onMessage(msg);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static Object stub(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(JMSEventClientTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * Creates a stub of the given interface, returning the given values from
+     * the named methods and null from all others.
+     *
+     * @param results
+     *            Alternating method names and results.
+     */
+    private static Object stub(Class<?> type, final Object[] results) {
+        return stub(type, new StubHandler() {
+            Object handle(Method method, Object[] args) {
+                for (int i = 0; i < results.length; i += 2) {
+                    if (method.getName().equals(results[i])) {
+                        return results[i + 1];
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gives stubs identity equality and hashing.
+     */
+    private static abstract class StubHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return handle(method, args);
+        }
+
+        abstract Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    private class StubProvider extends JMSProvider {
+
+        public ConnectionFactory createConnectionFactory(URI uri) {
+            Connection connection = (Connection) stub(Connection.class, new StubHandler() {
+                Object handle(Method method, Object[] args) {
+                    if (method.getName().equals("createSession")) {
+                        return stub(Session.class, new StubSession());
+                    }
+                    return null;
+                }
+            });
+            return (ConnectionFactory) stub(ConnectionFactory.class, new Object[] { "createConnection", connection });
+        }
+
+        public Destination createQueue(String name) {
+            return createTopic(name);
+        }
+
+        public Destination createTopic(String name) {
+            return (Destination) stub(Topic.class, new Object[] { "getTopicName", name, "toString", name });
+        }
+    }
+
+    private class StubSession extends StubHandler {
+        Object handle(Method method, Object[] args) throws Exception {
+            if (method.getName().equals("createConsumer")) {
+                String topic = ((Topic) args[0]).getTopicName().substring("clevent.".length());
+                StubConsumer consumer = new StubConsumer();
+                consumers.put(topic, consumer);
+                return stub(MessageConsumer.class, consumer);
+            }
+            return null;
+        }
+    }
+
+    private static class StubConsumer extends StubHandler {
+        volatile MessageListener listener;
+
+        Object handle(Method method, Object[] args) {
+            if (method.getName().equals("setMessageListener")) {
+                listener = (MessageListener) args[0];
+            }
+            return null;
+        }
+    }
+}
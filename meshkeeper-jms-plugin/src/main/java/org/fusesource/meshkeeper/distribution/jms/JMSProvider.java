@@ -44,6 +44,17 @@ public abstract class JMSProvider {
     public abstract Destination createQueue(String name);
     
     public abstract Destination createTopic(String name);
+
+    /**
+     * Enables or disables asynchronous sends on a connection obtained from
+     * this provider, if the provider supports them. Asynchronous sends don't
+     * wait for the broker to acknowledge receipt of a message.
+     * 
+     * @return true if the setting was applied.
+     */
+    public boolean setAsyncSend(Connection connection, boolean asyncSend) {
+        return false;
+    }
     
     public synchronized Connection getConnection(Object ref, URI uri) throws JMSException {
         String hostPort = uri.getHost() + ":" + uri.getPort();
@@ -0,0 +1,165 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.packaging;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.fusesource.meshkeeper.Distributable;
+import org.fusesource.meshkeeper.MavenTestSupport;
+import org.fusesource.meshkeeper.MeshEvent;
+import org.fusesource.meshkeeper.MeshEventListener;
+import org.fusesource.meshkeeper.MeshKeeper;
+import org.fusesource.meshkeeper.MeshKeeperFactory;
+import org.fusesource.meshkeeper.control.ControlServer;
+
+/**
+ * ControlBrokerBenchmarkTest
+ * <p>
+ * Description: Checks that remoting calls and events get through the control
+ * broker intact with each of the ActiveMQ broker profiles. With
+ * <code>meshkeeper.benchmark</code> set it also warms up, sends more of each
+ * and logs round trip latency and event throughput.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+public class ControlBrokerBenchmarkTest extends TestCase {
+
+    private static final Log LOG = LogFactory.getLog(ControlBrokerBenchmarkTest.class);
+
+    private static final String REGISTRY_URI = "zk:tcp://localhost:2102";
+    private static final String[] PROFILES = new String[] { "persistent", "rpc" };
+    private static final boolean BENCHMARK = Boolean.getBoolean("meshkeeper.benchmark");
+    private static final int WARMUP = BENCHMARK ? 200 : 0;
+    private static final int CALLS = BENCHMARK ? Integer.getInteger("meshkeeper.benchmark.calls", 2000) : 20;
+    private static final int EVENTS = BENCHMARK ? Integer.getInteger("meshkeeper.benchmark.events", 10000) : 100;
+
+    public static interface IEcho extends Distributable {
+        public Object echo(Object o);
+    }
+
+    public static class Echo implements IEcho, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public Object echo(Object o) {
+            return o;
+        }
+    }
+
+    protected void setUp() throws Exception {
+        System.setProperty("meshkeeper.base", MavenTestSupport.getDataDirectory(getClass().getSimpleName()).getCanonicalPath());
+    }
+
+    public void testControlBroker() throws Exception {
+        for (String profile : PROFILES) {
+            ControlServer controller = new ControlServer();
+            controller.setRegistryUri(REGISTRY_URI);
+            controller.setJmsUri(ControlServer.DEFAULT_JMS_URI + "?profile=" + profile);
+            controller.setDirectory(MavenTestSupport.getDataDirectory(getClass().getSimpleName() + File.separator + profile).getCanonicalPath());
+            controller.start();
+            MeshKeeper meshKeeper = MeshKeeperFactory.createMeshKeeper(REGISTRY_URI);
+            try {
+                String roundTrip = measureRoundTrip(profile, meshKeeper);
+                String events = measureEvents(profile, meshKeeper);
+                if (BENCHMARK) {
+                    LOG.info(roundTrip);
+                    LOG.info(events);
+                }
+            } finally {
+                meshKeeper.destroy();
+                controller.destroy();
+            }
+        }
+    }
+
+    private String measureRoundTrip(String profile, MeshKeeper meshKeeper) throws Exception {
+        Echo echo = new Echo();
+        IEcho proxy = (IEcho) meshKeeper.remoting().export(echo);
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                proxy.echo(i);
+            }
+
+            long[] latencies = new long[CALLS];
+            byte[] payload = new byte[256];
+            long begin = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                payload[i % payload.length] = (byte) i;
+                long start = System.nanoTime();
+                Object echoed = proxy.echo(payload);
+                latencies[i] = System.nanoTime() - start;
+                assertTrue(profile + " echo " + i + " came back altered", Arrays.equals(payload, (byte[]) echoed));
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            Arrays.sort(latencies);
+            return profile + " rpc: calls=" + CALLS + " elapsed=" + elapsed / 1000000 + "ms p50=" + latencies[CALLS / 2] / 1000 + "us p99=" + latencies[CALLS * 99 / 100] / 1000 + "us max="
+                    + latencies[CALLS - 1] / 1000 + "us";
+        } finally {
+            meshKeeper.remoting().unexport(echo);
+        }
+    }
+
+    private String measureEvents(String profile, MeshKeeper meshKeeper) throws Exception {
+        String topic = "benchmark-" + profile;
+        final CountDownLatch received = new CountDownLatch(EVENTS + WARMUP);
+        final CountDownLatch warm = new CountDownLatch(WARMUP);
+        final AtomicInteger altered = new AtomicInteger();
+        MeshEventListener listener = new MeshEventListener() {
+            public void onEvent(MeshEvent e) {
+                if (!"benchmark".equals(e.getSource()) || ((byte[]) e.getAttachment()).length != 256) {
+                    altered.incrementAndGet();
+                }
+                warm.countDown();
+                received.countDown();
+            }
+        };
+        meshKeeper.eventing().openEventListener(listener, topic);
+        try {
+            MeshEvent event = new MeshEvent();
+            event.setSource("benchmark");
+            event.setAttachment(new byte[256]);
+            for (int i = 0; i < WARMUP; i++) {
+                meshKeeper.eventing().sendEvent(event, topic);
+            }
+            assertTrue(warm.await(30, TimeUnit.SECONDS));
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                meshKeeper.eventing().sendEvent(event, topic);
+            }
+            long sent = System.nanoTime() - begin;
+            assertTrue("Timed out waiting for events", received.await(60, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - begin;
+            assertEquals(profile + " events came back altered", 0, altered.get());
+
+            return profile + " events: count=" + EVENTS + " send=" + sent / 1000000 + "ms elapsed=" + elapsed / 1000000 + "ms throughput=" + (EVENTS * 1000000000L / Math.max(1, elapsed)) + "/s";
+        } finally {
+            meshKeeper.eventing().closeEventListener(listener, topic);
+        }
+    }
+}
@@ -17,7 +17,9 @@
 package org.fusesource.meshkeeper.packaging;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
@@ -25,10 +27,13 @@ import junit.framework.TestCase;
 import org.fusesource.meshkeeper.Distributable;
 import org.fusesource.meshkeeper.MavenTestSupport;
 import org.fusesource.meshkeeper.MeshContainer;
+import org.fusesource.meshkeeper.MeshContainerPool;
 import org.fusesource.meshkeeper.MeshKeeper;
 import org.fusesource.meshkeeper.MeshContainer.Callable;
 import org.fusesource.meshkeeper.MeshContainer.Runnable;
 import org.fusesource.meshkeeper.util.DefaultProcessListener;
+import org.fusesource.meshkeeper.util.MeshContainers;
+import org.fusesource.meshkeeper.util.MeshContainers.FanOut;
 
 /**
  * MeshContainerTest
@@ -189,4 +194,51 @@ public class MeshContainerTest extends TestCase {
         }
     }
 
+    public void testAsyncFanOut() throws Exception {
+
+        meshKeeper.launcher().waitForAvailableAgents(5000);
+        String agentId = meshKeeper.launcher().getAvailableAgents()[0].getAgentId();
+        ArrayList<MeshContainer> containers = new ArrayList<MeshContainer>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                containers.add(meshKeeper.launcher().launchMeshContainer(agentId, new DefaultProcessListener("TestContainer-" + i)));
+            }
+
+            Future<String> single = containers.get(0).callAsync(new RemoteCallable());
+            assertEquals(RemoteCallable.RET, single.get(30, TimeUnit.SECONDS));
+
+            FanOut<String> fanOut = MeshContainers.callAll(containers, new RemoteCallable());
+            Future<String> first = fanOut.take();
+            assertEquals(RemoteCallable.RET, first.get());
+            for (String result : fanOut.getAll(30, TimeUnit.SECONDS)) {
+                assertEquals(RemoteCallable.RET, result);
+            }
+        } finally {
+            for (MeshContainer container : containers) {
+                container.close();
+            }
+        }
+    }
+
+    public void testContainerPool() throws Exception {
+
+        meshKeeper.launcher().waitForAvailableAgents(5000);
+        String agentId = meshKeeper.launcher().getAvailableAgents()[0].getAgentId();
+        MeshContainerPool pool = meshKeeper.launcher().createMeshContainerPool(null, 1);
+
+        try {
+            MeshContainer container = pool.acquire(agentId, new DefaultProcessListener("PooledContainer"));
+            assertEquals(container.call(new RemoteCallable()), RemoteCallable.RET);
+            container.close();
+
+            //The closed container is recycled:
+            container = pool.acquire(agentId, new DefaultProcessListener("PooledContainer"));
+            assertEquals(container.call(new RemoteCallable()), RemoteCallable.RET);
+            container.close();
+            assertTrue(pool.getHits() > 0);
+        } finally {
+            pool.close();
+        }
+    }
+
 }
@@ -19,6 +19,7 @@ package org.fusesource.meshkeeper.packaging;
 import java.io.File;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -28,6 +29,8 @@ import junit.framework.TestCase;
 import org.fusesource.meshkeeper.Expression;
 import org.fusesource.meshkeeper.JavaLaunch;
 import org.fusesource.meshkeeper.LaunchDescription;
+import org.fusesource.meshkeeper.LaunchFuture;
+import org.fusesource.meshkeeper.LaunchRequest;
 import org.fusesource.meshkeeper.MavenTestSupport;
 import org.fusesource.meshkeeper.MeshEvent;
 import org.fusesource.meshkeeper.MeshEventListener;
@@ -107,6 +110,27 @@ public class RemoteLaunchTest extends TestCase {
         }
     }
 
+    public void testBatchLaunch() throws Exception {
+        String agent = getAgent();
+        ArrayList<LaunchRequest> requests = new ArrayList<LaunchRequest>();
+        for (int i = 0; i < 4; i++) {
+            JavaLaunch jl = meshKeeper.launcher().createBootstrapJavaLaunch(DataInputTestApplication.class.getName());
+            requests.add(new LaunchRequest(agent, jl, new DefaultProcessListener("testBatchLaunch-" + i)));
+        }
+
+        List<LaunchFuture<MeshProcess>> futures = meshKeeper.launcher().launchProcesses(requests);
+        assertEquals(requests.size(), futures.size());
+        for (LaunchFuture<MeshProcess> future : futures) {
+            MeshProcess process = future.get(60, TimeUnit.SECONDS);
+            try {
+                assertNotNull(future.getMetrics());
+                System.out.println("Launched " + future.getRequest() + ": " + future.getMetrics());
+            } finally {
+                process.kill();
+            }
+        }
+    }
+
     public class DataOutputTester implements MeshProcessListener {
 
         private final int TEST_OUTPUT = 0;
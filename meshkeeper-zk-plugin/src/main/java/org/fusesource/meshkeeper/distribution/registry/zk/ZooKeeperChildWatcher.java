@@ -17,7 +17,6 @@
 package org.fusesource.meshkeeper.distribution.registry.zk;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -26,6 +25,7 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
 import org.fusesource.meshkeeper.RegistryWatcher;
+import org.fusesource.meshkeeper.distribution.registry.RegistryWatcherList;
 
 /**
  * ZooKeeperWatcher
@@ -43,11 +43,12 @@ class ZooKeeperChildWatcher {
     private final Watcher watcher;
     private final AtomicBoolean started = new AtomicBoolean(false);
     private final ChildrenCallback callback;
-    private final HashSet<RegistryWatcher> watchers = new HashSet<RegistryWatcher>(1);
+    private final RegistryWatcherList watchers;
 
     public ZooKeeperChildWatcher(ZooKeeper zk, String path) {
         this.zk = zk;
         this.path = path;
+        this.watchers = new RegistryWatcherList(path);
         this.watcher = new Watcher() {
 
                 public void process(WatchedEvent event) {
@@ -84,14 +85,15 @@ class ZooKeeperChildWatcher {
             children = new ArrayList<String>();
         }
         
-        for (RegistryWatcher watcher : watchers) {
-            watcher.onChildrenChanged(path, children);
-        }
+        watchers.update(children);
     }
 
     public void addWatcher(RegistryWatcher watcher) {
         if (watchers.add(watcher)) {
-            start();
+            if (!start()) {
+                //Already watching, fetch the children for the new watcher:
+                watch();
+            }
         }
     }
 
@@ -101,18 +103,19 @@ class ZooKeeperChildWatcher {
      * @return true if there are no more watchers.
      */
     public boolean removeWatcher(RegistryWatcher watcher) {
-        watchers.remove(watcher);
-        if (watchers.isEmpty()) {
+        if (watchers.remove(watcher)) {
             stop();
             return true;
         }
         return false;
     }
 
-    private void start() {
+    private boolean start() {
         if (started.compareAndSet(false, true)) {
             watch();
+            return true;
         }
+        return false;
     }
 
     private void stop() {
@@ -0,0 +1,195 @@
+/**
+ *  Copyright (C) 2009 Progress Software, Inc. All rights reserved.
+ *  http://fusesource.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.fusesource.meshkeeper.distribution.registry.zk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+
+/**
+ * ZooKeeperDataCache
+ * <p>
+ * Description: A read through cache of registry node data. Every node read
+ * into the cache leaves a ZooKeeper watch behind that removes it from the
+ * cache when the node is created, changed or deleted, so cached data is only
+ * as stale as the watch notification. Missing nodes are cached as well. The
+ * cache holds at most maxSize nodes, evicting the least recently used.
+ * </p>
+ * <p>
+ * Deserialized objects are kept along with the data, so callers reading the
+ * same node get the same object instance back and must not modify it.
+ * </p>
+ *
+ * @author cmacnaug
+ * @version 1.0
+ */
+class ZooKeeperDataCache {
+
+    private static final CachedNode MISSING = new CachedNode(null);
+
+    private final int maxSize;
+    private final LinkedHashMap<String, CachedNode> entries;
+    private final Watcher watcher;
+    //Incremented on every invalidation, a read is only cached if no
+    //invalidation happened while it was in progress:
+    private long invalidations;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ZooKeeperDataCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CachedNode>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedNode> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.watcher = new Watcher() {
+            public void process(WatchedEvent event) {
+                if (event.getPath() != null) {
+                    invalidate(event.getPath());
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets a node's data, reading it from ZooKeeper if it isn't cached.
+     *
+     * @return The data or null if the node doesn't exist.
+     */
+    public byte[] getData(ZooKeeper zk, String path) throws Exception {
+        return getEntry(zk, path).data;
+    }
+
+    /**
+     * Gets a node's data as an object, deserializing it only once.
+     *
+     * @return The object or null if the node doesn't exist.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(ZooKeeper zk, String path, ZooKeeperRegistry registry) throws Exception {
+        CachedNode entry = getEntry(zk, path);
+        if (entry.data == null) {
+            return null;
+        }
+        synchronized (entry) {
+            if (entry.object == null) {
+                entry.object = registry.toObject(entry.data);
+            }
+            return (T) entry.object;
+        }
+    }
+
+    private CachedNode getEntry(ZooKeeper zk, String path) throws Exception {
+        long generation;
+        synchronized (this) {
+            CachedNode entry = entries.get(path);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            generation = invalidations;
+        }
+
+        misses.incrementAndGet();
+        CachedNode entry;
+        try {
+            entry = new CachedNode(zk.getData(path, watcher, null));
+        } catch (NoNodeException nne) {
+            //Watch for the node's creation, if it shows up in the meantime
+            //don't cache:
+            try {
+                if (zk.exists(path, watcher) != null) {
+                    return new CachedNode(zk.getData(path, false, null));
+                }
+            } catch (NoNodeException deleted) {
+            }
+            entry = MISSING;
+        }
+
+        synchronized (this) {
+            if (generation == invalidations) {
+                entries.put(path, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes a node from the cache.
+     */
+    public synchronized void invalidate(String path) {
+        invalidations++;
+        entries.remove(path);
+    }
+
+    /**
+     * Removes all nodes from the cache, used when the session's watches may
+     * have been lost.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public String toString() {
+        return "size=" + size() + "/" + maxSize + " hits=" + hits.get() + " misses=" + misses.get() + " evictions=" + evictions.get();
+    }
+
+    private static class CachedNode {
+        final byte[] data;
+        Object object;
+
+        CachedNode(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -30,12 +30,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -51,7 +57,10 @@ import org.fusesource.meshkeeper.distribution.registry.AbstractRegistryClient;
 /**
  * ZooKeeperRegistry
  * <p>
- * Description:
+ * Description: A registry backed by ZooKeeper. Setting cacheSize (e.g.
+ * <code>zk:tcp://host:2181?cacheSize=1000</code>) enables a client side cache
+ * of up to that many nodes for getRegistryData and getRegistryObject, kept up
+ * to date with ZooKeeper watches.
  * </p>
  * 
  * @author cmacnaug
@@ -68,7 +77,12 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
     private String password = "";
     private long connectTimeout = 30000;
     private int sessionTimeout = 10000;
+    private long readTimeout = 30000;
+    //The thread delivering watch events and async results:
+    private volatile Thread eventThread;
     private ZooKeeper zk;
+    private int cacheSize = 0;
+    private ZooKeeperDataCache cache;
 
     public ZooKeeper getZooKeeper() {
         return zk;
@@ -80,13 +94,24 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
                 //ZK doesn't like schemes, so just take host and port
                 URI uri = new URI(connectUrl);
 
+                if (cacheSize > 0) {
+                    cache = new ZooKeeperDataCache(cacheSize);
+                }
+                final ZooKeeperDataCache sessionCache = cache;
                 zk = new ZooKeeper(uri.getHost() + ":" + uri.getPort(), sessionTimeout, new Watcher() {
                     public void process(WatchedEvent event) {
+                        eventThread = Thread.currentThread();
                         switch (event.getState()) {
                         case SyncConnected:
                             connected.countDown();
                             break;
-
+                        case Disconnected:
+                        case Expired:
+                            //Watches may be missed:
+                            if (sessionCache != null) {
+                                sessionCache.clear();
+                            }
+                            break;
                         }
                     }
                 });
@@ -114,6 +139,12 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
             connected.countDown();
             connected = new CountDownLatch(1);
             zk = null;
+            if (cache != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Registry cache: " + cache);
+                }
+                cache = null;
+            }
         }
     }
 
@@ -125,18 +156,148 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
         return addRegistryData(path, sequential, baos.toByteArray());
     }
 
-    @SuppressWarnings("unchecked")
     public <T> T getRegistryObject(String path) throws Exception {
+        ZooKeeperDataCache cache = this.cache;
+        if (cache != null) {
+            checkConnected();
+            return cache.<T> getObject(zk, path, this);
+        }
+
         byte[] data = getRegistryData(path);
         if (data == null) {
             return null;
         }
+        return this.<T> toObject(data);
+    }
+
+    /**
+     * Reads the subtree with pipelined asynchronous requests: the data and
+     * children of every node are requested as soon as its parent's children
+     * are known, so the whole tree costs about one round trip per level
+     * rather than one per node.
+     */
+    public <T> Map<String, T> getRegistryObjects(String path, boolean recursive) throws Exception {
+        checkConnected();
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        TreeMap<String, T> objects = new TreeMap<String, T>();
+        for (Map.Entry<String, byte[]> entry : new SubtreeReader(recursive).read(path).entrySet()) {
+            objects.put(entry.getKey(), this.<T> toObject(entry.getValue()));
+        }
+        return objects;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T toObject(byte[] data) throws Exception {
         ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
         return (T) in.readObject();
     }
 
+    private class SubtreeReader implements DataCallback, ChildrenCallback {
+        private final boolean recursive;
+        private final HashMap<String, byte[]> results = new HashMap<String, byte[]>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile KeeperException error;
+
+        SubtreeReader(boolean recursive) {
+            this.recursive = recursive;
+        }
+
+        Map<String, byte[]> read(String path) throws Exception {
+            //The async results are delivered on the event thread, so a
+            //read made from it, such as by a watcher, can't wait for them:
+            if (Thread.currentThread() == eventThread) {
+                readSync(path);
+                return results;
+            }
+
+            outstanding.incrementAndGet();
+            zk.getChildren(path, false, this, null);
+            if (!done.await(readTimeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Timed out reading " + path + " after " + readTimeout + " milliseconds");
+            }
+            if (error != null) {
+                throw error;
+            }
+            synchronized (results) {
+                return results;
+            }
+        }
+
+        private void readSync(String path) throws Exception {
+            List<String> children;
+            try {
+                children = zk.getChildren(path, false);
+            } catch (NoNodeException nne) {
+                return;
+            }
+            String prefix = path.equals("/") ? path : path + "/";
+            for (String child : children) {
+                String childPath = prefix + child;
+                try {
+                    byte[] data = zk.getData(childPath, false, null);
+                    if (data != null && data.length > 0) {
+                        results.put(childPath, data);
+                    }
+                } catch (NoNodeException nne) {
+                    continue;
+                }
+                if (recursive) {
+                    readSync(childPath);
+                }
+            }
+        }
+
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.OK) {
+                String prefix = path.equals("/") ? path : path + "/";
+                for (String child : children) {
+                    String childPath = prefix + child;
+                    outstanding.incrementAndGet();
+                    zk.getData(childPath, false, this, null);
+                    if (recursive) {
+                        outstanding.incrementAndGet();
+                        zk.getChildren(childPath, false, this, null);
+                    }
+                }
+            } else if (code != KeeperException.Code.NONODE) {
+                error = KeeperException.create(code, path);
+            }
+            complete();
+        }
+
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.OK) {
+                if (data != null && data.length > 0) {
+                    synchronized (results) {
+                        results.put(path, data);
+                    }
+                }
+            } else if (code != KeeperException.Code.NONODE) {
+                error = KeeperException.create(code, path);
+            }
+            complete();
+        }
+
+        private void complete() {
+            if (outstanding.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+    }
+
     public byte[] getRegistryData(String path) throws Exception {
         checkConnected();
+        ZooKeeperDataCache cache = this.cache;
+        if (cache != null) {
+            return cache.getData(zk, path);
+        }
+
         Stat stat = new Stat();
         try {
             return zk.getData(path, false, stat);
@@ -155,17 +316,46 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
             LOG.debug("Registering " + path + " length=" + (data != null ? data.length : 0));
         }
         try {
+            String created;
             if (sequential) {
-                return zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+                created = zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
             } else {
-                return zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                created = zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
             }
+            invalidate(created);
+            return created;
         } catch (NoNodeException nne) {
             createParentPath(path);
             return addRegistryData(path, sequential, data);
         }
     }
 
+    public void updateRegistryObject(String path, Serializable o) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(baos);
+        os.writeObject(o);
+        os.close();
+        updateRegistryData(path, baos.toByteArray());
+    }
+
+    public void updateRegistryData(String path, byte[] data) throws Exception {
+        checkConnected();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Updating " + path + " length=" + (data != null ? data.length : 0));
+        }
+        try {
+            zk.setData(path, data, -1);
+            invalidate(path);
+        } catch (NoNodeException nne) {
+            try {
+                addRegistryData(path, false, data);
+            } catch (NodeExistsException nee) {
+                //Created concurrently, update it instead:
+                updateRegistryData(path, data);
+            }
+        }
+    }
+
     public void removeRegistryData(String path, boolean recursive) throws Exception {
         checkConnected();
         try {
@@ -185,6 +375,7 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
                 return;
             }
             zk.delete(path, -1);
+            invalidate(path);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Removed: " + path);
             }
@@ -194,6 +385,7 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
             //Done.
         } catch (NotEmptyException nee) {
             zk.setData(path, null, -1);
+            invalidate(path);
             //If it's not recursive and not empty, just set data null.
             if (recursive) {
                 for (String child : zk.getChildren(path, false)) {
@@ -331,6 +523,17 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
         }
     }
 
+    /**
+     * Drops a node we've just changed from the cache rather than waiting for
+     * its watch to fire.
+     */
+    private void invalidate(String path) {
+        ZooKeeperDataCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
+
     private void checkConnected() throws Exception {
         if (connected.getCount() > 0) {
             throw new Exception("Not Connected");
@@ -377,6 +580,55 @@ public class ZooKeeperRegistry extends AbstractRegistryClient {
         this.sessionTimeout = sessionTimeout;
     }
 
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds to wait for a bulk read of a
+     * node's children.
+     */
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets the maximum number of nodes held by the client side cache, 0 (the
+     * default) disables the cache. Takes effect when the registry is
+     * started.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @return The number of reads served from the cache.
+     */
+    public long getCacheHits() {
+        ZooKeeperDataCache cache = this.cache;
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    /**
+     * @return The number of reads that had to go to ZooKeeper.
+     */
+    public long getCacheMisses() {
+        ZooKeeperDataCache cache = this.cache;
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    /**
+     * @return The number of nodes evicted to keep the cache within its size.
+     */
+    public long getCacheEvictions() {
+        ZooKeeperDataCache cache = this.cache;
+        return cache == null ? 0 : cache.getEvictions();
+    }
+
     public String toString() {
         return "ZooKeeperRegistry@" + connectUrl;
     }
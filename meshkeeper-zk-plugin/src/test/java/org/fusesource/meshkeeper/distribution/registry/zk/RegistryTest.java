@@ -17,6 +17,7 @@
 package org.fusesource.meshkeeper.distribution.registry.zk;
 
 import java.io.Serializable;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -126,6 +127,51 @@ public class RegistryTest extends TestCase {
         assertNull(client.getRegistryData("/delete/d/e"));
     }
 
+    public void testGetRegistryObjects() throws Exception {
+        LOG.info("Running: testGetRegistryObjects");
+
+        client.addRegistryObject("/bulk/a", false, new TestObject());
+        client.addRegistryObject("/bulk/b", false, new TestObject());
+        client.addRegistryObject("/bulk/c/d", false, new TestObject());
+
+        Map<String, TestObject> children = client.getRegistryObjects("/bulk", false);
+        assertEquals(2, children.size());
+        assertTrue(children.containsKey("/bulk/a"));
+        assertTrue(children.containsKey("/bulk/b"));
+
+        Map<String, TestObject> all = client.getRegistryObjects("/bulk", true);
+        assertEquals(3, all.size());
+        assertNotNull(all.get("/bulk/c/d"));
+
+        assertTrue(client.getRegistryObjects("/missing", true).isEmpty());
+    }
+
+    public void testCache() throws Exception {
+        LOG.info("Running: testCache");
+        client.destroy();
+        client = new ZooKeeperFactory().createPlugin(server.getServiceUri() + "?cacheSize=2");
+        ZooKeeperRegistry registry = (ZooKeeperRegistry) client;
+
+        assertNull(client.getRegistryData("/cache/a"));
+        client.addRegistryData("/cache/a", false, new byte[] { 1 });
+        assertEquals(1, client.getRegistryData("/cache/a")[0]);
+        long misses = registry.getCacheMisses();
+        assertEquals(1, client.getRegistryData("/cache/a")[0]);
+        assertEquals(misses, registry.getCacheMisses());
+        assertTrue(registry.getCacheHits() > 0);
+
+        //Removal invalidates:
+        client.removeRegistryData("/cache/a", false);
+        assertNull(client.getRegistryData("/cache/a"));
+
+        //LRU eviction:
+        client.addRegistryData("/cache/b", false, new byte[] { 2 });
+        client.addRegistryData("/cache/c", false, new byte[] { 3 });
+        client.getRegistryData("/cache/b");
+        client.getRegistryData("/cache/c");
+        assertTrue(registry.getCacheEvictions() > 0);
+    }
+
     public static class TestObject implements Serializable {
 
         private static final long serialVersionUID = 1L;